@@ -0,0 +1,89 @@
+package cfh.calculator.jmh;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.*;
+
+import cfh.calculator.BoundExpression;
+import cfh.calculator.Expression;
+import cfh.calculator.data.Column;
+import cfh.calculator.data.DoubleData;
+import cfh.calculator.data.Slots;
+
+
+// batch evaluation of off-heap rows: copied into heap arrays first, read in place from packed
+// columns and from records of x, y, z; heap arrays as reference
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class ColumnBenchmark {
+
+    private static final int ROWS = 1 << 20;
+
+    private BoundExpression<DoubleData> bound;
+    private double[][] arrays;
+    private double[] out;
+    private ByteBuffer[] buffers;
+    private Column[] packed;
+    private Column[] records;
+    private Column result;
+
+    @Setup
+    public void setup() throws Exception {
+        bound = Expression.parseDouble(Corpus.variables(10, 42)).bind(Slots.of(Corpus.VARIABLES));
+        var random = new Random(42);
+        arrays = new double[3][];
+        buffers = new ByteBuffer[3];
+        packed = new Column[3];
+        records = new Column[3];
+        var record = ByteBuffer.allocateDirect(24 * ROWS).order(ByteOrder.nativeOrder());
+        for (var i = 0; i < 3; i++) {
+            arrays[i] = random.doubles(ROWS).toArray();
+            buffers[i] = ByteBuffer.allocateDirect(8 * ROWS).order(ByteOrder.nativeOrder());
+            buffers[i].asDoubleBuffer().put(arrays[i]);
+            packed[i] = Column.of(buffers[i]);
+            for (var row = 0; row < ROWS; row++) {
+                record.putDouble(24 * row + 8 * i, arrays[i][row]);
+            }
+            records[i] = Column.of(record, 8 * i, 24, ROWS, ByteOrder.nativeOrder());
+        }
+        out = new double[ROWS];
+        result = Column.allocate(ROWS);
+    }
+
+    @Benchmark
+    public double[] heap() {
+        bound.evalBatch(arrays, out);
+        return out;
+    }
+
+    @Benchmark
+    public Column copied() {
+        var columns = new double[3][ROWS];
+        for (var i = 0; i < 3; i++) {
+            buffers[i].asDoubleBuffer().get(columns[i]);
+        }
+        var results = new double[ROWS];
+        bound.evalBatch(columns, results);
+        result.put(0, results, 0, ROWS);
+        return result;
+    }
+
+    @Benchmark
+    public Column packed() {
+        bound.evalBatch(packed, 0, ROWS, result);
+        return result;
+    }
+
+    @Benchmark
+    public Column records() {
+        bound.evalBatch(records, 0, ROWS, result);
+        return result;
+    }
+}
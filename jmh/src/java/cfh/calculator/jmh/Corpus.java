@@ -0,0 +1,92 @@
+package cfh.calculator.jmh;
+
+import java.util.Random;
+
+
+// generated expression texts, reproducible by seed
+public final class Corpus {
+
+    public static final String[] VARIABLES = { "x", "y", "z" };
+
+    // nested to the given depth: (((x + 1.5) * y) - 2.25) ...
+    public static String deep(int depth, long seed) {
+        var random = new Random(seed);
+        var builder = new StringBuilder(variable(random));
+        for (var i = 0; i < depth; i++) {
+            builder.insert(0, '(');
+            builder.append(' ').append(operator(random)).append(' ').append(operand(random)).append(')');
+        }
+        return builder.toString();
+    }
+
+    // flat sequence of the given number of terms: x * 1.5 + y - 2.25 ...
+    public static String wide(int terms, long seed) {
+        var random = new Random(seed);
+        var builder = new StringBuilder(operand(random));
+        for (var i = 1; i < terms; i++) {
+            builder.append(' ').append(operator(random)).append(' ').append(operand(random));
+        }
+        return builder.toString();
+    }
+
+    // only literals: 1.5 * 2.25 + 3 ...
+    public static String literals(int terms, long seed) {
+        var random = new Random(seed);
+        var builder = new StringBuilder(literal(random));
+        for (var i = 1; i < terms; i++) {
+            builder.append(' ').append(operator(random)).append(' ').append(literal(random));
+        }
+        return builder.toString();
+    }
+
+    // only variables: x * y + z ...
+    public static String variables(int terms, long seed) {
+        var random = new Random(seed);
+        var builder = new StringBuilder(variable(random));
+        for (var i = 1; i < terms; i++) {
+            builder.append(' ').append(operator(random)).append(' ').append(variable(random));
+        }
+        return builder.toString();
+    }
+
+    // function calls around variables: sin(x) + sqrt(y * z) ...
+    public static String functions(int terms, long seed) {
+        var random = new Random(seed);
+        var builder = new StringBuilder(function(random));
+        for (var i = 1; i < terms; i++) {
+            builder.append(' ').append(operator(random)).append(' ').append(function(random));
+        }
+        return builder.toString();
+    }
+
+    //----------------------------------------------------------------------------------------------
+
+    private static String operand(Random random) {
+        return random.nextBoolean() ? variable(random) : literal(random);
+    }
+
+    private static String variable(Random random) {
+        return VARIABLES[random.nextInt(VARIABLES.length)];
+    }
+
+    // never zero, no division by zero
+    private static String literal(Random random) {
+        return Integer.toString(1 + random.nextInt(9)) + "." + (1 + random.nextInt(99));
+    }
+
+    // no remainder, results stay finite for long chains
+    private static char operator(Random random) {
+        return "+-*/".charAt(random.nextInt(4));
+    }
+
+    private static String function(Random random) {
+        return switch (random.nextInt(3)) {
+            case 0 -> "sin(" + variable(random) + ")";
+            case 1 -> "cos(" + variable(random) + " * " + literal(random) + ")";
+            default -> "sqrt(" + variable(random) + " * " + variable(random) + ")";
+        };
+    }
+
+    private Corpus() {
+    }
+}
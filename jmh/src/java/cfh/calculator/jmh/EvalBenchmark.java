@@ -0,0 +1,99 @@
+package cfh.calculator.jmh;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.*;
+
+import cfh.calculator.BoundExpression;
+import cfh.calculator.Expression;
+import cfh.calculator.data.DataType;
+import cfh.calculator.data.DoubleData;
+import cfh.calculator.data.Environment;
+import cfh.calculator.data.Slots;
+import cfh.calculator.expr.EvalException;
+import cfh.calculator.expr.ExpressionStore;
+
+
+// latency of a single evaluation by kind of formula, run with -prof gc for the allocation rate
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class EvalBenchmark {
+
+    @Param({ "literals", "variables", "functions" })
+    public String kind;
+
+    @Param({ "10", "100" })
+    public int size;
+
+    private Expression<DoubleData> expression;
+    private Expression<DoubleData> flat;
+    private Environment<DoubleData> environment;
+    private BoundExpression<DoubleData> bound;
+    private BoundExpression<DoubleData> compiled;
+    private double[] values;
+    private ExpressionStore<DoubleData> store;
+    private int handle;
+    private double[] storeValues;
+
+    @Setup
+    public void setup() throws Exception {
+        var text = switch (kind) {
+            case "literals" -> Corpus.literals(size, 42);
+            case "variables" -> Corpus.variables(size, 42);
+            case "functions" -> Corpus.functions(size, 42);
+            default -> throw new IllegalArgumentException("unknown kind: " + kind);
+        };
+        expression = Expression.parseDouble(text);
+        flat = expression.flatten();
+        environment = Environment.of("x", 0.25, "y", 1.5, "z", 2.75);
+        var slots = Slots.of(Corpus.VARIABLES);
+        bound = expression.bind(slots);
+        compiled = expression.bind(slots).compile();
+        values = new double[] { 0.25, 1.5, 2.75 };
+        store = new ExpressionStore<>(DataType.DOUBLE);
+        handle = store.add(expression);
+        storeValues = new double[store.variableCount()];
+        for (var i = 0; i < storeValues.length; i++) {
+            storeValues[i] = environment.get(store.variable(i)).doubleValue();
+        }
+    }
+
+    @Benchmark
+    public DoubleData eval() throws EvalException {
+        return expression.eval(environment);
+    }
+
+    @Benchmark
+    public double evalDouble() throws EvalException {
+        return expression.evalDouble(environment);
+    }
+
+    @Benchmark
+    public double evalFlat() throws EvalException {
+        return flat.evalDouble(environment);
+    }
+
+    @Benchmark
+    public double evalBound() {
+        return bound.evalDouble(values);
+    }
+
+    @Benchmark
+    public double evalCompiled() {
+        return compiled.evalDouble(values);
+    }
+
+    @Benchmark
+    public double evalStored() throws EvalException {
+        return store.evalDouble(handle, environment);
+    }
+
+    @Benchmark
+    public double evalStoredValues() {
+        return store.evalDouble(handle, storeValues);
+    }
+}
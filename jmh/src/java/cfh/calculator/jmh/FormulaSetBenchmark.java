@@ -0,0 +1,64 @@
+package cfh.calculator.jmh;
+
+import java.util.ArrayList;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.*;
+
+import cfh.calculator.Expression;
+import cfh.calculator.data.DoubleData;
+import cfh.calculator.data.Environment;
+import cfh.calculator.expr.EvalException;
+import cfh.calculator.expr.FormulaSet;
+
+
+// related formulas evaluated one by one or fused into a formula set
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class FormulaSetBenchmark {
+
+    @Param({ "50", "100" })
+    public int count;
+
+    private final ArrayList<Expression<DoubleData>> expressions = new ArrayList<>();
+    private FormulaSet<DoubleData> set;
+    private Environment<DoubleData> environment;
+    private double[] out;
+
+    // formulas built from a few common terms
+    @Setup
+    public void setup() throws Exception {
+        var terms = new ArrayList<String>();
+        for (var i = 0; i < 10; i++) {
+            terms.add(Corpus.functions(3, i));
+        }
+        var texts = new ArrayList<String>();
+        for (var i = 0; i < count; i++) {
+            texts.add("(" + terms.get(i % 10) + ") * (" + terms.get((i * 7 + 3) % 10) + ") + " + i);
+        }
+        for (var text : texts) {
+            expressions.add(Expression.parseDouble(text));
+        }
+        set = FormulaSet.parseDouble(texts);
+        environment = Environment.of("x", 0.25, "y", 1.5, "z", 2.75);
+        out = new double[count];
+    }
+
+    @Benchmark
+    public double[] separate() throws EvalException {
+        for (var i = 0; i < out.length; i++) {
+            out[i] = expressions.get(i).evalDouble(environment);
+        }
+        return out;
+    }
+
+    @Benchmark
+    public double[] fused() throws EvalException {
+        set.evalDouble(environment, out);
+        return out;
+    }
+}
@@ -0,0 +1,58 @@
+package cfh.calculator.jmh;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.*;
+
+import cfh.calculator.BoundExpression;
+import cfh.calculator.Expression;
+import cfh.calculator.data.DoubleData;
+import cfh.calculator.data.Environment;
+import cfh.calculator.data.Missing;
+import cfh.calculator.data.Slots;
+import cfh.calculator.expr.EvalException;
+
+
+// evaluation of complete rows against rows missing a variable: throwing and catching the
+// exception against the default value mode
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class MissingBenchmark {
+
+    @Param({ "complete", "sparse" })
+    public String row;
+
+    private Expression<DoubleData> expression;
+    private BoundExpression<DoubleData> bound;
+    private Environment<DoubleData> environment;
+    private final Missing missing = new Missing();
+
+    @Setup
+    public void setup() throws Exception {
+        expression = Expression.parseDouble(Corpus.variables(10, 42));
+        bound = expression.bind(Slots.of(Corpus.VARIABLES));
+        environment = switch (row) {
+            case "complete" -> Environment.of("x", 0.25, "y", 1.5, "z", 2.75);
+            case "sparse" -> Environment.of("x", 0.25, "z", 2.75);
+            default -> throw new IllegalArgumentException("unknown row: " + row);
+        };
+    }
+
+    @Benchmark
+    public double evalThrowing() {
+        try {
+            return expression.evalDouble(environment);
+        } catch (EvalException ex) {
+            return Double.NaN;
+        }
+    }
+
+    @Benchmark
+    public double evalDefault() {
+        return bound.evalDouble(environment, missing);
+    }
+}
@@ -0,0 +1,70 @@
+package cfh.calculator.jmh;
+
+import java.nio.ByteBuffer;
+import java.text.ParseException;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.*;
+
+import cfh.calculator.Expression;
+import cfh.calculator.data.DataType;
+import cfh.calculator.data.DoubleData;
+import cfh.calculator.expr.BinaryFormat;
+import cfh.calculator.expr.Parser;
+
+
+// parser throughput by shape and size of the text, compared to reading the binary format;
+// run with -t to see the scaling with threads
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class ParseBenchmark {
+
+    @Param({ "deep", "wide" })
+    public String shape;
+
+    @Param({ "10", "100", "1000" })
+    public int size;
+
+    private String text;
+    private ByteBuffer binary;
+
+    @Setup
+    public void setup() throws ParseException {
+        text = switch (shape) {
+            case "deep" -> Corpus.deep(size, 42);
+            case "wide" -> Corpus.wide(size, 42);
+            default -> throw new IllegalArgumentException("unknown shape: " + shape);
+        };
+        var expressions = List.of(Expression.parseDouble(text));
+        binary = ByteBuffer.allocate(BinaryFormat.size(expressions));
+        BinaryFormat.write(expressions, binary);
+        binary.flip();
+    }
+
+    @Benchmark
+    public Expression<DoubleData> parse() throws ParseException {
+        return Expression.parseDouble(text);
+    }
+
+    @Benchmark
+    public Expression<DoubleData> parseReused(ThreadParser state) throws ParseException {
+        return state.parser.parse(text);
+    }
+
+    @Benchmark
+    public List<Expression<DoubleData>> read() throws ParseException {
+        return BinaryFormat.read(DataType.DOUBLE, binary.duplicate());
+    }
+
+    ////////////////////////////////////////////////////////////////////////////////////////////////
+
+    @State(Scope.Thread)
+    public static class ThreadParser {
+        final Parser<DoubleData> parser = new Parser<>(DataType.DOUBLE);
+    }
+}
@@ -0,0 +1,69 @@
+package cfh.calculator.jmh;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.*;
+
+import cfh.calculator.BoundExpression;
+import cfh.calculator.Expression;
+import cfh.calculator.data.DataType;
+import cfh.calculator.data.DoubleData;
+import cfh.calculator.data.Precision;
+import cfh.calculator.data.Slots;
+
+
+// trigonometric formula by function precision, single values and batches of rows;
+// run with -jvmArgsAppend --add-modules=jdk.incubator.vector for vectorized batches
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class PrecisionBenchmark {
+
+    private static final String TEXT = "sin(x) * cos(y) + sin(x * y) - cos(z) * sin(z / 2)";
+    private static final int ROWS = 4096;
+
+    @Param({ "MATH", "STRICT", "FAST" })
+    public Precision precision;
+
+    private BoundExpression<DoubleData> bound;
+    private BoundExpression<DoubleData> compiled;
+    private double[] values;
+    private double[][] columns;
+    private double[] out;
+
+    @Setup
+    public void setup() throws Exception {
+        var expression = Expression.parse(DataType.DOUBLE.with(precision), TEXT);
+        var slots = Slots.of(Corpus.VARIABLES);
+        bound = expression.bind(slots);
+        compiled = expression.bind(slots).compile();
+        values = new double[] { 0.25, 1.5, 2.75 };
+        var random = new Random(42);
+        columns = new double[slots.size()][];
+        for (var i = 0; i < columns.length; i++) {
+            columns[i] = random.doubles(ROWS, -100, 100).toArray();
+        }
+        out = new double[ROWS];
+    }
+
+    @Benchmark
+    public double evalBound() {
+        return bound.evalDouble(values);
+    }
+
+    @Benchmark
+    public double evalCompiled() {
+        return compiled.evalDouble(values);
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(ROWS)
+    public double[] evalBatch() {
+        bound.evalBatch(columns, out);
+        return out;
+    }
+}
@@ -0,0 +1,90 @@
+package cfh.calculator.jmh;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.*;
+
+import cfh.calculator.BoundExpression;
+import cfh.calculator.Expression;
+import cfh.calculator.data.DataType;
+import cfh.calculator.data.DoubleData;
+import cfh.calculator.data.Environment;
+import cfh.calculator.data.Slots;
+import cfh.calculator.expr.EvalException;
+import cfh.calculator.expr.Sweep;
+
+
+// one sweep of a formula over a square grid of x (outer) and y (inner): setting the environment
+// for each point, bound values for each point, and the sweep hoisting what only depends on x
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class SweepBenchmark {
+
+    private static final String FORMULA = "sqrt(x*x + 1) * sin(x) + cos(x) * y / (1 + sin(x) * sin(x)) - y*y";
+
+    @Param({ "100", "1000" })
+    public int points;
+
+    private Expression<DoubleData> expression;
+    private BoundExpression<DoubleData> bound;
+    private Sweep<DoubleData> sweep;
+    private Sweep<DoubleData> compiled;
+    private double[] xs;
+    private double[] ys;
+    private double[] out;
+
+    @Setup
+    public void setup() throws Exception {
+        expression = Expression.parseDouble(FORMULA);
+        bound = expression.bind(Slots.of("x", "y"));
+        sweep = Sweep.of(expression, "x", "y");
+        compiled = sweep.compile();
+        xs = Sweep.range(-1, 1, points);
+        ys = Sweep.range(0, 10, points);
+        out = new double[points * points];
+    }
+
+    @Benchmark
+    public double[] sweepEnvironment() throws EvalException {
+        var environment = new Environment<DoubleData>();
+        var index = 0;
+        for (var x : xs) {
+            environment.put("x", DataType.DOUBLE.valueOf(x));
+            for (var y : ys) {
+                environment.put("y", DataType.DOUBLE.valueOf(y));
+                out[index++] = expression.evalDouble(environment);
+            }
+        }
+        return out;
+    }
+
+    @Benchmark
+    public double[] sweepBound() {
+        var values = new double[2];
+        var index = 0;
+        for (var x : xs) {
+            values[0] = x;
+            for (var y : ys) {
+                values[1] = y;
+                out[index++] = bound.evalDouble(values);
+            }
+        }
+        return out;
+    }
+
+    @Benchmark
+    public double[] sweepHoisted() {
+        sweep.evalDouble(new double[][] { xs, ys }, out);
+        return out;
+    }
+
+    @Benchmark
+    public double[] sweepCompiled() {
+        compiled.evalDouble(new double[][] { xs, ys }, out);
+        return out;
+    }
+}
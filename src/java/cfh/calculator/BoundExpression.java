@@ -0,0 +1,82 @@
+package cfh.calculator;
+
+import java.util.concurrent.Executor;
+import java.util.concurrent.ForkJoinPool;
+import java.util.stream.DoubleStream;
+
+import cfh.calculator.data.Column;
+import cfh.calculator.data.Data;
+import cfh.calculator.data.Environment;
+import cfh.calculator.data.Missing;
+import cfh.calculator.data.SlotEnvironment;
+import cfh.calculator.data.Slots;
+import cfh.calculator.expr.EvalException;
+import cfh.calculator.expr.Optimization;
+import cfh.calculator.metrics.JmxMetrics;
+import cfh.calculator.metrics.Metrics;
+
+
+// expression with all variables resolved to slot indices, see Expression.bind
+public interface BoundExpression<D extends Data<D>> extends Expression<D> {
+
+    int DEFAULT_CHUNK_SIZE = 16 * 1024;
+
+    Slots slots();
+    
+    @Override
+    BoundExpression<D> optimize(Optimization optimization);
+    
+    @Override
+    default BoundExpression<D> optimize() {
+        return optimize(Optimization.STRICT);
+    }
+    
+    @Override
+    BoundExpression<D> eliminateCommon();
+    
+    @Override
+    BoundExpression<D> instrument(Metrics metrics);
+    
+    @Override
+    default BoundExpression<D> instrument() {
+        return instrument(JmxMetrics.platform());
+    }
+    
+    D eval(SlotEnvironment<D> environment) throws EvalException;
+    
+    double evalDouble(SlotEnvironment<D> environment) throws EvalException;
+    
+    // values indexed by slot, no lookup at all
+    double evalDouble(double[] values);
+    
+    // missing variables take the default of missing and are recorded there instead of throwing
+    @Override
+    default double evalDouble(Environment<D> environment, Missing missing) {
+        return evalDouble(missing.values(slots(), environment));
+    }
+    
+    // columns indexed by slot, evaluates the rows out.length
+    default void evalBatch(double[][] columns, double[] out) {
+        evalBatch(columns, 0, out.length, out);
+    }
+    
+    // evaluates rows from (inclusive) to (exclusive) into the same positions of out
+    void evalBatch(double[][] columns, int from, int to, double[] out);
+    
+    // same with columns read and results written in place, no copy of the data on the heap
+    void evalBatch(Column[] columns, int from, int to, Column out);
+    
+    // evaluates the rows out.length in parallel on the common fork/join pool
+    default void evalParallel(double[][] columns, double[] out) {
+        evalParallel(columns, out, ForkJoinPool.commonPool(), DEFAULT_CHUNK_SIZE);
+    }
+    
+    // rows split into tasks of at most chunkSize rows; fork/join if the executor is a ForkJoinPool
+    void evalParallel(double[][] columns, double[] out, Executor executor, int chunkSize);
+    
+    // lazily evaluated rows from (inclusive) to (exclusive), splittable for parallel streams
+    DoubleStream stream(double[][] columns, int from, int to);
+    
+    // evalDouble(double[]) executed by generated bytecode; unchanged if the data type has no intrinsics
+    BoundExpression<D> compile();
+}
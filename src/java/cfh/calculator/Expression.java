@@ -1,8 +1,12 @@
 package cfh.calculator;
 
 import java.text.ParseException;
+import java.util.Map;
+import java.util.Set;
 import cfh.calculator.data.*;
 import cfh.calculator.expr.*;
+import cfh.calculator.metrics.JmxMetrics;
+import cfh.calculator.metrics.Metrics;
 
 
 public interface Expression<D extends Data<D>> {
@@ -15,11 +19,11 @@ public interface Expression<D extends Data<D>> {
     // primary = literal | variable | function '(' expression ')' | '(' expression ')'
     // function: sqrt | sin | cos
     
-    static <D extends Data<D>> Expression<D> parse(DataType<D> type, String text) throws ParseException {
+    static <D extends Data<D>> Expression<D> parse(DataType<D> type, CharSequence text) throws ParseException {
         return new Parser<>(type, text).parse();
     }
     
-    static Expression<DoubleData> parseDouble(String text) throws ParseException {
+    static Expression<DoubleData> parseDouble(CharSequence text) throws ParseException {
         return new Parser<>(DataType.DOUBLE, text).parse();
     }
     
@@ -27,6 +31,42 @@ public interface Expression<D extends Data<D>> {
     
     D eval(Environment<D> environment) throws EvalException;
     
+    // names of all variables used, in order of first appearance
+    Set<String> variables();
+    
+    // constant folding and simplification, the result evaluates like this expression unless FAST_MATH is used
+    Expression<D> optimize(Optimization optimization);
+    
+    default Expression<D> optimize() {
+        return optimize(Optimization.STRICT);
+    }
+    
+    // evaluates repeated subexpressions only once per evaluation
+    Expression<D> eliminateCommon();
+    
+    // copy measuring every node evaluation, reported to the metrics; compiled code is not instrumented
+    Expression<D> instrument(Metrics metrics);
+    
+    default Expression<D> instrument() {
+        return instrument(JmxMetrics.platform());
+    }
+    
+    // compact postfix form, evaluated without walking a tree; unchanged if too large or already flat
+    Expression<D> flatten();
+    
+    // resolves all variables to slots, unknown variables are reported here instead of on eval
+    BoundExpression<D> bind(Slots slots) throws EvalException;
+    
+    // evaluates all rows of the columns, each column holding the values of the variable named by its key
+    default void evalBatch(Map<String, double[]> columns, double[] out) throws EvalException {
+        var slots = Slots.of(columns.keySet());
+        var arrays = new double[slots.size()][];
+        for (var i = 0; i < arrays.length; i++) {
+            arrays[i] = columns.get(slots.name(i));
+        }
+        bind(slots).evalBatch(arrays, out);
+    }
+    
     //----------------------------------------------------------------------------------------------
     
     default Number evalNumber(Environment<D> variables) throws EvalException {
@@ -36,4 +76,10 @@ public interface Expression<D extends Data<D>> {
     default double evalDouble(Environment<D> variables) throws EvalException {
         return eval(variables).doubleValue();
     }
+    
+    // missing variables evaluated with the default of missing and recorded there; binds on each
+    // call, bind once to evaluate many rows without allocating
+    default double evalDouble(Environment<D> variables, Missing missing) throws EvalException {
+        return bind(Slots.of(variables())).evalDouble(variables, missing);
+    }
 }
@@ -0,0 +1,164 @@
+package cfh.calculator;
+
+import static java.util.Objects.*;
+
+import java.text.ParseException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+
+import cfh.calculator.data.Data;
+import cfh.calculator.data.DataType;
+import cfh.calculator.data.DoubleData;
+
+
+// thread-safe parse cache with least recently used eviction, split into independently locked segments;
+// parsed expressions are immutable and shared by all callers
+public final class ExpressionCache {
+
+    private final boolean normalize;
+    private final Segment[] segments;
+
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+
+    public ExpressionCache(int maximumSize) {
+        this(maximumSize, false);
+    }
+
+    // normalize: texts only differing in spaces around operators and parentheses share one entry
+    public ExpressionCache(int maximumSize, boolean normalize) {
+        if (maximumSize < 1) {
+            throw new IllegalArgumentException("maximum size must be positive: " + maximumSize);
+        }
+        this.normalize = normalize;
+        var count = Integer.highestOneBit(Math.min(maximumSize, 4 * Runtime.getRuntime().availableProcessors()));
+        this.segments = new Segment[count];
+        for (var i = 0; i < count; i++) {
+            segments[i] = new Segment((maximumSize + count - 1 - i) / count);
+        }
+    }
+
+    public <D extends Data<D>> Expression<D> parse(DataType<D> type, String text) throws ParseException {
+        var key = new Key(requireNonNull(type), normalize ? normalize(text) : requireNonNull(text));
+        var segment = segments[spread(key.hashCode()) & (segments.length - 1)];
+        @SuppressWarnings("unchecked")
+        var expression = (Expression<D>) segment.get(key);
+        if (expression != null) {
+            hits.increment();
+            return expression;
+        }
+        misses.increment();
+        expression = Expression.parse(type, text);
+        segment.put(key, expression);
+        return expression;
+    }
+
+    public Expression<DoubleData> parseDouble(String text) throws ParseException {
+        return parse(DataType.DOUBLE, text);
+    }
+
+    public long hits() {
+        return hits.sum();
+    }
+
+    public long misses() {
+        return misses.sum();
+    }
+
+    public long evictions() {
+        return evictions.sum();
+    }
+
+    public int size() {
+        var size = 0;
+        for (var segment : segments) {
+            size += segment.size();
+        }
+        return size;
+    }
+
+    public void clear() {
+        for (var segment : segments) {
+            segment.clear();
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "ExpressionCache[size=" + size() + ", hits=" + hits() + ", misses=" + misses() + ", evictions=" + evictions() + "]";
+    }
+
+    //----------------------------------------------------------------------------------------------
+
+    private static int spread(int hash) {
+        return hash ^ (hash >>> 16);
+    }
+
+    // removes spaces unless between two letters or digits
+    static String normalize(String text) {
+        var length = text.length();
+        var builder = new StringBuilder(length);
+        for (var i = 0; i < length; i++) {
+            var ch = text.charAt(i);
+            if (ch == ' ') {
+                var j = i;
+                while (j < length && text.charAt(j) == ' ') {
+                    j++;
+                }
+                if (builder.length() > 0 && j < length
+                    && isWord(builder.charAt(builder.length() - 1)) && isWord(text.charAt(j))) {
+                    builder.append(' ');
+                }
+                i = j - 1;
+            } else {
+                builder.append(ch);
+            }
+        }
+        return builder.length() == length ? text : builder.toString();
+    }
+
+    private static boolean isWord(char ch) {
+        return Character.isLetterOrDigit(ch) || ch == '.';
+    }
+
+    ////////////////////////////////////////////////////////////////////////////////////////////////
+
+    private record Key(DataType<?> type, String text) {
+    }
+
+    private final class Segment {
+
+        private final Map<Key, Expression<?>> map;
+
+        Segment(int capacity) {
+            map = new LinkedHashMap<>(16, 0.75f, true) {
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<Key, Expression<?>> eldest) {
+                    if (size() > capacity) {
+                        evictions.increment();
+                        return true;
+                    }
+                    return false;
+                }
+            };
+        }
+
+        synchronized Expression<?> get(Key key) {
+            return map.get(key);
+        }
+
+        synchronized void put(Key key, Expression<?> expression) {
+            map.putIfAbsent(key, expression);
+        }
+
+        synchronized int size() {
+            return map.size();
+        }
+
+        synchronized void clear() {
+            map.clear();
+        }
+    }
+}
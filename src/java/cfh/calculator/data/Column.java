@@ -0,0 +1,104 @@
+package cfh.calculator.data;
+
+import static java.util.Objects.*;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.DoubleBuffer;
+
+
+// doubles read and written in place in a byte buffer, usually direct or memory mapped: row i is
+// at offset + i * stride in the given byte order; position, limit and order of the buffer are
+// not changed, so several columns can share a buffer, like the fields of fixed size records
+public final class Column {
+
+    // packed doubles from the position to the limit, in the order of the buffer
+    public static Column of(ByteBuffer buffer) {
+        return new Column(buffer, buffer.position(), Double.BYTES, (buffer.limit() - buffer.position()) / Double.BYTES, buffer.order());
+    }
+
+    public static Column of(ByteBuffer buffer, int offset, int stride, int rows, ByteOrder order) {
+        return new Column(buffer, offset, stride, rows, order);
+    }
+
+    // a new direct buffer in native order
+    public static Column allocate(int rows) {
+        return of(ByteBuffer.allocateDirect(Math.multiplyExact(rows, Double.BYTES)).order(ByteOrder.nativeOrder()));
+    }
+
+    //==============================================================================================
+
+    private final ByteBuffer buffer;
+    private final DoubleBuffer doubles;     // null unless packed
+    private final int offset;
+    private final int stride;
+    private final int rows;
+
+    private Column(ByteBuffer buffer, int offset, int stride, int rows, ByteOrder order) {
+        requireNonNull(buffer);
+        requireNonNull(order);
+        if (offset < 0 || stride < Double.BYTES || rows < 0) {
+            throw new IllegalArgumentException("offset " + offset + ", stride " + stride + ", rows " + rows);
+        }
+        if (offset + (rows == 0 ? 0 : (rows - 1L) * stride + Double.BYTES) > buffer.limit()) {
+            throw new IndexOutOfBoundsException(rows + " rows of stride " + stride + " at " + offset + " exceed the limit " + buffer.limit());
+        }
+        this.buffer = buffer.duplicate().order(order);
+        this.doubles = stride != Double.BYTES ? null
+            : buffer.duplicate().position(offset).limit(offset + rows * Double.BYTES).slice().order(order).asDoubleBuffer();
+        this.offset = offset;
+        this.stride = stride;
+        this.rows = rows;
+    }
+
+    public int rows() {
+        return rows;
+    }
+
+    public boolean isReadOnly() {
+        return buffer.isReadOnly();
+    }
+
+    public double get(int row) {
+        checkIndex(row, rows);
+        return buffer.getDouble(offset + row * stride);
+    }
+
+    public void put(int row, double value) {
+        checkIndex(row, rows);
+        buffer.putDouble(offset + row * stride, value);
+    }
+
+    // length rows from row into values[from...]
+    public void get(int row, double[] values, int from, int length) {
+        checkFromIndexSize(row, length, rows);
+        if (doubles != null) {
+            doubles.get(row, values, from, length);
+        } else {
+            checkFromIndexSize(from, length, values.length);
+            var position = offset + row * stride;
+            for (var i = 0; i < length; i++, position += stride) {
+                values[from + i] = buffer.getDouble(position);
+            }
+        }
+    }
+
+    // values[from...] into length rows from row
+    public void put(int row, double[] values, int from, int length) {
+        checkFromIndexSize(row, length, rows);
+        if (doubles != null) {
+            doubles.put(row, values, from, length);
+        } else {
+            checkFromIndexSize(from, length, values.length);
+            var position = offset + row * stride;
+            for (var i = 0; i < length; i++, position += stride) {
+                buffer.putDouble(position, values[from + i]);
+            }
+        }
+    }
+
+    @Override
+    public String toString() {
+        return rows + " rows at " + offset + ", stride " + stride + ", " + buffer.order();
+    }
+}
@@ -2,7 +2,10 @@ package cfh.calculator.data;
 
 
 public abstract sealed class Data<D extends Data<D>> 
-permits DoubleData {
+permits DoubleData, DualData {
+    
+    Data() {
+    }
     
     @SuppressWarnings("unchecked")
     public D identity() { return (D) this; }
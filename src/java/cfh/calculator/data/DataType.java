@@ -1,5 +1,6 @@
 package cfh.calculator.data;
 
+import java.lang.reflect.Method;
 import java.util.function.DoubleUnaryOperator;
 import java.util.function.UnaryOperator;
 
@@ -8,33 +9,177 @@ import cfh.calculator.expr.FunctionName;
 
 public abstract sealed class DataType<D extends Data<D>> {
     
-    public static final DataType<DoubleData> DOUBLE = new DoubleType();
+    public static final DataType<DoubleData> DOUBLE = DoubleType.of(Precision.MATH);
+    
+    // values with derivatives, evalDouble only computes the values
+    public static final DataType<DualData> DUAL = DualType.of(Precision.MATH);
 
     //==============================================================================================
     
+    DataType() {
+    }
+    
     public abstract D parse(String literal);
     
+    // literal from characters start (inclusive) to end (exclusive), used by the parser
+    public D parse(CharSequence text, int start, int end) {
+        return parse(text.subSequence(start, end).toString());
+    }
+    
+    // literal from its double value, used by BinaryFormat
+    public abstract D valueOf(double value);
+    
     public abstract UnaryOperator<D> unaryFunction(FunctionName name);
     
+    // primitive counterpart of unaryFunction, used by Expression.evalDouble
+    public abstract DoubleUnaryOperator doubleFunction(FunctionName name);
+    
+    // static (D)D method equivalent to doubleFunction, called directly by compiled code; null if none
+    public abstract Method doubleIntrinsic(FunctionName name);
+    
+    public abstract Precision precision();
+    
+    // the same type with the functions of the given precision, one instance for each
+    public abstract DataType<D> with(Precision precision);
+    
     ////////////////////////////////////////////////////////////////////////////////////////////////
     
     private static final class DoubleType extends DataType<DoubleData> {
+        
+        private static final DoubleType[] INSTANCES = new DoubleType[Precision.values().length];
+        static {
+            for (var precision : Precision.values()) {
+                INSTANCES[precision.ordinal()] = new DoubleType(precision);
+            }
+        }
+        
+        static DoubleType of(Precision precision) {
+            return INSTANCES[precision.ordinal()];
+        }
+        
+        private final Precision precision;
+        
+        private DoubleType(Precision precision) {
+            this.precision = precision;
+        }
+        
         @Override
         public DoubleData parse(String literal) {
             return new DoubleData(Double.parseDouble(literal));
         }
+        
+        @Override
+        public DoubleData parse(CharSequence text, int start, int end) {
+            return new DoubleData(Decimals.parse(text, start, end));
+        }
+        
+        @Override
+        public DoubleData valueOf(double value) {
+            return new DoubleData(value);
+        }
 
         @Override
         public UnaryOperator<DoubleData> unaryFunction(FunctionName name) {
+            return unary(doubleFunction(name));
+        }
+        
+        @Override
+        public DoubleUnaryOperator doubleFunction(FunctionName name) {
+            return precision.function(name);
+        }
+        
+        @Override
+        public Method doubleIntrinsic(FunctionName name) {
+            return precision.intrinsic(name);
+        }
+        
+        @Override
+        public Precision precision() {
+            return precision;
+        }
+        
+        @Override
+        public DataType<DoubleData> with(Precision precision) {
+            return of(precision);
+        }
+        
+        private UnaryOperator<DoubleData> unary(DoubleUnaryOperator op) {
+            return arg -> new DoubleData(op.applyAsDouble(arg.doubleValue()));
+        }
+    }
+    
+    ////////////////////////////////////////////////////////////////////////////////////////////////
+    
+    private static final class DualType extends DataType<DualData> {
+        
+        private static final DualType[] INSTANCES = new DualType[Precision.values().length];
+        static {
+            for (var precision : Precision.values()) {
+                INSTANCES[precision.ordinal()] = new DualType(precision);
+            }
+        }
+        
+        static DualType of(Precision precision) {
+            return INSTANCES[precision.ordinal()];
+        }
+        
+        private final Precision precision;
+        private final DoubleUnaryOperator sqrt;
+        private final DoubleUnaryOperator cos;
+        private final DoubleUnaryOperator sin;
+        
+        private DualType(Precision precision) {
+            this.precision = precision;
+            this.sqrt = precision.function(FunctionName.SQRT);
+            this.cos = precision.function(FunctionName.COS);
+            this.sin = precision.function(FunctionName.SIN);
+        }
+        
+        @Override
+        public DualData parse(String literal) {
+            return DualData.constant(Double.parseDouble(literal));
+        }
+        
+        @Override
+        public DualData parse(CharSequence text, int start, int end) {
+            return DualData.constant(Decimals.parse(text, start, end));
+        }
+        
+        @Override
+        public DualData valueOf(double value) {
+            return DualData.constant(value);
+        }
+        
+        @Override
+        public UnaryOperator<DualData> unaryFunction(FunctionName name) {
             return switch (name) {
-                case SQRT -> unary(Math::sqrt);
-                case COS  -> unary(Math::cos);
-                case SIN  -> unary(Math::sin);
+                case SQRT -> arg -> {
+                    var root = sqrt.applyAsDouble(arg.doubleValue());
+                    return arg.apply(root, 0.5 / root);
+                };
+                case COS  -> arg -> arg.apply(cos.applyAsDouble(arg.doubleValue()), -sin.applyAsDouble(arg.doubleValue()));
+                case SIN  -> arg -> arg.apply(sin.applyAsDouble(arg.doubleValue()), cos.applyAsDouble(arg.doubleValue()));
             };
         }
         
-        private UnaryOperator<DoubleData> unary(DoubleUnaryOperator op) {
-            return arg -> new DoubleData(op.applyAsDouble(arg.number()));
+        @Override
+        public DoubleUnaryOperator doubleFunction(FunctionName name) {
+            return precision.function(name);
+        }
+        
+        @Override
+        public Method doubleIntrinsic(FunctionName name) {
+            return precision.intrinsic(name);
+        }
+        
+        @Override
+        public Precision precision() {
+            return precision;
+        }
+        
+        @Override
+        public DataType<DualData> with(Precision precision) {
+            return of(precision);
         }
     }
 }
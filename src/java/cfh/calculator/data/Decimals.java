@@ -0,0 +1,91 @@
+package cfh.calculator.data;
+
+
+// parses decimal numbers directly from characters, without creating a String in the common case;
+// used for the literals of the parser and by io.Numbers; the result is always the one of
+// Double.parseDouble, which parses everything the fast path does not
+public final class Decimals {
+
+    private static final double[] POWERS = {
+        1e0, 1e1, 1e2, 1e3, 1e4, 1e5, 1e6, 1e7, 1e8, 1e9, 1e10, 1e11,
+        1e12, 1e13, 1e14, 1e15, 1e16, 1e17, 1e18, 1e19, 1e20, 1e21, 1e22
+    };
+    
+    private static final long MAX_EXACT = 1L << 53;
+    
+    // characters from start (inclusive) to end (exclusive); also throws the NumberFormatException
+    // of Double.parseDouble for invalid numbers
+    public static double parse(CharSequence text, int start, int end) {
+        if (start == end) {
+            return slow(text, start, end);
+        }
+        var i = start;
+        var negative = false;
+        var ch = text.charAt(i);
+        if (ch == '-' || ch == '+') {
+            negative = ch == '-';
+            i++;
+        }
+        long mantissa = 0;
+        var exponent = 0;
+        var digits = 0;
+        var exact = true;
+        while (i < end && (ch = text.charAt(i)) >= '0' && ch <= '9') {
+            if (mantissa < MAX_EXACT) {
+                mantissa = 10 * mantissa + (ch - '0');
+            } else {
+                exact = false;
+            }
+            digits++;
+            i++;
+        }
+        if (i < end && text.charAt(i) == '.') {
+            i++;
+            while (i < end && (ch = text.charAt(i)) >= '0' && ch <= '9') {
+                if (mantissa < MAX_EXACT) {
+                    mantissa = 10 * mantissa + (ch - '0');
+                    exponent--;
+                } else {
+                    exact = false;
+                }
+                digits++;
+                i++;
+            }
+        }
+        if (digits == 0) {
+            return slow(text, start, end);
+        }
+        if (i < end && ((ch = text.charAt(i)) == 'e' || ch == 'E')) {
+            i++;
+            var negativeExponent = false;
+            if (i < end && ((ch = text.charAt(i)) == '-' || ch == '+')) {
+                negativeExponent = ch == '-';
+                i++;
+            }
+            var value = 0;
+            var first = i;
+            while (i < end && (ch = text.charAt(i)) >= '0' && ch <= '9' && value < 10_000) {
+                value = 10 * value + (ch - '0');
+                i++;
+            }
+            if (i == first) {
+                return slow(text, start, end);
+            }
+            exponent += negativeExponent ? -value : value;
+        }
+        if (i != end || !exact || mantissa > MAX_EXACT || exponent < -22 || exponent > 22) {
+            return slow(text, start, end);
+        }
+        // both operands exact, so a single correctly rounded operation
+        double value = mantissa;
+        value = exponent < 0 ? value / POWERS[-exponent] : value * POWERS[exponent];
+        return negative ? -value : value;
+    }
+    
+    private static double slow(CharSequence text, int start, int end) {
+        return Double.parseDouble(text.subSequence(start, end).toString());
+    }
+    
+    private Decimals() {
+    }
+}
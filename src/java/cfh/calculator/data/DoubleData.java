@@ -3,7 +3,7 @@ package cfh.calculator.data;
 
 public final class DoubleData extends Data<DoubleData> {
 
-    private double value;
+    private final double value;
     
     DoubleData(double value) {
         this.value = value;
@@ -58,7 +58,7 @@ public final class DoubleData extends Data<DoubleData> {
     public boolean equals(Object obj) {
         if (obj == this) return true;
         if (obj == null) return false;
-        return (obj instanceof DoubleData other) && ((DoubleData) obj).value == other.value;
+        return (obj instanceof DoubleData other) && Double.doubleToLongBits(value) == Double.doubleToLongBits(other.value);
     }
     
     @Override
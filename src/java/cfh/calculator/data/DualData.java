@@ -0,0 +1,159 @@
+package cfh.calculator.data;
+
+import java.util.Arrays;
+
+
+// value with its partial derivatives by the variables (forward mode automatic differentiation);
+// missing trailing derivatives are zero, constants have none
+public final class DualData extends Data<DualData> {
+
+    private static final double[] NONE = {};
+
+    public static DualData constant(double value) {
+        return new DualData(value, NONE);
+    }
+
+    // the index-th of count independent variables
+    public static DualData variable(double value, int index, int count) {
+        if (index < 0 || index >= count) {
+            throw new IndexOutOfBoundsException("variable " + index + " of " + count);
+        }
+        var gradient = new double[count];
+        gradient[index] = 1.0;
+        return new DualData(value, gradient);
+    }
+
+    // every slot an independent variable, derivative i is by the variable of slot i
+    public static SlotEnvironment<DualData> of(Slots slots, double... values) {
+        if (values.length != slots.size()) {
+            throw new IllegalArgumentException("expected " + slots.size() + " values, got " + values.length);
+        }
+        var environment = new SlotEnvironment<DualData>(slots);
+        for (var i = 0; i < values.length; i++) {
+            environment.set(i, variable(values[i], i, values.length));
+        }
+        return environment;
+    }
+
+    // every name an independent variable, derivative i is by names[i]
+    public static Environment<DualData> environment(String[] names, double... values) {
+        if (values.length != names.length) {
+            throw new IllegalArgumentException("expected " + names.length + " values, got " + values.length);
+        }
+        var environment = new Environment<DualData>();
+        for (var i = 0; i < values.length; i++) {
+            environment.put(names[i], variable(values[i], i, values.length));
+        }
+        return environment;
+    }
+
+    //==============================================================================================
+
+    private final double value;
+    private final double[] gradient;
+
+    private DualData(double value, double[] gradient) {
+        this.value = value;
+        this.gradient = gradient;
+    }
+
+    // derivative by the index-th variable
+    public double derivative(int index) {
+        return index < gradient.length ? gradient[index] : 0.0;
+    }
+
+    public double[] gradient(int count) {
+        return Arrays.copyOf(gradient, count);
+    }
+
+    // f(value) with derivative f'(value) by the chain rule
+    DualData apply(double result, double derivative) {
+        if (gradient.length == 0) {
+            return new DualData(result, NONE);
+        }
+        var g = new double[gradient.length];
+        for (var i = 0; i < g.length; i++) {
+            g[i] = derivative * gradient[i];
+        }
+        return new DualData(result, g);
+    }
+
+    // a * this' + b * data'
+    private double[] combine(double a, DualData data, double b) {
+        var other = data.gradient;
+        if (gradient.length == 0 && other.length == 0) {
+            return NONE;
+        }
+        var g = new double[Math.max(gradient.length, other.length)];
+        for (var i = 0; i < gradient.length; i++) {
+            g[i] = a * gradient[i];
+        }
+        for (var i = 0; i < other.length; i++) {
+            g[i] += b * other[i];
+        }
+        return g;
+    }
+
+    @Override
+    public DualData negative() {
+        return apply(-value, -1.0);
+    }
+
+    @Override
+    public DualData add(DualData data) {
+        return new DualData(value + data.value, combine(1.0, data, 1.0));
+    }
+
+    @Override
+    public DualData subtract(DualData data) {
+        return new DualData(value - data.value, combine(1.0, data, -1.0));
+    }
+
+    @Override
+    public DualData multiply(DualData data) {
+        return new DualData(value * data.value, combine(data.value, data, value));
+    }
+
+    // (u/v)' = u'/v - (u/v) v'/v
+    @Override
+    public DualData divide(DualData data) {
+        var quotient = value / data.value;
+        return new DualData(quotient, combine(1.0 / data.value, data, -quotient / data.value));
+    }
+
+    // u % v = u - trunc(u/v) v, the truncation is constant almost everywhere
+    @Override
+    public DualData remainder(DualData data) {
+        var quotient = value / data.value;
+        var truncated = quotient < 0 ? Math.ceil(quotient) : Math.floor(quotient);
+        return new DualData(value % data.value, combine(1.0, data, -truncated));
+    }
+
+    @Override
+    public Double number() {
+        return value;
+    }
+
+    @Override
+    public double doubleValue() {
+        return value;
+    }
+
+    @Override
+    public String toString() {
+        return gradient.length == 0 ? Double.toString(value) : value + Arrays.toString(gradient);
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+        if (obj == this) return true;
+        return (obj instanceof DualData other)
+            && Double.doubleToLongBits(value) == Double.doubleToLongBits(other.value)
+            && Arrays.equals(gradient, other.gradient);
+    }
+
+    @Override
+    public int hashCode() {
+        return 31 * Double.hashCode(value) + Arrays.hashCode(gradient);
+    }
+}
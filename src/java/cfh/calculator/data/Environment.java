@@ -2,7 +2,9 @@ package cfh.calculator.data;
 
 import static java.util.Objects.*;
 
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 
 
@@ -23,6 +25,7 @@ public class Environment<D extends Data<D>> {
     //==============================================================================================
     
     private final Map<String, D> variables = new HashMap<>();
+    private List<Listener> listeners = List.of();
     
     public Environment() {
     }
@@ -43,7 +46,10 @@ public class Environment<D extends Data<D>> {
     }
     
     public Environment<D> put(String name, D value) {
-        variables.put(requireNonNull(name), requireNonNull(value));
+        var old = variables.put(requireNonNull(name), requireNonNull(value));
+        if (!listeners.isEmpty() && !value.equals(old)) {
+            changed(name);
+        }
         return this;
     }
     
@@ -52,7 +58,11 @@ public class Environment<D extends Data<D>> {
     }
     
     public void clear() {
+        var names = listeners.isEmpty() ? List.<String>of() : List.copyOf(variables.keySet());
         variables.clear();
+        for (var name : names) {
+            changed(name);
+        }
     }
     
     public boolean contains(String key) {
@@ -68,10 +78,43 @@ public class Environment<D extends Data<D>> {
     }
     
     public D replace(String key, D value) {
-        return variables.replace(key, value);
+        var old = variables.replace(key, value);
+        if (!listeners.isEmpty() && old != null && !old.equals(value)) {
+            changed(key);
+        }
+        return old;
     }
     
     public D remove(String key) {
-        return variables.remove(key);
+        var old = variables.remove(key);
+        if (old != null) {
+            changed(key);
+        }
+        return old;
+    }
+    
+    //----------------------------------------------------------------------------------------------
+    
+    // notified after a variable was added, removed or changed its value
+    public interface Listener {
+        void changed(String name);
+    }
+    
+    public void addListener(Listener listener) {
+        var copy = new ArrayList<>(listeners);
+        copy.add(requireNonNull(listener));
+        listeners = List.copyOf(copy);
+    }
+    
+    public void removeListener(Listener listener) {
+        var copy = new ArrayList<>(listeners);
+        copy.remove(listener);
+        listeners = List.copyOf(copy);
+    }
+    
+    private void changed(String name) {
+        for (var listener : listeners) {
+            listener.changed(name);
+        }
     }
 }
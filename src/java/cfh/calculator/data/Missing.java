@@ -0,0 +1,72 @@
+package cfh.calculator.data;
+
+import java.util.Arrays;
+
+
+// status of an evaluation that does not fail on missing variables: they are evaluated with the
+// default value and their slots are recorded instead; not thread safe, meant to be reused for
+// every row by the same thread so nothing is allocated per evaluation
+public final class Missing {
+
+    private final double value;
+    private double[] values = new double[0];
+    private long[] bits = new long[1];
+    private int count;
+
+    public Missing() {
+        this(Double.NaN);
+    }
+
+    public Missing(double value) {
+        this.value = value;
+    }
+
+    // the default for missing variables
+    public double value() {
+        return value;
+    }
+
+    // missing variables of the last evaluation
+    public int count() {
+        return count;
+    }
+
+    public boolean isMissing(int slot) {
+        var word = slot >>> 6;
+        return word < bits.length && (bits[word] & (1L << slot)) != 0;
+    }
+
+    // bit n set if slot n was missing, first 64 slots only
+    public long mask() {
+        return bits[0];
+    }
+
+    // values by slot from the environment, the default for missing ones; the returned array is
+    // reused by the next call
+    public <D extends Data<D>> double[] values(Slots slots, Environment<D> environment) {
+        var size = slots.size();
+        if (values.length < size) {
+            values = new double[size];
+            bits = new long[Math.max(1, (size + 63) >>> 6)];
+        } else if (count != 0) {
+            Arrays.fill(bits, 0L);
+        }
+        count = 0;
+        for (var i = 0; i < size; i++) {
+            var data = environment.get(slots.name(i));
+            if (data == null) {
+                values[i] = value;
+                bits[i >>> 6] |= 1L << i;
+                count++;
+            } else {
+                values[i] = data.doubleValue();
+            }
+        }
+        return values;
+    }
+
+    @Override
+    public String toString() {
+        return count + " missing";
+    }
+}
@@ -0,0 +1,55 @@
+package cfh.calculator.data;
+
+import java.lang.reflect.Method;
+import java.util.function.DoubleUnaryOperator;
+
+import cfh.calculator.expr.FastMath;
+import cfh.calculator.expr.FunctionName;
+
+
+// implementation of the functions of a DataType, see DataType.with
+public enum Precision {
+
+    // java.lang.Math, at most 1 ulp off, JIT intrinsics and vectorized batches
+    MATH(Math.class),
+    // java.lang.StrictMath, the same results on every platform, slower
+    STRICT(StrictMath.class),
+    // FastMath, at most 3 ulp off, vectorized batches
+    FAST(FastMath.class),
+    ;
+    
+    private final Class<?> owner;
+    
+    private Precision(Class<?> owner) {
+        this.owner = owner;
+    }
+    
+    public DoubleUnaryOperator function(FunctionName name) {
+        return switch (this) {
+            case MATH -> switch (name) {
+                case SQRT -> Math::sqrt;
+                case COS  -> Math::cos;
+                case SIN  -> Math::sin;
+            };
+            case STRICT -> switch (name) {
+                case SQRT -> StrictMath::sqrt;
+                case COS  -> StrictMath::cos;
+                case SIN  -> StrictMath::sin;
+            };
+            case FAST -> switch (name) {
+                case SQRT -> FastMath::sqrt;
+                case COS  -> FastMath::cos;
+                case SIN  -> FastMath::sin;
+            };
+        };
+    }
+    
+    // static (D)D method equivalent to function
+    public Method intrinsic(FunctionName name) {
+        try {
+            return owner.getMethod(name.toString(), double.class);
+        } catch (NoSuchMethodException ex) {
+            throw new AssertionError(owner.getSimpleName() + "." + name, ex);
+        }
+    }
+}
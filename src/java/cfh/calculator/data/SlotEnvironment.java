@@ -0,0 +1,65 @@
+package cfh.calculator.data;
+
+import static java.util.Objects.*;
+
+import java.util.Arrays;
+
+
+public class SlotEnvironment<D extends Data<D>> {
+
+    public static SlotEnvironment<DoubleData> of(Slots slots, double... values) {
+        if (values.length != slots.size()) {
+            throw new IllegalArgumentException("expected " + slots.size() + " values, got " + values.length);
+        }
+        var environment = new SlotEnvironment<DoubleData>(slots);
+        for (var i = 0; i < values.length; i++) {
+            environment.set(i, new DoubleData(values[i]));
+        }
+        return environment;
+    }
+    
+    //==============================================================================================
+    
+    private final Slots slots;
+    private final D[] values;
+    
+    @SuppressWarnings("unchecked")
+    public SlotEnvironment(Slots slots) {
+        this.slots = requireNonNull(slots);
+        this.values = (D[]) new Data<?>[slots.size()];
+    }
+    
+    public Slots slots() {
+        return slots;
+    }
+    
+    public SlotEnvironment<D> set(int index, D value) {
+        values[index] = requireNonNull(value);
+        return this;
+    }
+    
+    public D get(int index) {
+        return values[index];
+    }
+    
+    public SlotEnvironment<D> put(String name, D value) {
+        var index = slots.indexOf(name);
+        if (index == -1) {
+            throw new IllegalArgumentException("Unknown variable: " + name);
+        }
+        return set(index, value);
+    }
+    
+    public D get(String name) {
+        var index = slots.indexOf(name);
+        return index == -1 ? null : values[index];
+    }
+    
+    public int size() {
+        return values.length;
+    }
+    
+    public void clear() {
+        Arrays.fill(values, null);
+    }
+}
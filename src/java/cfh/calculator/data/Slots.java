@@ -0,0 +1,68 @@
+package cfh.calculator.data;
+
+import static java.util.Objects.*;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+
+public final class Slots {
+
+    public static Slots of(String... names) {
+        return new Slots(names.clone());
+    }
+    
+    public static Slots of(Collection<String> names) {
+        return new Slots(names.toArray(String[]::new));
+    }
+    
+    //==============================================================================================
+    
+    private final String[] names;
+    private final Map<String, Integer> indices;
+    
+    private Slots(String[] names) {
+        this.names = names;
+        this.indices = new HashMap<>(names.length * 2);
+        for (var i = 0; i < names.length; i++) {
+            if (indices.put(requireNonNull(names[i]), i) != null) {
+                throw new IllegalArgumentException("Duplicated variable: " + names[i]);
+            }
+        }
+    }
+    
+    public int size() {
+        return names.length;
+    }
+    
+    public String name(int index) {
+        return names[index];
+    }
+    
+    public int indexOf(String name) {
+        return indices.getOrDefault(name, -1);
+    }
+    
+    public List<String> names() {
+        return List.of(names);
+    }
+    
+    @Override
+    public String toString() {
+        return Arrays.toString(names);
+    }
+    
+    @Override
+    public boolean equals(Object obj) {
+        if (obj == this) return true;
+        return (obj instanceof Slots other) && Arrays.equals(names, other.names);
+    }
+    
+    @Override
+    public int hashCode() {
+        return 31 * Arrays.hashCode(names);
+    }
+}
@@ -0,0 +1,77 @@
+package cfh.calculator.expr;
+
+import static java.util.Objects.requireNonNull;
+
+import java.util.Arrays;
+
+import cfh.calculator.data.Column;
+
+
+// column chunk being evaluated and the scratch buffers for it, one instance per thread and call;
+// the columns are arrays or read in place, see Column
+final class Batch {
+
+    static final int CHUNK = 1024;
+    
+    private final double[][] columns;   // null if sources
+    private final Column[] sources;
+    private int from;
+    private int length;
+    
+    // operand buffers by tree depth, values of shared subexpressions by index
+    private double[][] buffers = new double[8][];
+    private final double[][] shared;
+    
+    Batch(double[][] columns, int sharedCount) {
+        this.columns = requireNonNull(columns);
+        this.sources = null;
+        this.shared = new double[sharedCount][];
+    }
+    
+    Batch(Column[] sources, int sharedCount) {
+        this.columns = null;
+        this.sources = requireNonNull(sources);
+        this.shared = new double[sharedCount][];
+    }
+    
+    void chunk(int from, int length) {
+        this.from = from;
+        this.length = length;
+    }
+    
+    // the chunk of the column into out[offset...]
+    void read(int slot, double[] out, int offset) {
+        if (columns != null) {
+            System.arraycopy(columns[slot], from, out, offset, length);
+        } else {
+            sources[slot].get(from, out, offset, length);
+        }
+    }
+    
+    int from() {
+        return from;
+    }
+    
+    int length() {
+        return length;
+    }
+    
+    double[] buffer(int depth) {
+        if (depth >= buffers.length) {
+            buffers = Arrays.copyOf(buffers, Math.max(depth + 1, 2 * buffers.length));
+        }
+        var buffer = buffers[depth];
+        if (buffer == null) {
+            buffer = buffers[depth] = new double[CHUNK];
+        }
+        return buffer;
+    }
+    
+    double[] shared(int index) {
+        var buffer = shared[index];
+        if (buffer == null) {
+            buffer = shared[index] = new double[CHUNK];
+        }
+        return buffer;
+    }
+}
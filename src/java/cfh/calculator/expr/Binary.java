@@ -7,6 +7,8 @@ import java.util.function.BinaryOperator;
 
 import cfh.calculator.data.Data;
 import cfh.calculator.data.Environment;
+import cfh.calculator.data.SlotEnvironment;
+import cfh.calculator.data.Slots;
 
 final class Binary<D extends Data<D>> extends ExpressionImpl<D> {
     
@@ -14,12 +16,30 @@ final class Binary<D extends Data<D>> extends ExpressionImpl<D> {
     private final ExpressionImpl<D> expression1;
     private final ExpressionImpl<D> expression2;
     private final BinaryOperator<D> function;
+    private final int hash;
 
     Binary(BinaryName name, ExpressionImpl<D> expression1, ExpressionImpl<D> expression2, BinaryOperator<D> function) {
         this.name = requireNonNull(name);
         this.expression1 = requireNonNull(expression1);
         this.expression2 = requireNonNull(expression2);
         this.function = requireNonNull(function);
+        this.hash = 31 * (31 * (name.ordinal() + 1) + expression1.hashCode()) + expression2.hashCode();
+    }
+    
+    BinaryName name() {
+        return name;
+    }
+    
+    ExpressionImpl<D> expression1() {
+        return expression1;
+    }
+    
+    ExpressionImpl<D> expression2() {
+        return expression2;
+    }
+    
+    Binary<D> with(ExpressionImpl<D> e1, ExpressionImpl<D> e2) {
+        return (e1 == expression1 && e2 == expression2) ? this : new Binary<>(name, e1, e2, function);
     }
 
     @Override
@@ -27,8 +47,71 @@ final class Binary<D extends Data<D>> extends ExpressionImpl<D> {
         return function.apply(expression1.eval(environment), expression2.eval(environment));
     }
 
+    @Override
+    public double evalDouble(Environment<D> environment) throws EvalException {
+        return apply(expression1.evalDouble(environment), expression2.evalDouble(environment));
+    }
+    
+    @Override
+    ExpressionImpl<D> link(Slots slots) throws EvalException {
+        return with(expression1.link(slots), expression2.link(slots));
+    }
+    
+    @Override
+    D evalSlots(SlotEnvironment<D> environment) throws EvalException {
+        return function.apply(expression1.evalSlots(environment), expression2.evalSlots(environment));
+    }
+    
+    @Override
+    double evalDoubleSlots(SlotEnvironment<D> environment) throws EvalException {
+        return apply(expression1.evalDoubleSlots(environment), expression2.evalDoubleSlots(environment));
+    }
+    
+    @Override
+    double evalDoubleValues(double[] values) {
+        return apply(expression1.evalDoubleValues(values), expression2.evalDoubleValues(values));
+    }
+    
+    @Override
+    void evalBatch(Batch batch, double[] out, int offset, int depth) {
+        expression1.evalBatch(batch, out, offset, depth);
+        var operand = batch.buffer(depth);
+        expression2.evalBatch(batch, operand, 0, depth + 1);
+        Kernels.INSTANCE.binary(name, out, offset, operand, batch.length());
+    }
+    
+    // operation on already evaluated operands
+    D apply(D value1, D value2) {
+        return function.apply(value1, value2);
+    }
+    
+    private double apply(double value1, double value2) {
+        return switch (name) {
+            case ADD -> value1 + value2;
+            case SUBTRACT -> value1 - value2;
+            case MULTIPLICATE -> value1 * value2;
+            case DIVIDE -> value1 / value2;
+            case REMAINDER -> value1 % value2;
+        };
+    }
+
     @Override
     public String toString() {
         return "(" + expression1 + name + expression2 + ")";
     }
+    
+    @Override
+    public boolean equals(Object obj) {
+        if (obj == this) return true;
+        return (obj instanceof Binary<?> other) 
+            && hash == other.hash 
+            && name == other.name 
+            && expression1.equals(other.expression1) 
+            && expression2.equals(other.expression2);
+    }
+    
+    @Override
+    public int hashCode() {
+        return hash;
+    }
 }
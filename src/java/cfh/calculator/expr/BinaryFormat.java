@@ -0,0 +1,131 @@
+package cfh.calculator.expr;
+
+import static java.nio.file.StandardOpenOption.*;
+import static java.util.Objects.requireNonNull;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.text.ParseException;
+import java.util.ArrayList;
+import java.util.List;
+
+import cfh.calculator.Expression;
+import cfh.calculator.data.Data;
+import cfh.calculator.data.DataType;
+
+
+// versioned binary encoding of expression lists, read without parsing text:
+// u32 magic, u16 version, u32 count, then each expression in postfix form (see Program)
+// all values in the byte order of the buffer
+public final class BinaryFormat {
+
+    public static final int MAGIC = 0x43464858;  // CFHX
+    public static final int VERSION = 1;
+
+    private static final int HEADER = 4 + 2 + 4;
+
+    // bytes needed to write the expressions
+    public static int size(List<? extends Expression<?>> expressions) {
+        var size = HEADER;
+        for (var program : programs(expressions)) {
+            size += program.size();
+        }
+        return size;
+    }
+
+    public static void write(List<? extends Expression<?>> expressions, ByteBuffer buffer) {
+        writePrograms(programs(expressions), buffer);
+    }
+
+    // the expressions are equal to the ones written; the buffer is positioned after them
+    public static <D extends Data<D>> List<Expression<D>> read(DataType<D> type, ByteBuffer buffer) throws ParseException {
+        requireNonNull(type);
+        var start = buffer.position();
+        if (buffer.remaining() < HEADER) {
+            throw new ParseException("Truncated header", start);
+        }
+        var magic = buffer.getInt();
+        if (magic != MAGIC) {
+            throw new ParseException("Invalid magic: " + Integer.toHexString(magic), start);
+        }
+        var version = buffer.getShort() & 0xFFFF;
+        if (version != VERSION) {
+            throw new ParseException("Unsupported version: " + version, start + 4);
+        }
+        var count = buffer.getInt();
+        if (count < 0) {
+            throw new ParseException("Invalid count: " + count, start + 6);
+        }
+        var expressions = new ArrayList<Expression<D>>(Math.min(count, buffer.remaining()));
+        for (var i = 0; i < count; i++) {
+            expressions.add(Program.read(type, buffer).expand());
+        }
+        return expressions;
+    }
+
+    //----------------------------------------------------------------------------------------------
+
+    public static void write(List<? extends Expression<?>> expressions, Path file) throws IOException {
+        var programs = programs(expressions);
+        var size = HEADER;
+        for (var program : programs) {
+            size += program.size();
+        }
+        try (var channel = FileChannel.open(file, READ, WRITE, CREATE, TRUNCATE_EXISTING)) {
+            writePrograms(programs, channel.map(FileChannel.MapMode.READ_WRITE, 0, size));
+        }
+    }
+
+    // memory mapped, the file is not copied to the heap
+    public static <D extends Data<D>> List<Expression<D>> read(DataType<D> type, Path file) throws IOException, ParseException {
+        try (var channel = FileChannel.open(file, READ)) {
+            var buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            var expressions = read(type, buffer);
+            if (buffer.hasRemaining()) {
+                throw new ParseException("Unexpected data after " + expressions.size() + " expressions", buffer.position());
+            }
+            return expressions;
+        }
+    }
+
+    //----------------------------------------------------------------------------------------------
+
+    private static void writePrograms(List<Program<?>> programs, ByteBuffer buffer) {
+        buffer.putInt(MAGIC);
+        buffer.putShort((short) VERSION);
+        buffer.putInt(programs.size());
+        for (var program : programs) {
+            program.write(buffer);
+        }
+    }
+
+    private static List<Program<?>> programs(List<? extends Expression<?>> expressions) {
+        var programs = new ArrayList<Program<?>>(expressions.size());
+        for (var expression : expressions) {
+            programs.add(program(expression));
+        }
+        return programs;
+    }
+
+    private static Program<?> program(Expression<?> expression) {
+        Program<?> program;
+        if (expression instanceof Program<?> flat) {
+            program = flat;
+        } else if (expression instanceof ExpressionImpl<?> tree) {
+            program = Program.of(tree);
+        } else if (expression instanceof Bound<?> bound) {
+            program = Program.of(bound.expression());
+        } else {
+            throw new IllegalArgumentException("unsupported expression: " + expression.getClass().getName());
+        }
+        if (program == null) {
+            throw new IllegalArgumentException("expression too large or instrumented: " + expression);
+        }
+        return program;
+    }
+
+    private BinaryFormat() {
+    }
+}
@@ -0,0 +1,217 @@
+package cfh.calculator.expr;
+
+import static java.util.Objects.requireNonNull;
+
+import java.util.Set;
+import java.util.concurrent.Executor;
+import java.util.stream.DoubleStream;
+import java.util.stream.StreamSupport;
+
+import cfh.calculator.BoundExpression;
+import cfh.calculator.Expression;
+import cfh.calculator.data.Column;
+import cfh.calculator.data.Data;
+import cfh.calculator.data.Environment;
+import cfh.calculator.data.SlotEnvironment;
+import cfh.calculator.data.Slots;
+import cfh.calculator.metrics.Metrics;
+
+
+final class Bound<D extends Data<D>> implements BoundExpression<D> {
+
+    private final ExpressionImpl<D> expression;
+    private final Slots slots;
+    private final Compiler.Code code;  // null if not compiled
+    
+    Bound(ExpressionImpl<D> expression, Slots slots) {
+        this(expression, slots, null);
+    }
+    
+    private Bound(ExpressionImpl<D> expression, Slots slots, Compiler.Code code) {
+        this.expression = requireNonNull(expression);
+        this.slots = requireNonNull(slots);
+        this.code = code;
+    }
+    
+    ExpressionImpl<D> expression() {
+        return expression;
+    }
+    
+    @Override
+    public Slots slots() {
+        return slots;
+    }
+    
+    @Override
+    public Set<String> variables() {
+        return expression.variables();
+    }
+    
+    @Override
+    public D eval(Environment<D> environment) throws EvalException {
+        return expression.eval(environment);
+    }
+    
+    @Override
+    public double evalDouble(Environment<D> environment) throws EvalException {
+        return expression.evalDouble(environment);
+    }
+    
+    @Override
+    public D eval(SlotEnvironment<D> environment) throws EvalException {
+        return expression.evalSlots(checked(environment));
+    }
+    
+    @Override
+    public double evalDouble(SlotEnvironment<D> environment) throws EvalException {
+        return expression.evalDoubleSlots(checked(environment));
+    }
+    
+    @Override
+    public double evalDouble(double[] values) {
+        if (values.length < slots.size()) {
+            throw new IllegalArgumentException("expected " + slots.size() + " values, got " + values.length);
+        }
+        return code != null ? code.evalDouble(values) : expression.evalDoubleValues(values);
+    }
+    
+    @Override
+    public void evalBatch(double[][] columns, int from, int to, double[] out) {
+        checkRows(from, to, out.length);
+        checkColumns(columns, to);
+        evalRows(columns, from, to, out);
+    }
+    
+    @Override
+    public void evalBatch(Column[] columns, int from, int to, Column out) {
+        checkRows(from, to, out.rows());
+        checkColumns(columns, to);
+        var batch = new Batch(columns, sharedCount());
+        var results = new double[Batch.CHUNK];
+        for (var start = from; start < to; start += Batch.CHUNK) {
+            var length = Math.min(Batch.CHUNK, to - start);
+            batch.chunk(start, length);
+            expression.evalBatch(batch, results, 0, 0);
+            out.put(start, results, 0, length);
+        }
+    }
+    
+    @Override
+    public void evalParallel(double[][] columns, double[] out, Executor executor, int chunkSize) {
+        checkColumns(columns, out.length);
+        Parallel.eval(this, columns, out, executor, chunkSize);
+    }
+    
+    @Override
+    public DoubleStream stream(double[][] columns, int from, int to) {
+        checkRows(from, to, Integer.MAX_VALUE);
+        checkColumns(columns, to);
+        return StreamSupport.doubleStream(new Parallel.Rows(this, columns, from, to), false);
+    }
+    
+    // rows not checked, the batch holds the scratch buffers of one thread
+    void evalRows(double[][] columns, int from, int to, double[] out) {
+        var batch = batch(columns);
+        for (var start = from; start < to; start += Batch.CHUNK) {
+            batch.chunk(start, Math.min(Batch.CHUNK, to - start));
+            expression.evalBatch(batch, out, start, 0);
+        }
+    }
+    
+    void evalChunk(Batch batch, double[] out) {
+        expression.evalBatch(batch, out, 0, 0);
+    }
+    
+    Batch batch(double[][] columns) {
+        return new Batch(columns, sharedCount());
+    }
+    
+    private int sharedCount() {
+        var root = expression instanceof Probe<D> probe ? probe.expression() : expression;
+        return root instanceof Let<D> let ? let.definitions().size() : 0;
+    }
+    
+    private static void checkRows(int from, int to, int length) {
+        if (from < 0 || to > length || from > to) {
+            throw new IndexOutOfBoundsException("rows " + from + " to " + to + " of " + length);
+        }
+    }
+    
+    private void checkColumns(double[][] columns, int rows) {
+        if (columns.length < slots.size()) {
+            throw new IllegalArgumentException("expected " + slots.size() + " columns, got " + columns.length);
+        }
+        for (var i = 0; i < slots.size(); i++) {
+            if (columns[i].length < rows) {
+                throw new IllegalArgumentException("column " + slots.name(i) + " has only " + columns[i].length + " rows");
+            }
+        }
+    }
+    
+    private void checkColumns(Column[] columns, int rows) {
+        if (columns.length < slots.size()) {
+            throw new IllegalArgumentException("expected " + slots.size() + " columns, got " + columns.length);
+        }
+        for (var i = 0; i < slots.size(); i++) {
+            if (columns[i].rows() < rows) {
+                throw new IllegalArgumentException("column " + slots.name(i) + " has only " + columns[i].rows() + " rows");
+            }
+        }
+    }
+    
+    @Override
+    public BoundExpression<D> compile() {
+        if (code != null) {
+            return this;
+        }
+        var compiled = Compiler.compile(expression);
+        return compiled == null ? this : new Bound<>(expression, slots, compiled);
+    }
+    
+    @Override
+    public BoundExpression<D> optimize(Optimization optimization) {
+        return with(expression.optimize(optimization));
+    }
+    
+    @Override
+    public BoundExpression<D> eliminateCommon() {
+        return with(expression.eliminateCommon());
+    }
+    
+    private BoundExpression<D> with(ExpressionImpl<D> transformed) {
+        if (transformed == expression) {
+            return this;
+        }
+        var bound = new Bound<>(transformed, slots);
+        return code != null ? bound.compile() : bound;
+    }
+    
+    // not compiled
+    @Override
+    public BoundExpression<D> instrument(Metrics metrics) {
+        return with(Probe.instrument(expression, metrics));
+    }
+    
+    // already evaluated by slot
+    @Override
+    public Expression<D> flatten() {
+        return this;
+    }
+    
+    @Override
+    public BoundExpression<D> bind(Slots other) throws EvalException {
+        return other.equals(slots) ? this : expression.bind(other);
+    }
+    
+    private SlotEnvironment<D> checked(SlotEnvironment<D> environment) {
+        if (environment.slots() != slots && !environment.slots().equals(slots)) {
+            throw new IllegalArgumentException("environment slots " + environment.slots() + " do not match " + slots);
+        }
+        return environment;
+    }
+    
+    @Override
+    public String toString() {
+        return expression.toString();
+    }
+}
@@ -0,0 +1,342 @@
+package cfh.calculator.expr;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.util.HashMap;
+import java.util.Map;
+
+import cfh.calculator.data.Data;
+
+
+// translates a linked expression into straight-line bytecode of a hidden class
+final class Compiler {
+
+    // implemented by the generated classes
+    interface Code {
+        double evalDouble(double[] values);
+    }
+
+    private static final String OBJECT = "java/lang/Object";
+    private static final String CODE = Code.class.getName().replace('.', '/');
+    private static final String NAME = Compiler.class.getPackageName().replace('.', '/') + "/Compiled";
+
+    private static final int MAX_CODE = 65535;
+
+    // null if the expression cannot be compiled, evaluation must then use the tree
+    static Code compile(ExpressionImpl<?> expression) {
+        var compiler = new Compiler();
+        try {
+            if (!compiler.emit(expression) || compiler.code.size() + 1 > MAX_CODE) {
+                return null;
+            }
+            compiler.code.write(DRETURN);
+            var bytes = compiler.classFile(stack(expression), compiler.locals);
+            var lookup = MethodHandles.lookup().defineHiddenClass(bytes, true);
+            var constructor = lookup.findConstructor(lookup.lookupClass(), MethodType.methodType(void.class));
+            return (Code) constructor.invoke();
+        } catch (IOException ex) {
+            // constant pool overflow
+            return null;
+        } catch (Error | RuntimeException ex) {
+            throw ex;
+        } catch (Throwable ex) {
+            throw new IllegalStateException("compiling " + expression, ex);
+        }
+    }
+
+    // operand stack needed to evaluate the expression, in slots
+    private static int stack(ExpressionImpl<?> expression) {
+        if (expression instanceof Binary<?> binary) {
+            return Math.max(stack(binary.expression1()), 2 + stack(binary.expression2()));
+        } else if (expression instanceof Unary<?> unary) {
+            return stack(unary.expression());
+        } else if (expression instanceof FunctionCall<?> call) {
+            return stack(call.argument());
+        } else if (expression instanceof Let<?> let) {
+            var stack = stack(let.body());
+            for (var definition : let.definitions()) {
+                stack = Math.max(stack, stack(definition));
+            }
+            return stack;
+        } else {
+            return 2;
+        }
+    }
+
+    //==============================================================================================
+
+    private static final int ALOAD_0 = 0x2a;
+    private static final int ALOAD_1 = 0x2b;
+    private static final int ICONST_0 = 0x03;
+    private static final int BIPUSH = 0x10;
+    private static final int SIPUSH = 0x11;
+    private static final int LDC_W = 0x13;
+    private static final int LDC2_W = 0x14;
+    private static final int DLOAD = 0x18;
+    private static final int DALOAD = 0x31;
+    private static final int DSTORE = 0x39;
+    private static final int DADD = 0x63;
+    private static final int DSUB = 0x67;
+    private static final int DMUL = 0x6b;
+    private static final int DDIV = 0x6f;
+    private static final int DREM = 0x73;
+    private static final int DNEG = 0x77;
+    private static final int DRETURN = 0xaf;
+    private static final int RETURN = 0xb1;
+    private static final int INVOKESPECIAL = 0xb7;
+    private static final int INVOKESTATIC = 0xb8;
+    private static final int WIDE = 0xc4;
+
+    private final ByteArrayOutputStream pool = new ByteArrayOutputStream();
+    private final DataOutputStream poolOut = new DataOutputStream(pool);
+    private final Map<String, Integer> entries = new HashMap<>();
+    private int poolCount = 1;
+
+    private final ByteArrayOutputStream code = new ByteArrayOutputStream();
+    private final DataOutputStream codeOut = new DataOutputStream(code);
+    // this, values, then two per shared subexpression starting at shared
+    private int locals = 2;
+    private int shared = -1;
+
+    private Compiler() {
+    }
+
+    private <D extends Data<D>> boolean emit(ExpressionImpl<D> expression) throws IOException {
+        if (code.size() > MAX_CODE) {
+            return false;
+        }
+        if (expression instanceof Literal<D> literal) {
+            codeOut.write(LDC2_W);
+            codeOut.writeShort(constant(literal.doubleValue()));
+        } else if (expression instanceof Variable<D> variable) {
+            var slot = variable.slot();
+            if (slot < 0) {
+                return false;
+            }
+            codeOut.write(ALOAD_1);
+            if (slot <= 5) {
+                codeOut.write(ICONST_0 + slot);
+            } else if (slot <= Byte.MAX_VALUE) {
+                codeOut.write(BIPUSH);
+                codeOut.write(slot);
+            } else if (slot <= Short.MAX_VALUE) {
+                codeOut.write(SIPUSH);
+                codeOut.writeShort(slot);
+            } else {
+                codeOut.write(LDC_W);
+                codeOut.writeShort(constant(slot));
+            }
+            codeOut.write(DALOAD);
+        } else if (expression instanceof Unary<D> unary) {
+            if (!emit(unary.expression())) {
+                return false;
+            }
+            switch (unary.name()) {
+                case PLUS -> { }
+                case MINUS -> codeOut.write(DNEG);
+            }
+        } else if (expression instanceof Binary<D> binary) {
+            if (!emit(binary.expression1()) || !emit(binary.expression2())) {
+                return false;
+            }
+            codeOut.write(switch (binary.name()) {
+                case ADD -> DADD;
+                case SUBTRACT -> DSUB;
+                case MULTIPLICATE -> DMUL;
+                case DIVIDE -> DDIV;
+                case REMAINDER -> DREM;
+            });
+        } else if (expression instanceof FunctionCall<D> call) {
+            var method = call.datatype().doubleIntrinsic(call.name());
+            if (!isIntrinsic(method) || !emit(call.argument())) {
+                return false;
+            }
+            codeOut.write(INVOKESTATIC);
+            codeOut.writeShort(method(
+                method.getDeclaringClass().getName().replace('.', '/'), method.getName(), "(D)D"));
+        } else if (expression instanceof Let<D> let) {
+            if (shared != -1 || locals + 2 * let.definitions().size() > 0xFFFF) {
+                return false;
+            }
+            shared = locals;
+            locals += 2 * let.definitions().size();
+            for (var i = 0; i < let.definitions().size(); i++) {
+                if (!emit(let.definitions().get(i))) {
+                    return false;
+                }
+                local(DSTORE, shared + 2 * i);
+            }
+            if (!emit(let.body())) {
+                return false;
+            }
+        } else if (expression instanceof Ref<D> ref) {
+            if (shared == -1) {
+                return false;
+            }
+            local(DLOAD, shared + 2 * ref.index());
+        } else {
+            return false;
+        }
+        return true;
+    }
+    
+    private void local(int opcode, int index) throws IOException {
+        if (index <= 0xFF) {
+            codeOut.write(opcode);
+            codeOut.write(index);
+        } else {
+            codeOut.write(WIDE);
+            codeOut.write(opcode);
+            codeOut.writeShort(index);
+        }
+    }
+
+    private static boolean isIntrinsic(Method method) {
+        return method != null
+            && Modifier.isStatic(method.getModifiers())
+            && Modifier.isPublic(method.getModifiers())
+            && Modifier.isPublic(method.getDeclaringClass().getModifiers())
+            && method.getReturnType() == double.class
+            && method.getParameterCount() == 1
+            && method.getParameterTypes()[0] == double.class;
+    }
+
+    private byte[] classFile(int maxStack, int maxLocals) throws IOException {
+        var thisClass = type(NAME);
+        var superClass = type(OBJECT);
+        var codeInterface = type(CODE);
+        var init = utf8("<init>");
+        var initType = utf8("()V");
+        var objectInit = method(OBJECT, "<init>", "()V");
+        var eval = utf8("evalDouble");
+        var evalType = utf8("([D)D");
+        var codeAttribute = utf8("Code");
+
+        var bytes = new ByteArrayOutputStream();
+        var out = new DataOutputStream(bytes);
+        out.writeInt(0xCAFEBABE);
+        out.writeShort(0);
+        out.writeShort(61);
+        out.writeShort(poolCount);
+        pool.writeTo(out);
+        out.writeShort(0x0030);  // ACC_FINAL | ACC_SUPER
+        out.writeShort(thisClass);
+        out.writeShort(superClass);
+        out.writeShort(1);
+        out.writeShort(codeInterface);
+        out.writeShort(0);  // fields
+        out.writeShort(2);  // methods
+
+        out.writeShort(0x0001);  // ACC_PUBLIC
+        out.writeShort(init);
+        out.writeShort(initType);
+        out.writeShort(1);
+        out.writeShort(codeAttribute);
+        out.writeInt(12 + 5);
+        out.writeShort(1);
+        out.writeShort(1);
+        out.writeInt(5);
+        out.write(ALOAD_0);
+        out.write(INVOKESPECIAL);
+        out.writeShort(objectInit);
+        out.write(RETURN);
+        out.writeShort(0);
+        out.writeShort(0);
+
+        out.writeShort(0x0011);  // ACC_PUBLIC | ACC_FINAL
+        out.writeShort(eval);
+        out.writeShort(evalType);
+        out.writeShort(1);
+        out.writeShort(codeAttribute);
+        out.writeInt(12 + code.size());
+        out.writeShort(maxStack);
+        out.writeShort(maxLocals);
+        out.writeInt(code.size());
+        code.writeTo(out);
+        out.writeShort(0);
+        out.writeShort(0);
+
+        out.writeShort(0);  // attributes
+        out.flush();
+        return bytes.toByteArray();
+    }
+
+    //----------------------------------------------------------------------------------------------
+
+    private int utf8(String value) throws IOException {
+        var index = entries.get("U" + value);
+        if (index == null) {
+            poolOut.write(1);
+            poolOut.writeUTF(value);
+            index = add("U" + value, 1);
+        }
+        return index;
+    }
+
+    private int type(String name) throws IOException {
+        var index = entries.get("C" + name);
+        if (index == null) {
+            var utf8 = utf8(name);
+            poolOut.write(7);
+            poolOut.writeShort(utf8);
+            index = add("C" + name, 1);
+        }
+        return index;
+    }
+
+    private int method(String owner, String name, String descriptor) throws IOException {
+        var key = "M" + owner + "." + name + descriptor;
+        var index = entries.get(key);
+        if (index == null) {
+            var type = type(owner);
+            var nameUtf8 = utf8(name);
+            var descriptorUtf8 = utf8(descriptor);
+            poolOut.write(12);
+            poolOut.writeShort(nameUtf8);
+            poolOut.writeShort(descriptorUtf8);
+            var nameAndType = add("N" + name + descriptor, 1);
+            poolOut.write(10);
+            poolOut.writeShort(type);
+            poolOut.writeShort(nameAndType);
+            index = add(key, 1);
+        }
+        return index;
+    }
+
+    private int constant(double value) throws IOException {
+        var key = "D" + Double.doubleToRawLongBits(value);
+        var index = entries.get(key);
+        if (index == null) {
+            poolOut.write(6);
+            poolOut.writeDouble(value);
+            index = add(key, 2);
+        }
+        return index;
+    }
+
+    private int constant(int value) throws IOException {
+        var key = "I" + value;
+        var index = entries.get(key);
+        if (index == null) {
+            poolOut.write(3);
+            poolOut.writeInt(value);
+            index = add(key, 1);
+        }
+        return index;
+    }
+
+    private int add(String key, int size) throws IOException {
+        if (poolCount + size > 0xFFFF) {
+            throw new IOException("constant pool overflow");
+        }
+        var index = poolCount;
+        poolCount += size;
+        entries.put(key, index);
+        return index;
+    }
+}
@@ -18,4 +18,8 @@ public class EvalException extends Exception {
     public EvalException(Throwable cause) {
         super(cause);
     }
+
+    protected EvalException(String message, Throwable cause, boolean enableSuppression, boolean writableStackTrace) {
+        super(message, cause, enableSuppression, writableStackTrace);
+    }
 }
@@ -1,13 +1,100 @@
 package cfh.calculator.expr;
 
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.Set;
+
+import cfh.calculator.BoundExpression;
 import cfh.calculator.Expression;
 import cfh.calculator.data.Data;
+import cfh.calculator.data.Environment;
+import cfh.calculator.data.SlotEnvironment;
+import cfh.calculator.data.Slots;
+import cfh.calculator.metrics.Metrics;
 
 
 public sealed abstract class ExpressionImpl<D extends Data<D>> implements Expression<D>
-permits Literal<D>, Unary<D>, Binary<D>, Variable<D>, FunctionCall<D> {
+permits Literal, Unary, Binary, Variable, FunctionCall, Let, Ref, Probe {
 
     ExpressionImpl() {
     }
 
+    // primitive evaluation, no intermediate Data instances are created
+    @Override
+    public abstract double evalDouble(Environment<D> environment) throws EvalException;
+    
+    @Override
+    public Set<String> variables() {
+        var variables = new LinkedHashSet<String>();
+        collectVariables(this, variables);
+        return Collections.unmodifiableSet(variables);
+    }
+    
+    private static void collectVariables(ExpressionImpl<?> expression, Set<String> variables) {
+        if (expression instanceof Variable<?> variable) {
+            variables.add(variable.name());
+        } else if (expression instanceof Unary<?> unary) {
+            collectVariables(unary.expression(), variables);
+        } else if (expression instanceof Binary<?> binary) {
+            collectVariables(binary.expression1(), variables);
+            collectVariables(binary.expression2(), variables);
+        } else if (expression instanceof FunctionCall<?> call) {
+            collectVariables(call.argument(), variables);
+        } else if (expression instanceof Let<?> let) {
+            collectVariables(let.body(), variables);
+        } else if (expression instanceof Ref<?> ref) {
+            collectVariables(ref.expression(), variables);
+        } else if (expression instanceof Probe<?> probe) {
+            collectVariables(probe.expression(), variables);
+        }
+    }
+    
+    @Override
+    public ExpressionImpl<D> optimize(Optimization optimization) {
+        return Optimizer.optimize(this, optimization);
+    }
+    
+    @Override
+    public ExpressionImpl<D> eliminateCommon() {
+        return Sharing.eliminate(this);
+    }
+    
+    @Override
+    public Expression<D> flatten() {
+        var program = Program.of(this);
+        return program != null ? program : this;
+    }
+    
+    @Override
+    public ExpressionImpl<D> instrument(Metrics metrics) {
+        return Probe.instrument(this, metrics);
+    }
+    
+    @Override
+    public BoundExpression<D> bind(Slots slots) throws EvalException {
+        return new Bound<>(link(slots), slots);
+    }
+    
+    //----------------------------------------------------------------------------------------------
+    
+    // copy of this tree with all variables resolved to their slot
+    abstract ExpressionImpl<D> link(Slots slots) throws EvalException;
+    
+    abstract D evalSlots(SlotEnvironment<D> environment) throws EvalException;
+    
+    abstract double evalDoubleSlots(SlotEnvironment<D> environment) throws EvalException;
+    
+    abstract double evalDoubleValues(double[] values);
+    
+    // evaluates the current chunk of the batch into out[offset...], depth selects the operand buffers
+    abstract void evalBatch(Batch batch, double[] out, int offset, int depth);
+    
+    //----------------------------------------------------------------------------------------------
+    
+    // structural, implementations cache the hash code
+    @Override
+    public abstract boolean equals(Object obj);
+    
+    @Override
+    public abstract int hashCode();
 }
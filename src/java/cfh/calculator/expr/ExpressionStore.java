@@ -0,0 +1,380 @@
+package cfh.calculator.expr;
+
+import static java.util.Objects.requireNonNull;
+
+import java.text.ParseException;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.DoubleUnaryOperator;
+import java.util.function.UnaryOperator;
+
+import cfh.calculator.BoundExpression;
+import cfh.calculator.Expression;
+import cfh.calculator.data.Data;
+import cfh.calculator.data.DataType;
+import cfh.calculator.data.Environment;
+import cfh.calculator.data.Slots;
+import cfh.calculator.metrics.Metrics;
+
+
+// many expressions kept in parallel arrays instead of node objects, 9 bytes a node: an opcode
+// and two ints, the children, the variable id or the bits of the literal; an expression is
+// identified by the handle returned by add, its root node; variable names are interned by the
+// store and all expressions share one node per variable; adding is not thread safe, evaluating
+// is once the additions are visible
+public final class ExpressionStore<D extends Data<D>> {
+
+    private static final byte LITERAL = 0;      // value bits high and low
+    private static final byte VARIABLE = 1;     // name id
+    private static final byte PLUS = 2;         // child
+    private static final byte MINUS = 3;        // child
+    private static final byte ADD = 4;          // children, also SUBTRACT to REMAINDER
+    private static final byte FUNCTION = 9;     // plus the FunctionName ordinal, child
+
+    private final DataType<D> datatype;
+    private final UnaryOperator<D>[] operators;
+    private final DoubleUnaryOperator[] doubleOperators;
+
+    private byte[] opcodes;
+    private int[] left;
+    private int[] right;
+    private int size;
+
+    private String[] names = new String[16];
+    private int[] variableNodes = new int[16];
+    private final Map<String, Integer> ids = new HashMap<>();
+
+    public ExpressionStore(DataType<D> datatype) {
+        this(datatype, 1024);
+    }
+
+    public ExpressionStore(DataType<D> datatype, int capacity) {
+        this.datatype = requireNonNull(datatype);
+        this.opcodes = new byte[Math.max(capacity, 16)];
+        this.left = new int[opcodes.length];
+        this.right = new int[opcodes.length];
+        // indexed by the ordinal of the function
+        this.operators = Program.operators(datatype, FunctionName.values());
+        this.doubleOperators = Program.doubleOperators(datatype, FunctionName.values());
+    }
+
+    public int parse(CharSequence text) throws ParseException {
+        return add(Expression.parse(datatype, text));
+    }
+
+    // handle of the copy of the expression, shared subexpressions are inlined
+    public int add(Expression<D> expression) {
+        ExpressionImpl<D> tree;
+        if (expression instanceof ExpressionImpl<D> impl) {
+            tree = impl;
+        } else if (expression instanceof Program<D> program) {
+            tree = program.expand();
+        } else if (expression instanceof Bound<D> bound) {
+            tree = bound.expression();
+        } else if (expression instanceof ExpressionStore<?>.Stored stored && stored.store() == this) {
+            return stored.handle;
+        } else {
+            throw new IllegalArgumentException("unsupported expression: " + expression.getClass().getName());
+        }
+        var start = size;
+        try {
+            return node(tree);
+        } catch (RuntimeException ex) {
+            size = start;
+            for (var i = 0; i < ids.size(); i++) {
+                if (variableNodes[i] >= start) {
+                    variableNodes[i] = -1;
+                }
+            }
+            throw ex;
+        }
+    }
+
+    public Expression<D> expression(int handle) {
+        check(handle);
+        return new Stored(handle);
+    }
+
+    // id of the variable, used as index of the values of evalDouble; -1 if not used by any expression
+    public int variableId(String name) {
+        var id = ids.get(name);
+        return id == null ? -1 : id;
+    }
+
+    public String variable(int id) {
+        return names[id];
+    }
+
+    public int variableCount() {
+        return ids.size();
+    }
+
+    // all nodes of all expressions
+    public int size() {
+        return size;
+    }
+
+    // of the node arrays
+    public long bytes() {
+        return opcodes.length * (1L + 4 + 4);
+    }
+
+    public void trimToSize() {
+        resize(size);
+    }
+
+    //----------------------------------------------------------------------------------------------
+
+    private int node(ExpressionImpl<D> expression) {
+        if (expression instanceof Literal<D> literal) {
+            var bits = Double.doubleToRawLongBits(literal.value().doubleValue());
+            return append(LITERAL, (int) (bits >>> 32), (int) bits);
+        } else if (expression instanceof Variable<D> variable) {
+            var id = id(variable.name());
+            if (variableNodes[id] == -1) {
+                variableNodes[id] = append(VARIABLE, id, 0);
+            }
+            return variableNodes[id];
+        } else if (expression instanceof Unary<D> unary) {
+            var child = node(unary.expression());
+            return append(unary.name() == UnaryName.PLUS ? PLUS : MINUS, child, 0);
+        } else if (expression instanceof Binary<D> binary) {
+            var child1 = node(binary.expression1());
+            var child2 = node(binary.expression2());
+            return append((byte) (ADD + binary.name().ordinal()), child1, child2);
+        } else if (expression instanceof FunctionCall<D> call) {
+            if (call.datatype() != datatype) {
+                throw new IllegalArgumentException("function of another data type: " + call);
+            }
+            var child = node(call.argument());
+            return append((byte) (FUNCTION + call.name().ordinal()), child, 0);
+        } else if (expression instanceof Let<D> let) {
+            return node(let.body());
+        } else if (expression instanceof Ref<D> ref) {
+            return node(ref.expression());
+        } else if (expression instanceof Probe<D> probe) {
+            return node(probe.expression());
+        } else {
+            throw new IllegalArgumentException("unsupported node: " + expression.getClass().getName());
+        }
+    }
+
+    private int append(byte opcode, int first, int second) {
+        if (size == opcodes.length) {
+            resize(Math.max(16, size + (size >> 1)));
+        }
+        opcodes[size] = opcode;
+        left[size] = first;
+        right[size] = second;
+        return size++;
+    }
+
+    private void resize(int capacity) {
+        opcodes = Arrays.copyOf(opcodes, capacity);
+        left = Arrays.copyOf(left, capacity);
+        right = Arrays.copyOf(right, capacity);
+    }
+
+    private int id(String name) {
+        var id = ids.get(name);
+        if (id == null) {
+            id = ids.size();
+            if (id == names.length) {
+                names = Arrays.copyOf(names, 2 * id);
+                variableNodes = Arrays.copyOf(variableNodes, 2 * id);
+            }
+            names[id] = name;
+            variableNodes[id] = -1;
+            ids.put(name, id);
+        }
+        return id;
+    }
+
+    private void check(int handle) {
+        if (handle < 0 || handle >= size) {
+            throw new IndexOutOfBoundsException("handle " + handle + " of " + size);
+        }
+    }
+
+    private double literal(int node) {
+        return Double.longBitsToDouble(((long) left[node] << 32) | (right[node] & 0xFFFFFFFFL));
+    }
+
+    //----------------------------------------------------------------------------------------------
+
+    public D eval(int handle, Environment<D> environment) throws EvalException {
+        check(handle);
+        return value(handle, environment);
+    }
+
+    public double evalDouble(int handle, Environment<D> environment) throws EvalException {
+        check(handle);
+        return doubleValue(handle, environment);
+    }
+
+    // values indexed by variable id
+    public double evalDouble(int handle, double[] values) {
+        check(handle);
+        return doubleValue(handle, values);
+    }
+
+    private D value(int node, Environment<D> environment) throws EvalException {
+        var opcode = opcodes[node];
+        return switch (opcode) {
+            case LITERAL -> datatype.valueOf(literal(node));
+            case VARIABLE -> {
+                var name = names[left[node]];
+                var value = environment.get(name);
+                if (value == null) {
+                    throw MissingVariableException.unknown(name);
+                }
+                yield value;
+            }
+            case PLUS -> value(left[node], environment).identity();
+            case MINUS -> value(left[node], environment).negative();
+            case ADD, ADD + 1, ADD + 2, ADD + 3, ADD + 4 -> {
+                var value1 = value(left[node], environment);
+                var value2 = value(right[node], environment);
+                yield switch (opcode - ADD) {
+                    case 0 -> value1.add(value2);
+                    case 1 -> value1.subtract(value2);
+                    case 2 -> value1.multiply(value2);
+                    case 3 -> value1.divide(value2);
+                    default -> value1.remainder(value2);
+                };
+            }
+            default -> operators[opcode - FUNCTION].apply(value(left[node], environment));
+        };
+    }
+
+    private double doubleValue(int node, Environment<D> environment) throws EvalException {
+        var opcode = opcodes[node];
+        return switch (opcode) {
+            case LITERAL -> literal(node);
+            case VARIABLE -> {
+                var name = names[left[node]];
+                var value = environment.get(name);
+                if (value == null) {
+                    throw MissingVariableException.unknown(name);
+                }
+                yield value.doubleValue();
+            }
+            case PLUS -> doubleValue(left[node], environment);
+            case MINUS -> -doubleValue(left[node], environment);
+            case ADD, ADD + 1, ADD + 2, ADD + 3, ADD + 4 ->
+                apply(opcode, doubleValue(left[node], environment), doubleValue(right[node], environment));
+            default -> doubleOperators[opcode - FUNCTION].applyAsDouble(doubleValue(left[node], environment));
+        };
+    }
+
+    private double doubleValue(int node, double[] values) {
+        var opcode = opcodes[node];
+        return switch (opcode) {
+            case LITERAL -> literal(node);
+            case VARIABLE -> values[left[node]];
+            case PLUS -> doubleValue(left[node], values);
+            case MINUS -> -doubleValue(left[node], values);
+            case ADD, ADD + 1, ADD + 2, ADD + 3, ADD + 4 ->
+                apply(opcode, doubleValue(left[node], values), doubleValue(right[node], values));
+            default -> doubleOperators[opcode - FUNCTION].applyAsDouble(doubleValue(left[node], values));
+        };
+    }
+
+    private static double apply(byte opcode, double value1, double value2) {
+        return switch (opcode - ADD) {
+            case 0 -> value1 + value2;
+            case 1 -> value1 - value2;
+            case 2 -> value1 * value2;
+            case 3 -> value1 / value2;
+            default -> value1 % value2;
+        };
+    }
+
+    // equal to the tree that was added
+    private ExpressionImpl<D> expand(int node) {
+        var opcode = opcodes[node];
+        return switch (opcode) {
+            case LITERAL -> new Literal<>(datatype.valueOf(literal(node)));
+            case VARIABLE -> new Variable<>(names[left[node]]);
+            case PLUS -> Program.unary(UnaryName.PLUS, expand(left[node]));
+            case MINUS -> Program.unary(UnaryName.MINUS, expand(left[node]));
+            case ADD, ADD + 1, ADD + 2, ADD + 3, ADD + 4 ->
+                Program.binary(BinaryName.values()[opcode - ADD], expand(left[node]), expand(right[node]));
+            default -> new FunctionCall<>(FunctionName.values()[opcode - FUNCTION], expand(left[node]), datatype);
+        };
+    }
+
+    ////////////////////////////////////////////////////////////////////////////////////////////////
+
+    // evaluated straight off the arrays, everything else on the expanded tree
+    private final class Stored implements Expression<D> {
+
+        private final int handle;
+
+        Stored(int handle) {
+            this.handle = handle;
+        }
+
+        ExpressionStore<D> store() {
+            return ExpressionStore.this;
+        }
+
+        @Override
+        public D eval(Environment<D> environment) throws EvalException {
+            return value(handle, environment);
+        }
+
+        @Override
+        public double evalDouble(Environment<D> environment) throws EvalException {
+            return doubleValue(handle, environment);
+        }
+
+        @Override
+        public Set<String> variables() {
+            return expand(handle).variables();
+        }
+
+        @Override
+        public Expression<D> optimize(Optimization optimization) {
+            return expand(handle).optimize(optimization);
+        }
+
+        @Override
+        public Expression<D> eliminateCommon() {
+            return expand(handle).eliminateCommon();
+        }
+
+        @Override
+        public Expression<D> instrument(Metrics metrics) {
+            return expand(handle).instrument(metrics);
+        }
+
+        @Override
+        public Expression<D> flatten() {
+            return expand(handle).flatten();
+        }
+
+        @Override
+        public BoundExpression<D> bind(Slots slots) throws EvalException {
+            return expand(handle).bind(slots);
+        }
+
+        @Override
+        public String toString() {
+            return expand(handle).toString();
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (obj == this) return true;
+            return (obj instanceof ExpressionStore<?>.Stored other) && other.store() == store() && other.handle == handle;
+        }
+
+        @Override
+        public int hashCode() {
+            return 31 * System.identityHashCode(store()) + handle;
+        }
+    }
+}
@@ -0,0 +1,75 @@
+package cfh.calculator.expr;
+
+
+// faster replacements of Math functions for Precision.FAST, called directly by compiled code;
+// sin and cos: branch free Cody-Waite reduction to [-pi/2, pi/2] and one odd polynomial, at most
+// 3 ulp off for |x| <= 2^19 pi/2 (checked by the tests); larger arguments, infinities and NaN
+// delegate to StrictMath; sqrt is a single instruction and exact anyway
+public final class FastMath {
+
+    // VectorKernels repeats these operations in the same order for the same results
+    static final double REDUCE_LIMIT = 0x1p19 * Math.PI / 2;
+    // added and subtracted to round to an integer, leaves its parity in the lowest bit
+    static final double ROUND = 0x1.8p52;
+
+    static final double INV_PI = 1 / Math.PI;
+    // pi/2 in 33 bit parts, m * part is exact for |m| < 2^20, and the rest
+    static final double PIO2_1 = 1.57079632673412561417e+00;
+    static final double PIO2_2 = 6.07710050630396597660e-11;
+    static final double PIO2_3 = 2.02226624871116645580e-21;
+    static final double PIO2_3T = 8.47842766036889956997e-32;
+
+    // Taylor coefficients of sin, the truncation error is below 2^-59 on [-pi/2, pi/2]
+    static final double S3 = -1.0 / 6;
+    static final double S5 = 1.0 / 120;
+    static final double S7 = -1.0 / 5040;
+    static final double S9 = 1.0 / 362880;
+    static final double S11 = -1.0 / 39916800;
+    static final double S13 = 1.0 / 6227020800.0;
+    static final double S15 = -1.0 / 1307674368000.0;
+    static final double S17 = 1.0 / 355687428096000.0;
+    static final double S19 = -1.0 / 121645100408832000.0;
+    static final double S21 = 1.0 / 51090942171709440000.0;
+
+    public static double sqrt(double x) {
+        return Math.sqrt(x);
+    }
+
+    // sin(x) = (-1)^n sin(x - n pi)
+    public static double sin(double x) {
+        if (!(Math.abs(x) <= REDUCE_LIMIT)) {
+            return StrictMath.sin(x);
+        }
+        var rounded = x * INV_PI + ROUND;
+        var n = rounded - ROUND;
+        return negateIfOdd(sinPolynomial(reduce(x, 2 * n)), rounded);
+    }
+
+    // cos(x) = sin(x + pi/2) = (-1)^n sin(x - (2n - 1) pi/2)
+    public static double cos(double x) {
+        if (!(Math.abs(x) <= REDUCE_LIMIT)) {
+            return StrictMath.cos(x);
+        }
+        var rounded = (x * INV_PI + 0.5) + ROUND;
+        var n = rounded - ROUND;
+        return negateIfOdd(sinPolynomial(reduce(x, 2 * n - 1)), rounded);
+    }
+
+    // x - m pi/2
+    private static double reduce(double x, double m) {
+        return (((x - m * PIO2_1) - m * PIO2_2) - m * PIO2_3) - m * PIO2_3T;
+    }
+
+    // |r| <= pi/2, keeps the sign of zero
+    private static double sinPolynomial(double r) {
+        var z = r * r;
+        return r * (1.0 + z * (S3 + z * (S5 + z * (S7 + z * (S9 + z * (S11 + z * (S13 + z * (S15 + z * (S17 + z * (S19 + z * S21))))))))));
+    }
+
+    private static double negateIfOdd(double value, double rounded) {
+        return Double.longBitsToDouble(Double.doubleToRawLongBits(value) ^ (Double.doubleToRawLongBits(rounded) << 63));
+    }
+
+    private FastMath() {
+    }
+}
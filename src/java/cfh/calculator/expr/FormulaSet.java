@@ -0,0 +1,233 @@
+package cfh.calculator.expr;
+
+import java.text.ParseException;
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+
+import cfh.calculator.Expression;
+import cfh.calculator.data.Column;
+import cfh.calculator.data.Data;
+import cfh.calculator.data.DataType;
+import cfh.calculator.data.DoubleData;
+import cfh.calculator.data.Environment;
+import cfh.calculator.data.Missing;
+import cfh.calculator.data.Slots;
+
+
+// related formulas evaluated together: subexpressions common to any of them are evaluated once
+// and every variable is read once per evaluation; output k is the value of formula k
+public final class FormulaSet<D extends Data<D>> {
+
+    public static <D extends Data<D>> FormulaSet<D> parse(DataType<D> type, List<String> texts) throws ParseException {
+        var expressions = new ArrayList<Expression<D>>(texts.size());
+        for (var i = 0; i < texts.size(); i++) {
+            try {
+                expressions.add(Expression.parse(type, texts.get(i)));
+            } catch (ParseException ex) {
+                throw (ParseException) new ParseException("formula " + i + ": " + ex.getMessage(), ex.getErrorOffset()).initCause(ex);
+            }
+        }
+        return of(expressions);
+    }
+
+    public static FormulaSet<DoubleData> parseDouble(List<String> texts) throws ParseException {
+        return parse(DataType.DOUBLE, texts);
+    }
+
+    public static <D extends Data<D>> FormulaSet<D> of(List<? extends Expression<D>> expressions) {
+        var trees = new ArrayList<ExpressionImpl<D>>(expressions.size());
+        for (var expression : expressions) {
+            if (expression instanceof ExpressionImpl<D> tree) {
+                trees.add(tree);
+            } else if (expression instanceof Program<D> program) {
+                trees.add(program.expand());
+            } else if (expression instanceof Bound<D> bound) {
+                trees.add(bound.expression());
+            } else {
+                throw new IllegalArgumentException("unsupported expression: " + expression.getClass().getName());
+            }
+        }
+        return new FormulaSet<>(List.copyOf(expressions), trees);
+    }
+
+    //==============================================================================================
+
+    private final List<Expression<D>> formulas;
+    private final Slots slots;
+    private final ExpressionImpl<?>[] definitions;
+    private final ExpressionImpl<?>[] outputs;
+    private final Frame frame;
+    private final ThreadLocal<double[]> values;
+
+    private FormulaSet(List<Expression<D>> formulas, List<ExpressionImpl<D>> trees) {
+        this.formulas = formulas;
+        var variables = new LinkedHashSet<String>();
+        for (var tree : trees) {
+            variables.addAll(tree.variables());
+        }
+        this.slots = Slots.of(variables);
+        var shared = Sharing.eliminate(trees);
+        this.frame = shared.frame();
+        try {
+            this.definitions = link(shared.definitions());
+            this.outputs = link(shared.bodies());
+        } catch (EvalException ex) {
+            throw new AssertionError("all variables have a slot", ex);
+        }
+        this.values = ThreadLocal.withInitial(() -> new double[slots.size()]);
+    }
+
+    private ExpressionImpl<?>[] link(List<ExpressionImpl<D>> expressions) throws EvalException {
+        var linked = new ExpressionImpl<?>[expressions.size()];
+        for (var i = 0; i < linked.length; i++) {
+            linked[i] = expressions.get(i).link(slots);
+        }
+        return linked;
+    }
+
+    public int size() {
+        return outputs.length;
+    }
+
+    public Expression<D> formula(int index) {
+        return formulas.get(index);
+    }
+
+    // all variables of all formulas, in order of first appearance
+    public Slots slots() {
+        return slots;
+    }
+
+    // number of subexpressions evaluated once for several uses
+    public int sharedCount() {
+        return definitions.length;
+    }
+
+    // every variable is looked up once
+    public void evalDouble(Environment<D> environment, double[] out) throws EvalException {
+        checkOutputs(out.length);
+        var values = this.values.get();
+        for (var i = 0; i < values.length; i++) {
+            var name = slots.name(i);
+            var value = environment.get(name);
+            if (value == null) {
+                throw MissingVariableException.unknown(name);
+            }
+            values[i] = value.doubleValue();
+        }
+        evalValues(values, out);
+    }
+
+    // missing variables take the default of missing and are recorded there instead of throwing
+    public void evalDouble(Environment<D> environment, Missing missing, double[] out) {
+        checkOutputs(out.length);
+        evalValues(missing.values(slots, environment), out);
+    }
+
+    // values indexed by slot
+    public void evalDouble(double[] values, double[] out) {
+        if (values.length < slots.size()) {
+            throw new IllegalArgumentException("expected " + slots.size() + " values, got " + values.length);
+        }
+        checkOutputs(out.length);
+        evalValues(values, out);
+    }
+
+    private void evalValues(double[] values, double[] out) {
+        if (definitions.length > 0) {
+            var doubles = frame.doubles();
+            for (var i = 0; i < definitions.length; i++) {
+                doubles[i] = definitions[i].evalDoubleValues(values);
+            }
+        }
+        for (var i = 0; i < outputs.length; i++) {
+            out[i] = outputs[i].evalDoubleValues(values);
+        }
+    }
+
+    //----------------------------------------------------------------------------------------------
+
+    // columns indexed by slot, out indexed by formula; evaluates the rows out[k].length
+    public void evalBatch(double[][] columns, double[][] out) {
+        checkOutputs(out.length);
+        var rows = out.length == 0 ? 0 : out[0].length;
+        evalBatch(columns, 0, rows, out);
+    }
+
+    // evaluates rows from (inclusive) to (exclusive) into the same positions of every out[k]
+    public void evalBatch(double[][] columns, int from, int to, double[][] out) {
+        checkOutputs(out.length);
+        if (from < 0 || from > to) {
+            throw new IndexOutOfBoundsException("rows " + from + " to " + to);
+        }
+        for (var k = 0; k < out.length; k++) {
+            if (out[k].length < to) {
+                throw new IndexOutOfBoundsException("rows " + from + " to " + to + " of output " + k + " with " + out[k].length + " rows");
+            }
+        }
+        if (columns.length < slots.size()) {
+            throw new IllegalArgumentException("expected " + slots.size() + " columns, got " + columns.length);
+        }
+        for (var i = 0; i < slots.size(); i++) {
+            if (columns[i].length < to) {
+                throw new IllegalArgumentException("column " + slots.name(i) + " has only " + columns[i].length + " rows");
+            }
+        }
+        var batch = new Batch(columns, definitions.length);
+        for (var start = from; start < to; start += Batch.CHUNK) {
+            batch.chunk(start, Math.min(Batch.CHUNK, to - start));
+            for (var i = 0; i < definitions.length; i++) {
+                definitions[i].evalBatch(batch, batch.shared(i), 0, 0);
+            }
+            for (var k = 0; k < outputs.length; k++) {
+                outputs[k].evalBatch(batch, out[k], start, 0);
+            }
+        }
+    }
+
+    // same with columns read and results written in place
+    public void evalBatch(Column[] columns, int from, int to, Column[] out) {
+        checkOutputs(out.length);
+        if (from < 0 || from > to) {
+            throw new IndexOutOfBoundsException("rows " + from + " to " + to);
+        }
+        for (var k = 0; k < out.length; k++) {
+            if (out[k].rows() < to) {
+                throw new IndexOutOfBoundsException("rows " + from + " to " + to + " of output " + k + " with " + out[k].rows() + " rows");
+            }
+        }
+        if (columns.length < slots.size()) {
+            throw new IllegalArgumentException("expected " + slots.size() + " columns, got " + columns.length);
+        }
+        for (var i = 0; i < slots.size(); i++) {
+            if (columns[i].rows() < to) {
+                throw new IllegalArgumentException("column " + slots.name(i) + " has only " + columns[i].rows() + " rows");
+            }
+        }
+        var batch = new Batch(columns, definitions.length);
+        var results = new double[Batch.CHUNK];
+        for (var start = from; start < to; start += Batch.CHUNK) {
+            var length = Math.min(Batch.CHUNK, to - start);
+            batch.chunk(start, length);
+            for (var i = 0; i < definitions.length; i++) {
+                definitions[i].evalBatch(batch, batch.shared(i), 0, 0);
+            }
+            for (var k = 0; k < outputs.length; k++) {
+                outputs[k].evalBatch(batch, results, 0, 0);
+                out[k].put(start, results, 0, length);
+            }
+        }
+    }
+
+    private void checkOutputs(int count) {
+        if (count != outputs.length) {
+            throw new IllegalArgumentException("expected " + outputs.length + " outputs, got " + count);
+        }
+    }
+
+    @Override
+    public String toString() {
+        return formulas.toString();
+    }
+}
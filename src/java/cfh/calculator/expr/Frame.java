@@ -0,0 +1,30 @@
+package cfh.calculator.expr;
+
+import cfh.calculator.data.Data;
+
+
+// per thread scratch storage for the shared subexpressions of a Let
+final class Frame {
+
+    private final int size;
+    private final ThreadLocal<Data<?>[]> values;
+    private final ThreadLocal<double[]> doubles;
+    
+    Frame(int size) {
+        this.size = size;
+        this.values = ThreadLocal.withInitial(() -> new Data<?>[size]);
+        this.doubles = ThreadLocal.withInitial(() -> new double[size]);
+    }
+    
+    int size() {
+        return size;
+    }
+    
+    Data<?>[] values() {
+        return values.get();
+    }
+    
+    double[] doubles() {
+        return doubles.get();
+    }
+}
@@ -2,22 +2,53 @@ package cfh.calculator.expr;
 
 import static java.util.Objects.requireNonNull;
 
+import java.util.function.DoubleUnaryOperator;
 import java.util.function.UnaryOperator;
 
 import cfh.calculator.data.Data;
+import cfh.calculator.data.DataType;
 import cfh.calculator.data.Environment;
+import cfh.calculator.data.SlotEnvironment;
+import cfh.calculator.data.Slots;
 
 
 final class FunctionCall<D extends Data<D>> extends ExpressionImpl<D> {
     
     private final FunctionName name;
     private final ExpressionImpl<D> argument;
+    private final DataType<D> datatype;
     private final UnaryOperator<D> operator;
+    private final DoubleUnaryOperator doubleOperator;
+    private final boolean mathFunction;
+    private final boolean fastFunction;
+    private final int hash;
     
-    FunctionCall(FunctionName name, ExpressionImpl<D> argument, UnaryOperator<D> operator) {
+    FunctionCall(FunctionName name, ExpressionImpl<D> argument, DataType<D> datatype) {
         this.name = requireNonNull(name);
         this.argument = requireNonNull(argument);
-        this.operator = requireNonNull(operator);
+        this.datatype = requireNonNull(datatype);
+        this.operator = requireNonNull(datatype.unaryFunction(name));
+        this.doubleOperator = requireNonNull(datatype.doubleFunction(name));
+        var intrinsic = datatype.doubleIntrinsic(name);
+        this.mathFunction = intrinsic != null && intrinsic.getDeclaringClass() == Math.class;
+        this.fastFunction = intrinsic != null && intrinsic.getDeclaringClass() == FastMath.class;
+        this.hash = 31 * (name.ordinal() + 17) + argument.hashCode();
+    }
+    
+    FunctionName name() {
+        return name;
+    }
+    
+    ExpressionImpl<D> argument() {
+        return argument;
+    }
+    
+    DataType<D> datatype() {
+        return datatype;
+    }
+    
+    FunctionCall<D> with(ExpressionImpl<D> arg) {
+        return arg == argument ? this : new FunctionCall<>(name, arg, datatype);
     }
     
     @Override
@@ -25,8 +56,68 @@ final class FunctionCall<D extends Data<D>> extends ExpressionImpl<D> {
         return operator.apply(argument.eval(environment));
     }
     
+    @Override
+    public double evalDouble(Environment<D> environment) throws EvalException {
+        return doubleOperator.applyAsDouble(argument.evalDouble(environment));
+    }
+    
+    @Override
+    ExpressionImpl<D> link(Slots slots) throws EvalException {
+        return with(argument.link(slots));
+    }
+    
+    @Override
+    D evalSlots(SlotEnvironment<D> environment) throws EvalException {
+        return operator.apply(argument.evalSlots(environment));
+    }
+    
+    @Override
+    double evalDoubleSlots(SlotEnvironment<D> environment) throws EvalException {
+        return doubleOperator.applyAsDouble(argument.evalDoubleSlots(environment));
+    }
+    
+    @Override
+    double evalDoubleValues(double[] values) {
+        return doubleOperator.applyAsDouble(argument.evalDoubleValues(values));
+    }
+    
+    @Override
+    void evalBatch(Batch batch, double[] out, int offset, int depth) {
+        argument.evalBatch(batch, out, offset, depth);
+        if (mathFunction && Kernels.INSTANCE.function(name, out, offset, batch.length())) {
+            return;
+        }
+        if (fastFunction && Kernels.INSTANCE.fastFunction(name, out, offset, batch.length())) {
+            return;
+        }
+        var end = offset + batch.length();
+        for (var i = offset; i < end; i++) {
+            out[i] = doubleOperator.applyAsDouble(out[i]);
+        }
+    }
+    
+    // function of an already evaluated argument
+    D apply(D value) {
+        return operator.apply(value);
+    }
+    
     @Override
     public String toString() {
         return name + "(" + argument + ")";
     }
+    
+    @Override
+    public boolean equals(Object obj) {
+        if (obj == this) return true;
+        return (obj instanceof FunctionCall<?> other) 
+            && hash == other.hash 
+            && name == other.name 
+            && datatype == other.datatype
+            && argument.equals(other.argument);
+    }
+    
+    @Override
+    public int hashCode() {
+        return hash;
+    }
 }
@@ -0,0 +1,59 @@
+package cfh.calculator.expr;
+
+
+// loops over whole chunks used by batch evaluation; vectorized by VectorKernels if the
+// jdk.incubator.vector module is present (--add-modules jdk.incubator.vector)
+class Kernels {
+
+    static final Kernels INSTANCE = select();
+    
+    private static Kernels select() {
+        if (!Boolean.getBoolean("cfh.calculator.scalar") 
+            && ModuleLayer.boot().findModule("jdk.incubator.vector").isPresent()) {
+            try {
+                var type = Class.forName(Kernels.class.getPackageName() + ".VectorKernels");
+                return (Kernels) type.getDeclaredConstructor().newInstance();
+            } catch (ReflectiveOperationException | LinkageError ex) {
+                // scalar
+            }
+        }
+        return new Kernels();
+    }
+    
+    //==============================================================================================
+    
+    Kernels() {
+    }
+    
+    boolean isVectorized() {
+        return false;
+    }
+    
+    // out[offset+i] = out[offset+i] <name> operand[i]
+    void binary(BinaryName name, double[] out, int offset, double[] operand, int length) {
+        switch (name) {
+            case ADD -> { for (var i = 0; i < length; i++) out[offset + i] += operand[i]; }
+            case SUBTRACT -> { for (var i = 0; i < length; i++) out[offset + i] -= operand[i]; }
+            case MULTIPLICATE -> { for (var i = 0; i < length; i++) out[offset + i] *= operand[i]; }
+            case DIVIDE -> { for (var i = 0; i < length; i++) out[offset + i] /= operand[i]; }
+            case REMAINDER -> { for (var i = 0; i < length; i++) out[offset + i] %= operand[i]; }
+        }
+    }
+    
+    void negate(double[] out, int offset, int length) {
+        var end = offset + length;
+        for (var i = offset; i < end; i++) {
+            out[i] = -out[i];
+        }
+    }
+    
+    // the java.lang.Math function in place; false if not supported, the caller must then apply it
+    boolean function(FunctionName name, double[] out, int offset, int length) {
+        return false;
+    }
+    
+    // the FastMath function in place, with the same results; false if not supported
+    boolean fastFunction(FunctionName name, double[] out, int offset, int length) {
+        return false;
+    }
+}
@@ -0,0 +1,124 @@
+package cfh.calculator.expr;
+
+import static java.util.Objects.requireNonNull;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import cfh.calculator.data.Data;
+import cfh.calculator.data.Environment;
+import cfh.calculator.data.SlotEnvironment;
+import cfh.calculator.data.Slots;
+
+
+// evaluates the definitions in order, then the body; see Ref
+final class Let<D extends Data<D>> extends ExpressionImpl<D> {
+
+    private final List<ExpressionImpl<D>> definitions;
+    private final ExpressionImpl<D> body;
+    private final Frame frame;
+    private final int hash;
+    
+    Let(List<ExpressionImpl<D>> definitions, ExpressionImpl<D> body, Frame frame) {
+        this.definitions = List.copyOf(definitions);
+        this.body = requireNonNull(body);
+        this.frame = requireNonNull(frame);
+        if (frame.size() != this.definitions.size()) {
+            throw new IllegalArgumentException("frame size " + frame.size() + " != " + this.definitions.size());
+        }
+        this.hash = 31 * this.definitions.hashCode() + body.hashCode();
+    }
+    
+    List<ExpressionImpl<D>> definitions() {
+        return definitions;
+    }
+    
+    ExpressionImpl<D> body() {
+        return body;
+    }
+    
+    Frame frame() {
+        return frame;
+    }
+    
+    @Override
+    public D eval(Environment<D> environment) throws EvalException {
+        var values = frame.values();
+        for (var i = 0; i < values.length; i++) {
+            values[i] = definitions.get(i).eval(environment);
+        }
+        return body.eval(environment);
+    }
+    
+    @Override
+    public double evalDouble(Environment<D> environment) throws EvalException {
+        var doubles = frame.doubles();
+        for (var i = 0; i < doubles.length; i++) {
+            doubles[i] = definitions.get(i).evalDouble(environment);
+        }
+        return body.evalDouble(environment);
+    }
+    
+    @Override
+    ExpressionImpl<D> link(Slots slots) throws EvalException {
+        var linked = new ArrayList<ExpressionImpl<D>>(definitions.size());
+        for (var definition : definitions) {
+            linked.add(definition.link(slots));
+        }
+        return new Let<>(linked, body.link(slots), frame);
+    }
+    
+    @Override
+    D evalSlots(SlotEnvironment<D> environment) throws EvalException {
+        var values = frame.values();
+        for (var i = 0; i < values.length; i++) {
+            values[i] = definitions.get(i).evalSlots(environment);
+        }
+        return body.evalSlots(environment);
+    }
+    
+    @Override
+    double evalDoubleSlots(SlotEnvironment<D> environment) throws EvalException {
+        var doubles = frame.doubles();
+        for (var i = 0; i < doubles.length; i++) {
+            doubles[i] = definitions.get(i).evalDoubleSlots(environment);
+        }
+        return body.evalDoubleSlots(environment);
+    }
+    
+    @Override
+    double evalDoubleValues(double[] values) {
+        var doubles = frame.doubles();
+        for (var i = 0; i < doubles.length; i++) {
+            doubles[i] = definitions.get(i).evalDoubleValues(values);
+        }
+        return body.evalDoubleValues(values);
+    }
+    
+    @Override
+    void evalBatch(Batch batch, double[] out, int offset, int depth) {
+        for (var i = 0; i < definitions.size(); i++) {
+            definitions.get(i).evalBatch(batch, batch.shared(i), 0, depth);
+        }
+        body.evalBatch(batch, out, offset, depth);
+    }
+    
+    @Override
+    public String toString() {
+        return body.toString();
+    }
+    
+    @Override
+    public boolean equals(Object obj) {
+        if (obj == this) return true;
+        return (obj instanceof Let<?> other) 
+            && hash == other.hash 
+            && definitions.equals(other.definitions) 
+            && body.equals(other.body);
+    }
+    
+    @Override
+    public int hashCode() {
+        return hash;
+    }
+}
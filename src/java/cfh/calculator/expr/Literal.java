@@ -2,25 +2,82 @@ package cfh.calculator.expr;
 
 import static java.util.Objects.requireNonNull;
 
+import java.util.Arrays;
+
 import cfh.calculator.data.Data;
 import cfh.calculator.data.Environment;
+import cfh.calculator.data.SlotEnvironment;
+import cfh.calculator.data.Slots;
 
 
 final class Literal<D extends Data<D>> extends ExpressionImpl<D> {
     
     private final D value;
+    private final double doubleValue;
+    private final int hash;
 
     Literal(D value) { 
         this.value = requireNonNull(value); 
+        this.doubleValue = value.doubleValue();
+        this.hash = 31 * value.hashCode();
+    }
+    
+    D value() {
+        return value;
+    }
+    
+    double doubleValue() {
+        return doubleValue;
     }
 
     @Override
     public D eval(Environment<D> environment) throws EvalException {
         return value;
     }
+
+    @Override
+    public double evalDouble(Environment<D> environment) throws EvalException {
+        return doubleValue;
+    }
+    
+    @Override
+    ExpressionImpl<D> link(Slots slots) {
+        return this;
+    }
+    
+    @Override
+    D evalSlots(SlotEnvironment<D> environment) {
+        return value;
+    }
+    
+    @Override
+    double evalDoubleSlots(SlotEnvironment<D> environment) {
+        return doubleValue;
+    }
+    
+    @Override
+    double evalDoubleValues(double[] values) {
+        return doubleValue;
+    }
+    
+    @Override
+    void evalBatch(Batch batch, double[] out, int offset, int depth) {
+        Arrays.fill(out, offset, offset + batch.length(), doubleValue);
+    }
     
     @Override
     public String toString() {
         return String.valueOf(value);
     }
+    
+    @Override
+    public boolean equals(Object obj) {
+        if (obj == this) return true;
+        return (obj instanceof Literal<?> other) && hash == other.hash && value.equals(other.value);
+    }
+    
+    @Override
+    public int hashCode() {
+        return hash;
+    }
 }
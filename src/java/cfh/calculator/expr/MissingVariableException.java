@@ -0,0 +1,41 @@
+package cfh.calculator.expr;
+
+import static java.util.Objects.requireNonNull;
+
+
+// thrown for every variable without value, so it is cheap: no stack trace, the message is only
+// built if asked for
+public final class MissingVariableException extends EvalException {
+
+    private static final long serialVersionUID = 1L;
+
+    // not in the environment
+    static MissingVariableException unknown(String variable) {
+        return new MissingVariableException("Unknown variable: ", variable);
+    }
+
+    // slot without value
+    static MissingVariableException unset(String variable) {
+        return new MissingVariableException("Unset variable: ", variable);
+    }
+
+    //==============================================================================================
+
+    private final String prefix;
+    private final String variable;
+
+    private MissingVariableException(String prefix, String variable) {
+        super(null, null, false, false);
+        this.prefix = prefix;
+        this.variable = requireNonNull(variable);
+    }
+
+    public String variable() {
+        return variable;
+    }
+
+    @Override
+    public String getMessage() {
+        return prefix + variable;
+    }
+}
@@ -0,0 +1,12 @@
+package cfh.calculator.expr;
+
+
+public enum Optimization {
+
+    // constant folding and identities exact under IEEE 754: +x, -(-x), x*1, 1*x, x/1, x-0, x+(-0)
+    STRICT,
+    // additionally x+0, 0+x, x*0, 0*x and regrouping of constants as in (x*2)*3, which
+    // may change rounding, the sign of zero or the propagation of NaN and infinity
+    FAST_MATH,
+    ;
+}
@@ -0,0 +1,120 @@
+package cfh.calculator.expr;
+
+import static java.util.Objects.requireNonNull;
+
+import cfh.calculator.data.Data;
+
+
+// bottom-up constant folding and algebraic simplification, see Optimization
+final class Optimizer {
+
+    static <D extends Data<D>> ExpressionImpl<D> optimize(ExpressionImpl<D> expression, Optimization optimization) {
+        return new Optimizer(optimization).simplify(expression);
+    }
+
+    //==============================================================================================
+
+    private final boolean fast;
+
+    private Optimizer(Optimization optimization) {
+        this.fast = requireNonNull(optimization) == Optimization.FAST_MATH;
+    }
+
+    private <D extends Data<D>> ExpressionImpl<D> simplify(ExpressionImpl<D> expression) {
+        if (expression instanceof Unary<D> unary) {
+            return simplifyUnary(unary.with(simplify(unary.expression())));
+        } else if (expression instanceof Binary<D> binary) {
+            return simplifyBinary(binary.with(simplify(binary.expression1()), simplify(binary.expression2())));
+        } else if (expression instanceof FunctionCall<D> call) {
+            return fold(call.with(simplify(call.argument())));
+        } else {
+            return expression;
+        }
+    }
+
+    // children already simplified
+    private <D extends Data<D>> ExpressionImpl<D> simplifyUnary(Unary<D> unary) {
+        var expression = unary.expression();
+        return switch (unary.name()) {
+            case PLUS -> expression;
+            case MINUS -> {
+                if (expression instanceof Unary<D> inner && inner.name() == UnaryName.MINUS) {
+                    yield inner.expression();
+                }
+                yield fold(unary);
+            }
+        };
+    }
+
+    // children already simplified
+    private <D extends Data<D>> ExpressionImpl<D> simplifyBinary(Binary<D> binary) {
+        var folded = fold(binary);
+        if (folded != binary) {
+            return folded;
+        }
+        var expression1 = binary.expression1();
+        var expression2 = binary.expression2();
+        switch (binary.name()) {
+            case ADD:
+                if (isNegativeZero(expression2)) return expression1;
+                if (fast && isConstant(expression2, 0.0)) return expression1;
+                if (fast && isConstant(expression1, 0.0)) return expression2;
+                break;
+            case SUBTRACT:
+                if (isConstant(expression2, 0.0) && !isNegativeZero(expression2)) return expression1;
+                break;
+            case MULTIPLICATE:
+                if (isConstant(expression2, 1.0)) return expression1;
+                if (isConstant(expression1, 1.0)) return expression2;
+                if (fast && isConstant(expression2, 0.0)) return expression2;
+                if (fast && isConstant(expression1, 0.0)) return expression1;
+                break;
+            case DIVIDE:
+                if (isConstant(expression2, 1.0)) return expression1;
+                break;
+            case REMAINDER:
+                break;
+        }
+        // (x op c1) op c2  ->  x op (c1 op c2)
+        if (fast
+            && (binary.name() == BinaryName.ADD || binary.name() == BinaryName.MULTIPLICATE)
+            && expression2 instanceof Literal<D>
+            && expression1 instanceof Binary<D> inner
+            && inner.name() == binary.name()
+            && inner.expression2() instanceof Literal<D>) {
+            return simplifyBinary(inner.with(inner.expression1(), fold(binary.with(inner.expression2(), expression2))));
+        }
+        return binary;
+    }
+
+    // replaces the expression by a literal if it only has literal children
+    private static <D extends Data<D>> ExpressionImpl<D> fold(ExpressionImpl<D> expression) {
+        boolean constant;
+        if (expression instanceof Unary<D> unary) {
+            constant = unary.expression() instanceof Literal;
+        } else if (expression instanceof Binary<D> binary) {
+            constant = binary.expression1() instanceof Literal && binary.expression2() instanceof Literal;
+        } else if (expression instanceof FunctionCall<D> call) {
+            constant = call.argument() instanceof Literal;
+        } else {
+            constant = false;
+        }
+        if (!constant) {
+            return expression;
+        }
+        try {
+            return new Literal<>(expression.eval(null));
+        } catch (EvalException ex) {
+            return expression;
+        }
+    }
+
+    private static boolean isConstant(ExpressionImpl<?> expression, double value) {
+        return expression instanceof Literal<?> literal && literal.doubleValue() == value;
+    }
+
+    private static boolean isNegativeZero(ExpressionImpl<?> expression) {
+        return expression instanceof Literal<?> literal
+            && Double.doubleToRawLongBits(literal.doubleValue()) == Double.doubleToRawLongBits(-0.0);
+    }
+}
@@ -0,0 +1,158 @@
+package cfh.calculator.expr;
+
+import static java.util.Objects.requireNonNull;
+
+import java.util.ArrayList;
+import java.util.Spliterator;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.function.DoubleConsumer;
+
+
+// parallel evaluation of row ranges, every task uses its own scratch buffers
+final class Parallel {
+
+    static void eval(Bound<?> bound, double[][] columns, double[] out, Executor executor, int chunkSize) {
+        requireNonNull(executor);
+        if (chunkSize < 1) {
+            throw new IllegalArgumentException("chunk size must be positive: " + chunkSize);
+        }
+        if (out.length <= chunkSize) {
+            bound.evalRows(columns, 0, out.length, out);
+        } else if (executor instanceof ForkJoinPool pool) {
+            pool.invoke(new Task(bound, columns, out, 0, out.length, chunkSize));
+        } else {
+            var futures = new ArrayList<CompletableFuture<Void>>();
+            for (var from = 0; from < out.length; from += chunkSize) {
+                var start = from;
+                var end = Math.min(out.length, from + chunkSize);
+                futures.add(CompletableFuture.runAsync(() -> bound.evalRows(columns, start, end, out), executor));
+            }
+            try {
+                CompletableFuture.allOf(futures.toArray(CompletableFuture[]::new)).join();
+            } catch (CompletionException ex) {
+                if (ex.getCause() instanceof RuntimeException cause) throw cause;
+                if (ex.getCause() instanceof Error cause) throw cause;
+                throw ex;
+            }
+        }
+    }
+
+    private Parallel() {
+    }
+
+    ////////////////////////////////////////////////////////////////////////////////////////////////
+
+    private static final class Task extends RecursiveAction {
+
+        private final Bound<?> bound;
+        private final double[][] columns;
+        private final double[] out;
+        private final int from;
+        private final int to;
+        private final int chunkSize;
+
+        Task(Bound<?> bound, double[][] columns, double[] out, int from, int to, int chunkSize) {
+            this.bound = bound;
+            this.columns = columns;
+            this.out = out;
+            this.from = from;
+            this.to = to;
+            this.chunkSize = chunkSize;
+        }
+
+        @Override
+        protected void compute() {
+            if (to - from <= chunkSize) {
+                bound.evalRows(columns, from, to, out);
+            } else {
+                var middle = (from + to) >>> 1;
+                invokeAll(
+                    new Task(bound, columns, out, from, middle, chunkSize),
+                    new Task(bound, columns, out, middle, to, chunkSize));
+            }
+        }
+    }
+
+    ////////////////////////////////////////////////////////////////////////////////////////////////
+
+    // evaluates a chunk at a time into a local buffer
+    static final class Rows implements Spliterator.OfDouble {
+
+        private final Bound<?> bound;
+        private final double[][] columns;
+        private int from;
+        private final int to;
+
+        private Batch batch;
+        private double[] buffer;
+        private int index;
+        private int end;
+
+        Rows(Bound<?> bound, double[][] columns, int from, int to) {
+            this.bound = bound;
+            this.columns = columns;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        public boolean tryAdvance(DoubleConsumer action) {
+            if (index == end && !fill()) {
+                return false;
+            }
+            action.accept(buffer[index++]);
+            return true;
+        }
+
+        @Override
+        public void forEachRemaining(DoubleConsumer action) {
+            do {
+                while (index < end) {
+                    action.accept(buffer[index++]);
+                }
+            } while (fill());
+        }
+
+        private boolean fill() {
+            if (from >= to) {
+                return false;
+            }
+            if (batch == null) {
+                batch = bound.batch(columns);
+                buffer = new double[Batch.CHUNK];
+            }
+            var length = Math.min(Batch.CHUNK, to - from);
+            batch.chunk(from, length);
+            bound.evalChunk(batch, buffer);
+            from += length;
+            index = 0;
+            end = length;
+            return true;
+        }
+
+        @Override
+        public Spliterator.OfDouble trySplit() {
+            if (batch != null || to - from < 2 * Batch.CHUNK) {
+                return null;
+            }
+            var middle = from + ((to - from) / Batch.CHUNK / 2) * Batch.CHUNK;
+            var prefix = new Rows(bound, columns, from, middle);
+            from = middle;
+            return prefix;
+        }
+
+        @Override
+        public long estimateSize() {
+            return (to - from) + (end - index);
+        }
+
+        @Override
+        public int characteristics() {
+            return ORDERED | SIZED | SUBSIZED | IMMUTABLE | NONNULL;
+        }
+    }
+}
@@ -2,38 +2,105 @@ package cfh.calculator.expr;
 
 import static java.util.Objects.*;
 
+import java.nio.CharBuffer;
 import java.text.ParseException;
+import java.util.Arrays;
+
 import cfh.calculator.data.Data;
 import cfh.calculator.data.DataType;
+import cfh.calculator.metrics.Instrumentation;
+import cfh.calculator.metrics.ParseEvent;
 
 
+// reusable but not thread safe, parse keeps no state between calls; Expression.parse uses
+// a new parser for every text, so it is free of locks
 public class Parser<D extends Data<D>> {
     
+    private static final ThreadLocal<Names> NAMES = ThreadLocal.withInitial(Names::new);
+    
     private final DataType<D> datatype;
-    private final String text;
+    private final CharSequence initial;
     
+    private CharSequence text;
+    private Names names;
+    private int length;
     private int pos = -1;
     private int ch;
 
-    public Parser(DataType<D> datatype, String text) {
+    public Parser(DataType<D> datatype) {
+        this.datatype = requireNonNull(datatype);
+        this.initial = null;
+    }
+    
+    // parser of a single text, see parse()
+    public Parser(DataType<D> datatype, CharSequence text) {
         this.datatype = requireNonNull(datatype);
+        this.initial = requireNonNull(text);
+    }
+    
+    // the text given to the constructor
+    public ExpressionImpl<D> parse() throws ParseException {
+        if (initial == null) {
+            throw new IllegalStateException("no text given to the constructor");
+        }
+        return parse(initial);
+    }
+    
+    // error offsets are relative to offset
+    public ExpressionImpl<D> parse(char[] chars, int offset, int length) throws ParseException {
+        return parse(CharBuffer.wrap(chars, offset, length));
+    }
+    
+    public ExpressionImpl<D> parse(CharSequence text) throws ParseException {
         this.text = requireNonNull(text);
+        this.length = text.length();
+        this.names = NAMES.get();
+        try {
+            return measured();
+        } finally {
+            this.text = null;
+            this.names = null;
+        }
+    }
+    
+    private ExpressionImpl<D> measured() throws ParseException {
+        var metrics = Instrumentation.parseMetrics();
+        if (metrics == null && !ParseEvent.enabled()) {
+            return parseText();
+        }
+        var event = new ParseEvent();
+        event.begin();
+        var start = System.nanoTime();
+        var failed = true;
+        try {
+            var expr = parseText();
+            failed = false;
+            return expr;
+        } finally {
+            if (metrics != null) {
+                metrics.textParsed(length, System.nanoTime() - start, failed);
+            }
+            if (event.shouldCommit()) {
+                event.length = length;
+                event.failed = failed;
+                event.commit();
+            }
+        }
     }
     
-    public synchronized ExpressionImpl<D> parse() throws ParseException {
+    private ExpressionImpl<D> parseText() throws ParseException {
         pos = -1;
         next();
         skipSpace();
         var expr = parseExpression();
-        if (pos < text.length()) {
+        if (pos < length) {
             throw new ParseException("Unexpected:" + (char)ch, pos);
         }
-        System.out.println(expr);
         return expr;
     }
     
     private void next() {
-        ch  = (++pos < text.length() ? text.charAt(pos) : -1);
+        ch  = (++pos < length ? text.charAt(pos) : -1);
     }
 
     private void skipSpace() {
@@ -70,8 +137,8 @@ public class Parser<D extends Data<D>> {
         var x = parseMultiplicative();
         for (;;) {
             skipSpace();
-            if (is('+')) x = new Binary<>(BinaryName.ADD, x, parseUnary(), D::add);
-            else if (is('-')) x = new Binary<>(BinaryName.SUBTRACT, x, parseUnary(), D::subtract);
+            if (is('+')) x = new Binary<>(BinaryName.ADD, x, parseMultiplicative(), D::add);
+            else if (is('-')) x = new Binary<>(BinaryName.SUBTRACT, x, parseMultiplicative(), D::subtract);
             else return x;
         }
     }
@@ -106,11 +173,10 @@ public class Parser<D extends Data<D>> {
             while (isDigit()) {
                 next();
             }
-            String literal = text.substring(start, pos);
             try {
-                return new Literal<>(datatype.parse(literal));
+                return new Literal<>(datatype.parse(text, start, pos));
             } catch (NumberFormatException ex) {
-                throw (ParseException) new ParseException("Invalid literal: " + literal, start).initCause(ex);
+                throw (ParseException) new ParseException("Invalid literal: " + text.subSequence(start, pos), start).initCause(ex);
             }
 
         // '(' expression ')'
@@ -126,16 +192,14 @@ public class Parser<D extends Data<D>> {
             while (isLetter() || isDigit()) {
                 next();
             }
-            var name = text.substring(start, pos);
+            var end = pos;
             skipSpace();
             if (is('(')) {
-                FunctionName function;
-                try {
-                    function = FunctionName.valueOf(name.toUpperCase());
-                } catch (IllegalArgumentException ex) {
-                    throw (ParseException) new ParseException("Unknown function: " + name, start).initCause(ex);
+                var function = function(start, end);
+                if (function == null) {
+                    throw new ParseException("Unknown function: " + text.subSequence(start, end), start);
                 }
-                var call = new FunctionCall<>(function, parseExpression(), datatype.unaryFunction(function));
+                var call = new FunctionCall<>(function, parseExpression(), datatype);
                 skipSpace();
                 if (is(')')) {
                     return call;
@@ -143,10 +207,74 @@ public class Parser<D extends Data<D>> {
                     throw new ParseException("Missing closing ')'",  pos);
                 }
             } else {
-                return new Variable<>(name);
+                return new Variable<>(names.get(text, start, end));
             }
         } else {
             throw new ParseException("Unexpected: " + (char)ch, pos);
         }
     }
+    
+    // case insensitive, null if unknown
+    private FunctionName function(int start, int end) {
+        for (var function : FunctionName.values()) {
+            var name = function.toString();
+            if (name.length() == end - start) {
+                var i = 0;
+                while (i < name.length() && Character.toLowerCase(text.charAt(start + i)) == name.charAt(i)) {
+                    i++;
+                }
+                if (i == name.length()) {
+                    return function;
+                }
+            }
+        }
+        return null;
+    }
+    
+    ////////////////////////////////////////////////////////////////////////////////////////////////
+    
+    // identifiers already seen by the thread, looked up without creating a String; new ones are
+    // interned so that all parsers share the instances
+    private static final class Names {
+        
+        private static final int SIZE = 1024;
+        
+        private final String[] table = new String[SIZE];
+        private int count;
+        
+        String get(CharSequence text, int start, int end) {
+            var hash = 0;
+            for (var i = start; i < end; i++) {
+                hash = 31 * hash + text.charAt(i);
+            }
+            var index = (hash ^ (hash >>> 16)) & (SIZE - 1);
+            String name;
+            while ((name = table[index]) != null) {
+                if (name.hashCode() == hash && matches(name, text, start, end)) {
+                    return name;
+                }
+                index = (index + 1) & (SIZE - 1);
+            }
+            name = text.subSequence(start, end).toString().intern();
+            if (++count > SIZE / 2) {
+                Arrays.fill(table, null);
+                count = 1;
+                index = (hash ^ (hash >>> 16)) & (SIZE - 1);
+            }
+            table[index] = name;
+            return name;
+        }
+        
+        private static boolean matches(String name, CharSequence text, int start, int end) {
+            if (name.length() != end - start) {
+                return false;
+            }
+            for (var i = 0; i < name.length(); i++) {
+                if (name.charAt(i) != text.charAt(start + i)) {
+                    return false;
+                }
+            }
+            return true;
+        }
+    }
 }
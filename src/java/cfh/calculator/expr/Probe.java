@@ -0,0 +1,191 @@
+package cfh.calculator.expr;
+
+import static java.util.Objects.requireNonNull;
+
+import java.util.ArrayList;
+
+import cfh.calculator.data.Data;
+import cfh.calculator.data.Environment;
+import cfh.calculator.data.SlotEnvironment;
+import cfh.calculator.data.Slots;
+import cfh.calculator.metrics.EvaluationEvent;
+import cfh.calculator.metrics.Metrics;
+
+
+// measures the evaluation of the wrapped node, see Expression.instrument;
+// the root also emits an EvaluationEvent
+final class Probe<D extends Data<D>> extends ExpressionImpl<D> {
+
+    // every node wrapped
+    static <D extends Data<D>> ExpressionImpl<D> instrument(ExpressionImpl<D> expression, Metrics metrics) {
+        requireNonNull(metrics);
+        if (expression instanceof Probe<D> probe) {
+            expression = probe.expression;
+        }
+        return new Probe<>(wrap(expression, metrics), metrics, true);
+    }
+
+    private static <D extends Data<D>> ExpressionImpl<D> wrap(ExpressionImpl<D> expression, Metrics metrics) {
+        ExpressionImpl<D> wrapped;
+        if (expression instanceof Unary<D> unary) {
+            wrapped = unary.with(probe(unary.expression(), metrics));
+        } else if (expression instanceof Binary<D> binary) {
+            wrapped = binary.with(probe(binary.expression1(), metrics), probe(binary.expression2(), metrics));
+        } else if (expression instanceof FunctionCall<D> call) {
+            wrapped = call.with(probe(call.argument(), metrics));
+        } else if (expression instanceof Let<D> let) {
+            var definitions = new ArrayList<ExpressionImpl<D>>(let.definitions().size());
+            for (var definition : let.definitions()) {
+                definitions.add(probe(definition, metrics));
+            }
+            wrapped = new Let<>(definitions, probe(let.body(), metrics), let.frame());
+        } else if (expression instanceof Probe<D> probe) {
+            wrapped = wrap(probe.expression, metrics);
+        } else {
+            wrapped = expression;
+        }
+        return wrapped;
+    }
+
+    private static <D extends Data<D>> ExpressionImpl<D> probe(ExpressionImpl<D> expression, Metrics metrics) {
+        return new Probe<>(wrap(expression, metrics), metrics, false);
+    }
+
+    //==============================================================================================
+
+    private final ExpressionImpl<D> expression;
+    private final Metrics metrics;
+    private final boolean root;
+    private final String label;
+    private final FunctionName function;    // null if not a function call
+    private final String variable;          // null if not a variable
+    private final int hash;
+
+    private Probe(ExpressionImpl<D> expression, Metrics metrics, boolean root) {
+        this.expression = requireNonNull(expression);
+        this.metrics = requireNonNull(metrics);
+        this.root = root;
+        this.label = expression.toString();
+        this.function = expression instanceof FunctionCall<D> call ? call.name() : null;
+        this.variable = expression instanceof Variable<D> var ? var.name() : null;
+        this.hash = 31 * expression.hashCode() + 1;
+    }
+
+    ExpressionImpl<D> expression() {
+        return expression;
+    }
+
+    @Override
+    public D eval(Environment<D> environment) throws EvalException {
+        var event = root ? begin() : null;
+        var start = System.nanoTime();
+        try {
+            return expression.eval(environment);
+        } finally {
+            end(start, event);
+        }
+    }
+
+    @Override
+    public double evalDouble(Environment<D> environment) throws EvalException {
+        var event = root ? begin() : null;
+        var start = System.nanoTime();
+        try {
+            return expression.evalDouble(environment);
+        } finally {
+            end(start, event);
+        }
+    }
+
+    @Override
+    ExpressionImpl<D> link(Slots slots) throws EvalException {
+        var linked = expression.link(slots);
+        return linked == expression ? this : new Probe<>(linked, metrics, root);
+    }
+
+    @Override
+    D evalSlots(SlotEnvironment<D> environment) throws EvalException {
+        var event = root ? begin() : null;
+        var start = System.nanoTime();
+        try {
+            return expression.evalSlots(environment);
+        } finally {
+            end(start, event);
+        }
+    }
+
+    @Override
+    double evalDoubleSlots(SlotEnvironment<D> environment) throws EvalException {
+        var event = root ? begin() : null;
+        var start = System.nanoTime();
+        try {
+            return expression.evalDoubleSlots(environment);
+        } finally {
+            end(start, event);
+        }
+    }
+
+    @Override
+    double evalDoubleValues(double[] values) {
+        var event = root ? begin() : null;
+        var start = System.nanoTime();
+        try {
+            return expression.evalDoubleValues(values);
+        } finally {
+            end(start, event);
+        }
+    }
+
+    // one evaluation per chunk
+    @Override
+    void evalBatch(Batch batch, double[] out, int offset, int depth) {
+        var event = root ? begin() : null;
+        var start = System.nanoTime();
+        try {
+            expression.evalBatch(batch, out, offset, depth);
+        } finally {
+            end(start, event);
+        }
+    }
+
+    // null while no recording wants the event
+    private static EvaluationEvent begin() {
+        if (!EvaluationEvent.enabled()) {
+            return null;
+        }
+        var event = new EvaluationEvent();
+        event.begin();
+        return event;
+    }
+
+    private void end(long start, EvaluationEvent event) {
+        var nanos = System.nanoTime() - start;
+        metrics.nodeEvaluated(label, nanos);
+        if (function != null) {
+            metrics.functionCalled(function, nanos);
+        } else if (variable != null) {
+            metrics.variableRead(variable);
+        }
+        if (event != null && event.shouldCommit()) {
+            event.expression = label;
+            event.commit();
+        }
+    }
+
+    @Override
+    public String toString() {
+        return expression.toString();
+    }
+
+    // equal if the wrapped nodes are equal
+    @Override
+    public boolean equals(Object obj) {
+        if (obj == this) return true;
+        return (obj instanceof Probe<?> other) && hash == other.hash && expression.equals(other.expression);
+    }
+
+    @Override
+    public int hashCode() {
+        return hash;
+    }
+}
@@ -0,0 +1,664 @@
+package cfh.calculator.expr;
+
+import static java.util.Objects.requireNonNull;
+
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.text.ParseException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.DoubleUnaryOperator;
+import java.util.function.UnaryOperator;
+
+import cfh.calculator.BoundExpression;
+import cfh.calculator.Expression;
+import cfh.calculator.data.Data;
+import cfh.calculator.data.DataType;
+import cfh.calculator.data.Environment;
+import cfh.calculator.data.Slots;
+import cfh.calculator.metrics.Metrics;
+
+
+// postfix form of an expression: opcodes with their operands in one byte array, literals,
+// variable names and functions in pools, evaluated on a per thread operand stack
+final class Program<D extends Data<D>> implements Expression<D> {
+
+    private static final byte LITERAL = 0;      // u16 literal index
+    private static final byte VARIABLE = 1;     // u16 name index
+    private static final byte PLUS = 2;
+    private static final byte MINUS = 3;
+    private static final byte ADD = 4;
+    private static final byte SUBTRACT = 5;
+    private static final byte MULTIPLICATE = 6;
+    private static final byte DIVIDE = 7;
+    private static final byte REMAINDER = 8;
+    private static final byte FUNCTION = 9;     // u8 function index
+    private static final byte STORE = 10;       // u16 local index, pops
+    private static final byte LOAD = 11;        // u16 local index
+
+    private static final int MAX_INDEX = 0xFFFF;
+    private static final int MAX_FUNCTIONS = 0xFF;
+
+    private static final ThreadLocal<Data<?>[]> VALUES = ThreadLocal.withInitial(() -> new Data<?>[16]);
+    private static final ThreadLocal<double[]> DOUBLES = ThreadLocal.withInitial(() -> new double[16]);
+
+    // null if the expression does not fit the operand sizes, it must then stay a tree
+    static <D extends Data<D>> Program<D> of(ExpressionImpl<D> expression) {
+        var assembler = new Assembler<D>();
+        return assembler.emit(expression) ? assembler.program() : null;
+    }
+
+    //==============================================================================================
+
+    private final byte[] code;
+    private final D[] literals;
+    private final double[] doubles;
+    private final String[] names;
+    private final FunctionName[] functions;
+    private final DataType<D> datatype;     // null if no functions
+    private final UnaryOperator<D>[] operators;
+    private final DoubleUnaryOperator[] doubleOperators;
+    private final int stack;
+    private final int locals;
+    private final int hash;
+
+    private Program(byte[] code, D[] literals, String[] names, FunctionName[] functions, DataType<D> datatype,
+                    int stack, int locals) {
+        this.code = code;
+        this.literals = literals;
+        this.names = names;
+        this.functions = functions;
+        this.datatype = datatype;
+        this.stack = stack;
+        this.locals = locals;
+        this.doubles = new double[literals.length];
+        for (var i = 0; i < literals.length; i++) {
+            doubles[i] = literals[i].doubleValue();
+        }
+        this.operators = operators(datatype, functions);
+        this.doubleOperators = doubleOperators(datatype, functions);
+        this.hash = 31 * (31 * Arrays.hashCode(code) + Arrays.hashCode(literals)) + Arrays.hashCode(names);
+    }
+
+    @Override
+    public D eval(Environment<D> environment) throws EvalException {
+        D[] values = values(stack + locals);
+        var top = -1;
+        var pc = 0;
+        while (pc < code.length) {
+            switch (code[pc++]) {
+                case LITERAL -> {
+                    values[++top] = literals[operand(pc)];
+                    pc += 2;
+                }
+                case VARIABLE -> {
+                    var name = names[operand(pc)];
+                    var value = environment.get(name);
+                    if (value == null) {
+                        throw MissingVariableException.unknown(name);
+                    }
+                    values[++top] = value;
+                    pc += 2;
+                }
+                case PLUS -> { }
+                case MINUS -> values[top] = values[top].negative();
+                case ADD -> {
+                    top--;
+                    values[top] = values[top].add(values[top + 1]);
+                }
+                case SUBTRACT -> {
+                    top--;
+                    values[top] = values[top].subtract(values[top + 1]);
+                }
+                case MULTIPLICATE -> {
+                    top--;
+                    values[top] = values[top].multiply(values[top + 1]);
+                }
+                case DIVIDE -> {
+                    top--;
+                    values[top] = values[top].divide(values[top + 1]);
+                }
+                case REMAINDER -> {
+                    top--;
+                    values[top] = values[top].remainder(values[top + 1]);
+                }
+                case FUNCTION -> values[top] = operators[code[pc++] & 0xFF].apply(values[top]);
+                case STORE -> {
+                    values[stack + operand(pc)] = values[top--];
+                    pc += 2;
+                }
+                case LOAD -> {
+                    values[++top] = values[stack + operand(pc)];
+                    pc += 2;
+                }
+                default -> throw new AssertionError("opcode " + code[pc - 1]);
+            }
+        }
+        var result = values[0];
+        Arrays.fill(values, 0, stack + locals, null);
+        return result;
+    }
+
+    @Override
+    public double evalDouble(Environment<D> environment) throws EvalException {
+        var values = doubles(stack + locals);
+        var top = -1;
+        var pc = 0;
+        while (pc < code.length) {
+            switch (code[pc++]) {
+                case LITERAL -> {
+                    values[++top] = doubles[operand(pc)];
+                    pc += 2;
+                }
+                case VARIABLE -> {
+                    var name = names[operand(pc)];
+                    var value = environment.get(name);
+                    if (value == null) {
+                        throw MissingVariableException.unknown(name);
+                    }
+                    values[++top] = value.doubleValue();
+                    pc += 2;
+                }
+                case PLUS -> { }
+                case MINUS -> values[top] = -values[top];
+                case ADD -> {
+                    top--;
+                    values[top] = values[top] + values[top + 1];
+                }
+                case SUBTRACT -> {
+                    top--;
+                    values[top] = values[top] - values[top + 1];
+                }
+                case MULTIPLICATE -> {
+                    top--;
+                    values[top] = values[top] * values[top + 1];
+                }
+                case DIVIDE -> {
+                    top--;
+                    values[top] = values[top] / values[top + 1];
+                }
+                case REMAINDER -> {
+                    top--;
+                    values[top] = values[top] % values[top + 1];
+                }
+                case FUNCTION -> values[top] = doubleOperators[code[pc++] & 0xFF].applyAsDouble(values[top]);
+                case STORE -> {
+                    values[stack + operand(pc)] = values[top--];
+                    pc += 2;
+                }
+                case LOAD -> {
+                    values[++top] = values[stack + operand(pc)];
+                    pc += 2;
+                }
+                default -> throw new AssertionError("opcode " + code[pc - 1]);
+            }
+        }
+        return values[0];
+    }
+
+    private int operand(int pc) {
+        return (code[pc] & 0xFF) << 8 | (code[pc + 1] & 0xFF);
+    }
+
+    @SuppressWarnings("unchecked")
+    private static <D extends Data<D>> D[] values(int size) {
+        var values = VALUES.get();
+        if (values.length < size) {
+            values = new Data<?>[Math.max(size, 2 * values.length)];
+            VALUES.set(values);
+        }
+        return (D[]) values;
+    }
+
+    // the operator of each function, in the order of the functions
+    @SuppressWarnings("unchecked")
+    static <D extends Data<D>> UnaryOperator<D>[] operators(DataType<D> datatype, FunctionName[] functions) {
+        var operators = (UnaryOperator<D>[]) new UnaryOperator<?>[functions.length];
+        for (var i = 0; i < functions.length; i++) {
+            operators[i] = requireNonNull(datatype.unaryFunction(functions[i]));
+        }
+        return operators;
+    }
+
+    static DoubleUnaryOperator[] doubleOperators(DataType<?> datatype, FunctionName[] functions) {
+        var operators = new DoubleUnaryOperator[functions.length];
+        for (var i = 0; i < functions.length; i++) {
+            operators[i] = requireNonNull(datatype.doubleFunction(functions[i]));
+        }
+        return operators;
+    }
+
+    private static double[] doubles(int size) {
+        var doubles = DOUBLES.get();
+        if (doubles.length < size) {
+            doubles = new double[Math.max(size, 2 * doubles.length)];
+            DOUBLES.set(doubles);
+        }
+        return doubles;
+    }
+
+    //----------------------------------------------------------------------------------------------
+
+    // equal to the tree this program was created from
+    ExpressionImpl<D> expand() {
+        var stack = new ArrayList<ExpressionImpl<D>>();
+        var frame = new Frame(locals);
+        var definitions = new ArrayList<ExpressionImpl<D>>(locals);
+        var refs = new ArrayList<Ref<D>>(locals);
+        // same code with the shared subexpressions inlined, as kept by Ref
+        var originals = new ArrayList<ExpressionImpl<D>>();
+        var originalLocals = new ArrayList<ExpressionImpl<D>>(locals);
+        var pc = 0;
+        while (pc < code.length) {
+            var opcode = code[pc++];
+            switch (opcode) {
+                case LITERAL, VARIABLE -> {
+                    ExpressionImpl<D> leaf = opcode == LITERAL ? new Literal<>(literals[operand(pc)]) : new Variable<>(names[operand(pc)]);
+                    stack.add(leaf);
+                    originals.add(leaf);
+                    pc += 2;
+                }
+                case PLUS, MINUS -> {
+                    var name = opcode == PLUS ? UnaryName.PLUS : UnaryName.MINUS;
+                    stack.add(unary(name, pop(stack)));
+                    originals.add(unary(name, pop(originals)));
+                }
+                case ADD, SUBTRACT, MULTIPLICATE, DIVIDE, REMAINDER -> {
+                    var name = BinaryName.values()[opcode - ADD];
+                    var expression2 = pop(stack);
+                    stack.add(binary(name, pop(stack), expression2));
+                    var original2 = pop(originals);
+                    originals.add(binary(name, pop(originals), original2));
+                }
+                case FUNCTION -> {
+                    var name = functions[code[pc++] & 0xFF];
+                    stack.add(new FunctionCall<>(name, pop(stack), datatype));
+                    originals.add(new FunctionCall<>(name, pop(originals), datatype));
+                }
+                case STORE -> {
+                    var original = pop(originals);
+                    originalLocals.add(original);
+                    definitions.add(pop(stack));
+                    refs.add(new Ref<>(operand(pc), original, frame));
+                    pc += 2;
+                }
+                case LOAD -> {
+                    var index = operand(pc);
+                    stack.add(refs.get(index));
+                    originals.add(originalLocals.get(index));
+                    pc += 2;
+                }
+                default -> throw new AssertionError("opcode " + opcode);
+            }
+        }
+        var body = stack.get(0);
+        return locals == 0 ? body : new Let<>(definitions, body, frame);
+    }
+
+    private static <E> E pop(List<E> stack) {
+        return stack.remove(stack.size() - 1);
+    }
+
+    static <D extends Data<D>> Unary<D> unary(UnaryName name, ExpressionImpl<D> expression) {
+        return new Unary<>(name, expression, switch (name) {
+            case PLUS -> D::identity;
+            case MINUS -> D::negative;
+        });
+    }
+
+    static <D extends Data<D>> Binary<D> binary(BinaryName name, ExpressionImpl<D> expression1, ExpressionImpl<D> expression2) {
+        return new Binary<>(name, expression1, expression2, switch (name) {
+            case ADD -> D::add;
+            case SUBTRACT -> D::subtract;
+            case MULTIPLICATE -> D::multiply;
+            case DIVIDE -> D::divide;
+            case REMAINDER -> D::remainder;
+        });
+    }
+
+    @Override
+    public Set<String> variables() {
+        return expand().variables();
+    }
+
+    @Override
+    public Expression<D> optimize(Optimization optimization) {
+        return expand().optimize(optimization).flatten();
+    }
+
+    @Override
+    public Expression<D> eliminateCommon() {
+        return expand().eliminateCommon().flatten();
+    }
+
+    @Override
+    public Expression<D> flatten() {
+        return this;
+    }
+
+    @Override
+    public Expression<D> instrument(Metrics metrics) {
+        return expand().instrument(metrics);
+    }
+
+    @Override
+    public BoundExpression<D> bind(Slots slots) throws EvalException {
+        return expand().bind(slots);
+    }
+
+    // same as the tree
+    @Override
+    public String toString() {
+        var stack = new ArrayList<String>();
+        var locals = new String[this.locals];
+        var pc = 0;
+        while (pc < code.length) {
+            var opcode = code[pc++];
+            switch (opcode) {
+                case LITERAL -> {
+                    stack.add(String.valueOf(literals[operand(pc)]));
+                    pc += 2;
+                }
+                case VARIABLE -> {
+                    stack.add(names[operand(pc)]);
+                    pc += 2;
+                }
+                case PLUS -> stack.add(UnaryName.PLUS + "(" + pop(stack) + ")");
+                case MINUS -> stack.add(UnaryName.MINUS + "(" + pop(stack) + ")");
+                case ADD, SUBTRACT, MULTIPLICATE, DIVIDE, REMAINDER -> {
+                    var expression2 = pop(stack);
+                    stack.add("(" + pop(stack) + BinaryName.values()[opcode - ADD] + expression2 + ")");
+                }
+                case FUNCTION -> stack.add(functions[code[pc++] & 0xFF] + "(" + pop(stack) + ")");
+                case STORE -> {
+                    locals[operand(pc)] = pop(stack);
+                    pc += 2;
+                }
+                case LOAD -> {
+                    stack.add(locals[operand(pc)]);
+                    pc += 2;
+                }
+                default -> throw new AssertionError("opcode " + opcode);
+            }
+        }
+        return stack.get(0);
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+        if (obj == this) return true;
+        return (obj instanceof Program<?> other)
+            && hash == other.hash
+            && datatype == other.datatype
+            && Arrays.equals(code, other.code)
+            && Arrays.equals(literals, other.literals)
+            && Arrays.equals(names, other.names)
+            && Arrays.equals(functions, other.functions);
+    }
+
+    @Override
+    public int hashCode() {
+        return hash;
+    }
+
+    //----------------------------------------------------------------------------------------------
+
+    // u16 name count, names as u16 length and UTF-8; u16 literal count, literals as doubles;
+    // u8 function count, function ordinals as u8; u32 code length, code
+    int size() {
+        var size = 2 + 2 + 8 * literals.length + 1 + functions.length + 4 + code.length;
+        for (var name : names) {
+            size += 2 + name.getBytes(StandardCharsets.UTF_8).length;
+        }
+        return size;
+    }
+
+    void write(ByteBuffer buffer) {
+        buffer.putShort((short) names.length);
+        for (var name : names) {
+            var bytes = name.getBytes(StandardCharsets.UTF_8);
+            buffer.putShort((short) bytes.length);
+            buffer.put(bytes);
+        }
+        buffer.putShort((short) literals.length);
+        for (var value : doubles) {
+            buffer.putDouble(value);
+        }
+        buffer.put((byte) functions.length);
+        for (var function : functions) {
+            buffer.put((byte) function.ordinal());
+        }
+        buffer.putInt(code.length);
+        buffer.put(code);
+    }
+
+    // the code is verified, malformed input never fails later on evaluation
+    static <D extends Data<D>> Program<D> read(DataType<D> datatype, ByteBuffer buffer) throws ParseException {
+        var start = buffer.position();
+        try {
+            var names = new String[buffer.getShort() & 0xFFFF];
+            for (var i = 0; i < names.length; i++) {
+                names[i] = string(buffer, buffer.getShort() & 0xFFFF);
+            }
+            @SuppressWarnings("unchecked")
+            var literals = (D[]) new Data<?>[buffer.getShort() & 0xFFFF];
+            for (var i = 0; i < literals.length; i++) {
+                literals[i] = datatype.valueOf(buffer.getDouble());
+            }
+            var functions = new FunctionName[buffer.get() & 0xFF];
+            for (var i = 0; i < functions.length; i++) {
+                var ordinal = buffer.get() & 0xFF;
+                if (ordinal >= FunctionName.values().length) {
+                    throw new ParseException("Unknown function: " + ordinal, buffer.position() - 1);
+                }
+                functions[i] = FunctionName.values()[ordinal];
+            }
+            var length = buffer.getInt();
+            if (length < 1 || length > buffer.remaining()) {
+                throw new ParseException("Invalid code length: " + length, buffer.position() - 4);
+            }
+            var code = new byte[length];
+            var offset = buffer.position();
+            buffer.get(code);
+            var program = new Program<>(code, literals, names, functions, functions.length == 0 ? null : datatype, 0, 0);
+            return program.verified(offset);
+        } catch (BufferUnderflowException ex) {
+            throw (ParseException) new ParseException("Truncated expression", start).initCause(ex);
+        }
+    }
+
+    private static String string(ByteBuffer buffer, int length) {
+        if (length > buffer.remaining()) {
+            throw new BufferUnderflowException();
+        }
+        if (buffer.hasArray()) {
+            var string = new String(buffer.array(), buffer.arrayOffset() + buffer.position(), length, StandardCharsets.UTF_8);
+            buffer.position(buffer.position() + length);
+            return string;
+        }
+        var bytes = new byte[length];
+        buffer.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    // copy with stack and locals computed; a store must empty the stack and use the next local
+    private Program<D> verified(int offset) throws ParseException {
+        var depth = 0;
+        var stack = 0;
+        var locals = 0;
+        var pc = 0;
+        while (pc < code.length) {
+            var opcode = code[pc++];
+            var operands = switch (opcode) {
+                case LITERAL, VARIABLE, STORE, LOAD -> 2;
+                case FUNCTION -> 1;
+                default -> 0;
+            };
+            if (pc + operands > code.length) {
+                throw new ParseException("Truncated code", offset + pc - 1);
+            }
+            var operand = operands == 2 ? operand(pc) : operands == 1 ? code[pc] & 0xFF : 0;
+            var pool = switch (opcode) {
+                case LITERAL -> literals.length;
+                case VARIABLE -> names.length;
+                case FUNCTION -> functions.length;
+                case LOAD -> locals;
+                default -> Integer.MAX_VALUE;
+            };
+            if (operand >= pool) {
+                throw new ParseException("Invalid operand " + operand + " of opcode " + opcode, offset + pc);
+            }
+            switch (opcode) {
+                case LITERAL, VARIABLE, LOAD -> depth++;
+                case PLUS, MINUS, FUNCTION -> {
+                    if (depth < 1) throw new ParseException("Stack underflow", offset + pc - 1);
+                }
+                case ADD, SUBTRACT, MULTIPLICATE, DIVIDE, REMAINDER -> {
+                    if (depth < 2) throw new ParseException("Stack underflow", offset + pc - 1);
+                    depth--;
+                }
+                case STORE -> {
+                    if (depth != 1 || operand != locals) {
+                        throw new ParseException("Invalid store " + operand, offset + pc - 1);
+                    }
+                    depth--;
+                    locals++;
+                }
+                default -> throw new ParseException("Unknown opcode: " + opcode, offset + pc - 1);
+            }
+            stack = Math.max(stack, depth);
+            pc += operands;
+        }
+        if (depth != 1) {
+            throw new ParseException("Invalid stack depth at end: " + depth, offset + code.length);
+        }
+        return new Program<>(code, literals, names, functions, datatype, stack, locals);
+    }
+
+    ////////////////////////////////////////////////////////////////////////////////////////////////
+
+    // post-order walk of the tree, pools are deduplicated
+    private static final class Assembler<D extends Data<D>> {
+
+        private final CodeBuffer code = new CodeBuffer();
+        private final List<D> literals = new ArrayList<>();
+        private final Map<D, Integer> literalIndex = new HashMap<>();
+        private final List<String> names = new ArrayList<>();
+        private final Map<String, Integer> nameIndex = new HashMap<>();
+        private final List<FunctionName> functions = new ArrayList<>();
+        private DataType<D> datatype;
+        private int depth;
+        private int stack;
+        private int locals;
+
+        boolean emit(ExpressionImpl<D> expression) {
+            if (expression instanceof Literal<D> literal) {
+                var index = literalIndex.computeIfAbsent(literal.value(), value -> {
+                    literals.add(value);
+                    return literals.size() - 1;
+                });
+                return push() && code.op(LITERAL, index);
+            } else if (expression instanceof Variable<D> variable) {
+                var index = nameIndex.computeIfAbsent(variable.name(), name -> {
+                    names.add(name);
+                    return names.size() - 1;
+                });
+                return push() && code.op(VARIABLE, index);
+            } else if (expression instanceof Unary<D> unary) {
+                if (!emit(unary.expression())) {
+                    return false;
+                }
+                code.add(switch (unary.name()) {
+                    case PLUS -> PLUS;
+                    case MINUS -> MINUS;
+                });
+                return true;
+            } else if (expression instanceof Binary<D> binary) {
+                if (!emit(binary.expression1()) || !emit(binary.expression2())) {
+                    return false;
+                }
+                code.add((byte) (ADD + binary.name().ordinal()));
+                depth--;
+                return true;
+            } else if (expression instanceof FunctionCall<D> call) {
+                if (!emit(call.argument())) {
+                    return false;
+                }
+                if (datatype != null && datatype != call.datatype()) {
+                    return false;
+                }
+                datatype = call.datatype();
+                var index = functions.indexOf(call.name());
+                if (index == -1) {
+                    functions.add(call.name());
+                    index = functions.size() - 1;
+                }
+                code.add(FUNCTION);
+                code.add((byte) index);
+                return index <= MAX_FUNCTIONS;
+            } else if (expression instanceof Let<D> let) {
+                if (locals != 0) {
+                    return false;
+                }
+                locals = let.definitions().size();
+                for (var i = 0; i < locals; i++) {
+                    if (!emit(let.definitions().get(i)) || !code.op(STORE, i)) {
+                        return false;
+                    }
+                    depth--;
+                }
+                return emit(let.body());
+            } else if (expression instanceof Ref<D> ref) {
+                return push() && code.op(LOAD, ref.index());
+            } else {
+                return false;
+            }
+        }
+
+        private boolean push() {
+            stack = Math.max(stack, ++depth);
+            return true;
+        }
+
+        @SuppressWarnings("unchecked")
+        Program<D> program() {
+            return new Program<>(
+                code.toArray(),
+                literals.toArray((D[]) new Data<?>[literals.size()]),
+                names.toArray(String[]::new),
+                functions.toArray(FunctionName[]::new),
+                datatype,
+                stack,
+                locals);
+        }
+    }
+
+    private static final class CodeBuffer {
+
+        private byte[] bytes = new byte[32];
+        private int size;
+
+        void add(byte value) {
+            if (size == bytes.length) {
+                bytes = Arrays.copyOf(bytes, 2 * size);
+            }
+            bytes[size++] = value;
+        }
+
+        boolean op(byte opcode, int operand) {
+            add(opcode);
+            add((byte) (operand >>> 8));
+            add((byte) operand);
+            return operand <= MAX_INDEX;
+        }
+
+        byte[] toArray() {
+            return Arrays.copyOf(bytes, size);
+        }
+    }
+}
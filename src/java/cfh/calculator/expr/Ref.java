@@ -0,0 +1,93 @@
+package cfh.calculator.expr;
+
+import static java.util.Objects.requireNonNull;
+
+import cfh.calculator.data.Data;
+import cfh.calculator.data.Environment;
+import cfh.calculator.data.SlotEnvironment;
+import cfh.calculator.data.Slots;
+
+
+// value of a shared subexpression, already evaluated by the enclosing Let
+final class Ref<D extends Data<D>> extends ExpressionImpl<D> {
+
+    private final int index;
+    private final ExpressionImpl<D> expression;
+    private final Frame frame;
+    private final int hash;
+    
+    // expression is the original subexpression, only used for toString and equals
+    Ref(int index, ExpressionImpl<D> expression, Frame frame) {
+        this.index = index;
+        this.expression = requireNonNull(expression);
+        this.frame = requireNonNull(frame);
+        this.hash = 31 * index + expression.hashCode();
+    }
+    
+    int index() {
+        return index;
+    }
+    
+    ExpressionImpl<D> expression() {
+        return expression;
+    }
+    
+    @Override
+    public D eval(Environment<D> environment) {
+        return value();
+    }
+    
+    @Override
+    public double evalDouble(Environment<D> environment) {
+        return frame.doubles()[index];
+    }
+    
+    @Override
+    ExpressionImpl<D> link(Slots slots) throws EvalException {
+        return new Ref<>(index, expression.link(slots), frame);
+    }
+    
+    @Override
+    D evalSlots(SlotEnvironment<D> environment) {
+        return value();
+    }
+    
+    @Override
+    double evalDoubleSlots(SlotEnvironment<D> environment) {
+        return frame.doubles()[index];
+    }
+    
+    @Override
+    double evalDoubleValues(double[] values) {
+        return frame.doubles()[index];
+    }
+    
+    @Override
+    void evalBatch(Batch batch, double[] out, int offset, int depth) {
+        System.arraycopy(batch.shared(index), 0, out, offset, batch.length());
+    }
+    
+    @SuppressWarnings("unchecked")
+    private D value() {
+        return (D) frame.values()[index];
+    }
+    
+    @Override
+    public String toString() {
+        return expression.toString();
+    }
+    
+    @Override
+    public boolean equals(Object obj) {
+        if (obj == this) return true;
+        return (obj instanceof Ref<?> other) 
+            && hash == other.hash 
+            && index == other.index 
+            && expression.equals(other.expression);
+    }
+    
+    @Override
+    public int hashCode() {
+        return hash;
+    }
+}
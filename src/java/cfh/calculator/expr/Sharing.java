@@ -0,0 +1,135 @@
+package cfh.calculator.expr;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import cfh.calculator.data.Data;
+
+
+// common subexpression elimination: equal subtrees are merged into one instance (DAG) and
+// subtrees used more than once are evaluated once by an enclosing Let
+final class Sharing<D extends Data<D>> {
+
+    static <D extends Data<D>> ExpressionImpl<D> eliminate(ExpressionImpl<D> expression) {
+        if (expression instanceof Let) {
+            return expression;
+        }
+        var shared = eliminate(List.of(expression));
+        var body = shared.bodies().get(0);
+        if (shared.definitions().isEmpty()) {
+            return body;
+        }
+        return new Let<>(shared.definitions(), body, shared.frame());
+    }
+
+    // subexpressions shared across all the expressions, see FormulaSet; Let expressions are inlined first
+    static <D extends Data<D>> Shared<D> eliminate(List<ExpressionImpl<D>> expressions) {
+        var sharing = new Sharing<D>();
+        var inlined = new ArrayList<ExpressionImpl<D>>(expressions.size());
+        for (var expression : expressions) {
+            var expanded = inline(expression);
+            sharing.count(expanded);
+            inlined.add(expanded);
+        }
+        var shared = sharing.uses.entrySet().stream()
+            .filter(entry -> entry.getValue() > 1 && isWorthSharing(entry.getKey()))
+            .count();
+        sharing.frame = new Frame((int) shared);
+        var bodies = new ArrayList<ExpressionImpl<D>>(inlined.size());
+        for (var expression : inlined) {
+            bodies.add(sharing.build(expression));
+        }
+        return new Shared<>(List.copyOf(sharing.definitions), List.copyOf(bodies), sharing.frame);
+    }
+
+    // definitions evaluated in order into the frame before any of the bodies
+    record Shared<D extends Data<D>>(List<ExpressionImpl<D>> definitions, List<ExpressionImpl<D>> bodies, Frame frame) {
+    }
+
+    // the original tree of an eliminated expression
+    private static <D extends Data<D>> ExpressionImpl<D> inline(ExpressionImpl<D> expression) {
+        if (expression instanceof Let<D> let) {
+            return inline(let.body());
+        } else if (expression instanceof Ref<D> ref) {
+            return ref.expression();
+        } else if (expression instanceof Unary<D> unary) {
+            return unary.with(inline(unary.expression()));
+        } else if (expression instanceof Binary<D> binary) {
+            return binary.with(inline(binary.expression1()), inline(binary.expression2()));
+        } else if (expression instanceof FunctionCall<D> call) {
+            return call.with(inline(call.argument()));
+        } else {
+            return expression;
+        }
+    }
+
+    // reading the frame costs about as much as a single operation on leaves
+    private static boolean isWorthSharing(ExpressionImpl<?> expression) {
+        return operations(expression) > 1;
+    }
+
+    private static int operations(ExpressionImpl<?> expression) {
+        if (expression instanceof Unary<?> unary) {
+            return 1 + operations(unary.expression());
+        } else if (expression instanceof Binary<?> binary) {
+            return 1 + operations(binary.expression1()) + operations(binary.expression2());
+        } else if (expression instanceof FunctionCall<?> call) {
+            return 8 + operations(call.argument());
+        } else {
+            return 0;
+        }
+    }
+
+    //==============================================================================================
+
+    // number of distinct parents (edges) of each distinct subexpression
+    private final Map<ExpressionImpl<D>, Integer> uses = new HashMap<>();
+    private final Map<ExpressionImpl<D>, ExpressionImpl<D>> built = new HashMap<>();
+    private final List<ExpressionImpl<D>> definitions = new ArrayList<>();
+    private Frame frame;
+
+    private Sharing() {
+    }
+
+    private void count(ExpressionImpl<D> expression) {
+        if (uses.merge(expression, 1, Integer::sum) > 1) {
+            return;
+        }
+        if (expression instanceof Unary<D> unary) {
+            count(unary.expression());
+        } else if (expression instanceof Binary<D> binary) {
+            count(binary.expression1());
+            count(binary.expression2());
+        } else if (expression instanceof FunctionCall<D> call) {
+            count(call.argument());
+        }
+    }
+
+    // children first, so definitions only refer to previous definitions
+    private ExpressionImpl<D> build(ExpressionImpl<D> expression) {
+        var result = built.get(expression);
+        if (result != null) {
+            return result;
+        }
+        ExpressionImpl<D> rebuilt;
+        if (expression instanceof Unary<D> unary) {
+            rebuilt = unary.with(build(unary.expression()));
+        } else if (expression instanceof Binary<D> binary) {
+            rebuilt = binary.with(build(binary.expression1()), build(binary.expression2()));
+        } else if (expression instanceof FunctionCall<D> call) {
+            rebuilt = call.with(build(call.argument()));
+        } else {
+            rebuilt = expression;
+        }
+        if (uses.get(expression) > 1 && isWorthSharing(expression)) {
+            result = new Ref<>(definitions.size(), expression, frame);
+            definitions.add(rebuilt);
+        } else {
+            result = rebuilt;
+        }
+        built.put(expression, result);
+        return result;
+    }
+}
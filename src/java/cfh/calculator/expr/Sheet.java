@@ -0,0 +1,188 @@
+package cfh.calculator.expr;
+
+import static java.util.Objects.requireNonNull;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import cfh.calculator.Expression;
+import cfh.calculator.data.Data;
+import cfh.calculator.data.Environment;
+
+
+// expressions kept evaluated against an environment: every subexpression caches its value and is
+// only recomputed, on the next read, after a variable it depends on changed; equal subexpressions
+// of different cells are computed once; not thread safe, like Environment
+public final class Sheet<D extends Data<D>> implements AutoCloseable {
+
+    private final Environment<D> environment;
+    private final Environment.Listener listener = this::changed;
+    private final Map<ExpressionImpl<D>, Node<D>> nodes = new HashMap<>();
+    private final Map<String, List<Node<D>>> variables = new HashMap<>();
+    private long recomputations;
+
+    // listens to the environment until closed
+    public Sheet(Environment<D> environment) {
+        this.environment = requireNonNull(environment);
+        environment.addListener(listener);
+    }
+
+    public Cell<D> add(Expression<D> expression) {
+        return new Cell<>(this, node(tree(expression)));
+    }
+
+    // number of subexpressions evaluated so far, cached values not counted
+    public long recomputations() {
+        return recomputations;
+    }
+
+    @Override
+    public void close() {
+        environment.removeListener(listener);
+    }
+
+    //----------------------------------------------------------------------------------------------
+
+    private static <D extends Data<D>> ExpressionImpl<D> tree(Expression<D> expression) {
+        if (expression instanceof ExpressionImpl<D> tree) {
+            return tree;
+        } else if (expression instanceof Program<D> program) {
+            return program.expand();
+        } else if (expression instanceof Bound<D> bound) {
+            return bound.expression();
+        } else {
+            throw new IllegalArgumentException("unsupported expression: " + expression.getClass().getName());
+        }
+    }
+
+    // shared subexpressions are inlined, the sheet shares all equal subexpressions anyway
+    private Node<D> node(ExpressionImpl<D> expression) {
+        if (expression instanceof Let<D> let) {
+            return node(let.body());
+        } else if (expression instanceof Ref<D> ref) {
+            return node(ref.expression());
+        } else if (expression instanceof Probe<D> probe) {
+            return node(probe.expression());
+        }
+        var node = nodes.get(expression);
+        if (node != null) {
+            return node;
+        }
+        List<Node<D>> children;
+        if (expression instanceof Unary<D> unary) {
+            children = List.of(node(unary.expression()));
+        } else if (expression instanceof Binary<D> binary) {
+            children = List.of(node(binary.expression1()), node(binary.expression2()));
+        } else if (expression instanceof FunctionCall<D> call) {
+            children = List.of(node(call.argument()));
+        } else {
+            children = List.of();
+        }
+        node = new Node<>(expression, children);
+        for (var child : children) {
+            child.parents.add(node);
+        }
+        if (expression instanceof Variable<D> variable) {
+            variables.computeIfAbsent(variable.name(), name -> new ArrayList<>()).add(node);
+        }
+        nodes.put(expression, node);
+        return node;
+    }
+
+    // dirty nodes only have dirty ancestors, so marking stops at the first dirty one
+    private void changed(String name) {
+        var dependents = variables.get(name);
+        if (dependents != null) {
+            for (var node : dependents) {
+                invalidate(node);
+            }
+        }
+    }
+
+    private static void invalidate(Node<?> node) {
+        if (!node.dirty) {
+            node.dirty = true;
+            node.value = null;
+            for (var parent : node.parents) {
+                invalidate(parent);
+            }
+        }
+    }
+
+    private D value(Node<D> node) throws EvalException {
+        if (!node.dirty) {
+            return node.value;
+        }
+        var expression = node.expression;
+        D value;
+        if (expression instanceof Literal<D> literal) {
+            value = literal.value();
+        } else if (expression instanceof Variable<D> variable) {
+            value = variable.eval(environment);
+        } else if (expression instanceof Unary<D> unary) {
+            value = unary.apply(value(node.children.get(0)));
+        } else if (expression instanceof Binary<D> binary) {
+            value = binary.apply(value(node.children.get(0)), value(node.children.get(1)));
+        } else if (expression instanceof FunctionCall<D> call) {
+            value = call.apply(value(node.children.get(0)));
+        } else {
+            throw new AssertionError("unexpected node: " + expression.getClass().getName());
+        }
+        recomputations++;
+        node.value = value;
+        node.dirty = false;
+        return value;
+    }
+
+    ////////////////////////////////////////////////////////////////////////////////////////////////
+
+    private static final class Node<D extends Data<D>> {
+
+        final ExpressionImpl<D> expression;
+        final List<Node<D>> children;
+        final List<Node<D>> parents = new ArrayList<>(1);
+        boolean dirty = true;
+        D value;
+
+        Node(ExpressionImpl<D> expression, List<Node<D>> children) {
+            this.expression = expression;
+            this.children = children;
+        }
+    }
+
+    // one expression of the sheet
+    public static final class Cell<D extends Data<D>> {
+
+        private final Sheet<D> sheet;
+        private final Node<D> node;
+
+        private Cell(Sheet<D> sheet, Node<D> node) {
+            this.sheet = sheet;
+            this.node = node;
+        }
+
+        // cached unless a variable it depends on changed since the last read
+        public D value() throws EvalException {
+            return sheet.value(node);
+        }
+
+        public double doubleValue() throws EvalException {
+            return value().doubleValue();
+        }
+
+        public boolean isDirty() {
+            return node.dirty;
+        }
+
+        public Expression<D> expression() {
+            return node.expression;
+        }
+
+        @Override
+        public String toString() {
+            return node.expression.toString();
+        }
+    }
+}
@@ -0,0 +1,258 @@
+package cfh.calculator.expr;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import cfh.calculator.BoundExpression;
+import cfh.calculator.Expression;
+import cfh.calculator.data.Data;
+import cfh.calculator.data.Slots;
+
+
+// evaluates an expression over the cartesian grid of its variables, the first variable is the
+// outermost loop; every subexpression is evaluated in the outermost loop it depends on, the
+// ones without variables once, so only what depends on the innermost variable is evaluated for
+// every point; thread safe, each call uses its own values
+public final class Sweep<D extends Data<D>> {
+
+    public static <D extends Data<D>> Sweep<D> of(Expression<D> expression, String... variables) throws EvalException {
+        return of(expression, List.of(variables));
+    }
+
+    // all variables of the expression must be given, variables not used are just repeated
+    public static <D extends Data<D>> Sweep<D> of(Expression<D> expression, List<String> variables) throws EvalException {
+        if (variables.isEmpty()) {
+            throw new IllegalArgumentException("no variables");
+        }
+        return new Sweep<>(tree(expression), Slots.of(variables));
+    }
+
+    // count values from (inclusive) to (inclusive), evenly spaced
+    public static double[] range(double from, double to, int count) {
+        if (count < 0) {
+            throw new IllegalArgumentException("count: " + count);
+        }
+        var values = new double[count];
+        var step = count > 1 ? (to - from) / (count - 1) : 0;
+        for (var i = 0; i < count; i++) {
+            values[i] = from + i * step;
+        }
+        if (count > 1) {
+            values[count - 1] = to;
+        }
+        return values;
+    }
+
+    private static <D extends Data<D>> ExpressionImpl<D> tree(Expression<D> expression) {
+        if (expression instanceof ExpressionImpl<D> tree) {
+            return tree;
+        } else if (expression instanceof Program<D> program) {
+            return program.expand();
+        } else if (expression instanceof Bound<D> bound) {
+            return bound.expression();
+        } else {
+            throw new IllegalArgumentException("unsupported expression: " + expression.getClass().getName());
+        }
+    }
+
+    //==============================================================================================
+
+    private final Slots variables;
+    private final int slotCount;
+    private final BoundExpression<D>[][] definitions;   // by level + 1, level -1 has no variables
+    private final int[][] targets;                      // slots of the definitions
+    private final BoundExpression<D> body;
+
+    @SuppressWarnings("unchecked")
+    private Sweep(ExpressionImpl<D> expression, Slots variables) throws EvalException {
+        this.variables = variables;
+        var builder = new Builder<D>(variables);
+        var root = builder.hoist(builder.build(expression), variables.size() - 1);
+        var names = new ArrayList<>(variables.names());
+        for (var i = 0; i < builder.count; i++) {
+            names.add("#" + i);
+        }
+        var slots = Slots.of(names);
+        this.slotCount = slots.size();
+        this.definitions = (BoundExpression<D>[][]) new BoundExpression<?>[variables.size() + 1][];
+        this.targets = new int[variables.size() + 1][];
+        for (var level = 0; level < definitions.length; level++) {
+            var hoisted = builder.levels.get(level);
+            definitions[level] = (BoundExpression<D>[]) new BoundExpression<?>[hoisted.size()];
+            targets[level] = new int[hoisted.size()];
+            for (var i = 0; i < hoisted.size(); i++) {
+                definitions[level][i] = hoisted.get(i).tree().bind(slots);
+                targets[level][i] = variables.size() + hoisted.get(i).slot();
+            }
+        }
+        this.body = root.bind(slots);
+    }
+
+    @SuppressWarnings("unchecked")
+    private Sweep(Sweep<D> sweep) {
+        this.variables = sweep.variables;
+        this.slotCount = sweep.slotCount;
+        this.targets = sweep.targets;
+        this.definitions = (BoundExpression<D>[][]) new BoundExpression<?>[sweep.definitions.length][];
+        for (var level = 0; level < definitions.length; level++) {
+            definitions[level] = (BoundExpression<D>[]) new BoundExpression<?>[sweep.definitions[level].length];
+            for (var i = 0; i < definitions[level].length; i++) {
+                definitions[level][i] = sweep.definitions[level][i].compile();
+            }
+        }
+        this.body = sweep.body.compile();
+    }
+
+    // evaluated by generated bytecode, see BoundExpression.compile
+    public Sweep<D> compile() {
+        return new Sweep<>(this);
+    }
+
+    public Slots variables() {
+        return variables;
+    }
+
+    // subexpressions moved out of the innermost loop
+    public int hoisted() {
+        return slotCount - variables.size();
+    }
+
+    // values of each variable, in the order of variables(); the result is indexed like the
+    // row-major array of the grid, the last variable varying fastest
+    public double[] evalDouble(double[]... values) {
+        var size = 1L;
+        for (var axis : values) {
+            size *= axis.length;
+        }
+        if (size > Integer.MAX_VALUE) {
+            throw new IllegalArgumentException("grid too large: " + size + " points");
+        }
+        var out = new double[(int) size];
+        evalDouble(values, out);
+        return out;
+    }
+
+    public void evalDouble(double[][] values, double[] out) {
+        if (values.length != variables.size()) {
+            throw new IllegalArgumentException("expected " + variables.size() + " variables, got " + values.length);
+        }
+        var size = 1L;
+        for (var axis : values) {
+            size *= axis.length;
+        }
+        if (out.length != size) {
+            throw new IllegalArgumentException("expected " + size + " outputs, got " + out.length);
+        }
+        if (size == 0) {
+            return;
+        }
+        var slots = new double[slotCount];
+        define(definitions[0], targets[0], slots);
+        sweep(0, 0, values, slots, out);
+    }
+
+    private int sweep(int level, int index, double[][] values, double[] slots, double[] out) {
+        var axis = values[level];
+        if (level == values.length - 1) {
+            // nothing is hoisted to the innermost level
+            for (var value : axis) {
+                slots[level] = value;
+                out[index++] = body.evalDouble(slots);
+            }
+        } else {
+            var definitions = this.definitions[level + 1];
+            var targets = this.targets[level + 1];
+            for (var value : axis) {
+                slots[level] = value;
+                define(definitions, targets, slots);
+                index = sweep(level + 1, index, values, slots, out);
+            }
+        }
+        return index;
+    }
+
+    private static void define(BoundExpression<?>[] definitions, int[] targets, double[] slots) {
+        for (var i = 0; i < definitions.length; i++) {
+            slots[targets[i]] = definitions[i].evalDouble(slots);
+        }
+    }
+
+    @Override
+    public String toString() {
+        var builder = new StringBuilder();
+        for (var level = 0; level < definitions.length; level++) {
+            builder.append(level == 0 ? "once" : variables.name(level - 1)).append(':');
+            for (var i = 0; i < definitions[level].length; i++) {
+                builder.append(" #").append(targets[level][i] - variables.size()).append('=').append(definitions[level][i]);
+            }
+            builder.append("; ");
+        }
+        return builder.append(variables.name(variables.size() - 1)).append(": ").append(body).toString();
+    }
+
+    ////////////////////////////////////////////////////////////////////////////////////////////////
+
+    // subtree and the innermost variable it depends on, -1 for none
+    private record Node<D extends Data<D>>(ExpressionImpl<D> tree, int level) {
+    }
+
+    private record Definition<D extends Data<D>>(ExpressionImpl<D> tree, int slot) {
+    }
+
+    // children are hoisted before their parents, so definitions only use earlier ones
+    private static final class Builder<D extends Data<D>> {
+
+        private final Slots variables;
+        private final List<List<Definition<D>>> levels = new ArrayList<>();
+        private int count;
+
+        Builder(Slots variables) {
+            this.variables = variables;
+            for (var level = -1; level < variables.size(); level++) {
+                levels.add(new ArrayList<>());
+            }
+        }
+
+        Node<D> build(ExpressionImpl<D> expression) throws EvalException {
+            if (expression instanceof Literal<D>) {
+                return new Node<>(expression, -1);
+            } else if (expression instanceof Variable<D> variable) {
+                var level = variables.indexOf(variable.name());
+                if (level == -1) {
+                    throw MissingVariableException.unknown(variable.name());
+                }
+                return new Node<>(expression, level);
+            } else if (expression instanceof Unary<D> unary) {
+                var child = build(unary.expression());
+                return new Node<>(unary.with(child.tree()), child.level());
+            } else if (expression instanceof FunctionCall<D> call) {
+                var child = build(call.argument());
+                return new Node<>(call.with(child.tree()), child.level());
+            } else if (expression instanceof Binary<D> binary) {
+                var child1 = build(binary.expression1());
+                var child2 = build(binary.expression2());
+                var level = Math.max(child1.level(), child2.level());
+                return new Node<>(binary.with(hoist(child1, level), hoist(child2, level)), level);
+            } else if (expression instanceof Let<D> let) {
+                return build(let.body());
+            } else if (expression instanceof Ref<D> ref) {
+                return build(ref.expression());
+            } else if (expression instanceof Probe<D> probe) {
+                return build(probe.expression());
+            } else {
+                throw new IllegalArgumentException("unsupported node: " + expression.getClass().getName());
+            }
+        }
+
+        // leaves are not worth a slot
+        ExpressionImpl<D> hoist(Node<D> node, int level) {
+            var tree = node.tree();
+            if (node.level() >= level || tree instanceof Literal || tree instanceof Variable) {
+                return tree;
+            }
+            var slot = count++;
+            levels.get(node.level() + 1).add(new Definition<>(tree, slot));
+            return new Variable<>("#" + slot);
+        }
+    }
+}
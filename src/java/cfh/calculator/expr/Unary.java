@@ -6,6 +6,8 @@ import java.util.function.UnaryOperator;
 
 import cfh.calculator.data.Data;
 import cfh.calculator.data.Environment;
+import cfh.calculator.data.SlotEnvironment;
+import cfh.calculator.data.Slots;
 
 
 final class Unary<D extends Data<D>> extends ExpressionImpl<D> {
@@ -13,11 +15,25 @@ final class Unary<D extends Data<D>> extends ExpressionImpl<D> {
     private final UnaryName name;
     private final ExpressionImpl<D> expression;
     private final UnaryOperator<D> function;
+    private final int hash;
 
     Unary(UnaryName name, ExpressionImpl<D> expression, UnaryOperator<D> function) {
         this.name = requireNonNull(name);
         this.expression = requireNonNull(expression);
         this.function = requireNonNull(function);
+        this.hash = 31 * (name.ordinal() + 1) + expression.hashCode();
+    }
+    
+    UnaryName name() {
+        return name;
+    }
+    
+    ExpressionImpl<D> expression() {
+        return expression;
+    }
+    
+    Unary<D> with(ExpressionImpl<D> e) {
+        return e == expression ? this : new Unary<>(name, e, function);
     }
 
     @Override
@@ -25,8 +41,67 @@ final class Unary<D extends Data<D>> extends ExpressionImpl<D> {
         return function.apply(expression.eval(environment));
     }
 
+    @Override
+    public double evalDouble(Environment<D> environment) throws EvalException {
+        return apply(expression.evalDouble(environment));
+    }
+    
+    @Override
+    ExpressionImpl<D> link(Slots slots) throws EvalException {
+        return with(expression.link(slots));
+    }
+    
+    @Override
+    D evalSlots(SlotEnvironment<D> environment) throws EvalException {
+        return function.apply(expression.evalSlots(environment));
+    }
+    
+    @Override
+    double evalDoubleSlots(SlotEnvironment<D> environment) throws EvalException {
+        return apply(expression.evalDoubleSlots(environment));
+    }
+    
+    @Override
+    double evalDoubleValues(double[] values) {
+        return apply(expression.evalDoubleValues(values));
+    }
+    
+    @Override
+    void evalBatch(Batch batch, double[] out, int offset, int depth) {
+        expression.evalBatch(batch, out, offset, depth);
+        if (name == UnaryName.MINUS) {
+            Kernels.INSTANCE.negate(out, offset, batch.length());
+        }
+    }
+    
+    // operation on an already evaluated operand
+    D apply(D value) {
+        return function.apply(value);
+    }
+    
+    private double apply(double value) {
+        return switch (name) {
+            case PLUS -> value;
+            case MINUS -> -value;
+        };
+    }
+
     @Override
     public String toString() {
         return name + "(" + expression + ")";
     }
+    
+    @Override
+    public boolean equals(Object obj) {
+        if (obj == this) return true;
+        return (obj instanceof Unary<?> other) 
+            && hash == other.hash 
+            && name == other.name 
+            && expression.equals(other.expression);
+    }
+    
+    @Override
+    public int hashCode() {
+        return hash;
+    }
 }
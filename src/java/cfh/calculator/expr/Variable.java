@@ -4,26 +4,95 @@ import static java.util.Objects.requireNonNull;
 
 import cfh.calculator.data.Data;
 import cfh.calculator.data.Environment;
+import cfh.calculator.data.SlotEnvironment;
+import cfh.calculator.data.Slots;
 
 
 final class Variable<D extends Data<D>> extends ExpressionImpl<D> {
     
     private final String name;
+    private final int slot;
+    private final int hash;
 
     Variable(String name) {
+        this(name, -1);
+    }
+    
+    private Variable(String name, int slot) {
         this.name = requireNonNull(name);
+        this.slot = slot;
+        this.hash = 31 * name.hashCode() + slot;
+    }
+    
+    String name() {
+        return name;
+    }
+    
+    // -1 if not linked
+    int slot() {
+        return slot;
     }
     
     @Override
     public D eval(Environment<D> environment) throws EvalException {
-        if (!environment.contains(name)) {
-            throw new EvalException("Unknown variable: " + name);
+        var value = environment.get(name);
+        if (value == null) {
+            throw MissingVariableException.unknown(name);
         }
-        return environment.get(name);
+        return value;
+    }
+
+    @Override
+    public double evalDouble(Environment<D> environment) throws EvalException {
+        return eval(environment).doubleValue();
+    }
+    
+    @Override
+    ExpressionImpl<D> link(Slots slots) throws EvalException {
+        var index = slots.indexOf(name);
+        if (index == -1) {
+            throw MissingVariableException.unknown(name);
+        }
+        return new Variable<>(name, index);
+    }
+    
+    @Override
+    D evalSlots(SlotEnvironment<D> environment) throws EvalException {
+        var value = environment.get(slot);
+        if (value == null) {
+            throw MissingVariableException.unset(name);
+        }
+        return value;
+    }
+    
+    @Override
+    double evalDoubleSlots(SlotEnvironment<D> environment) throws EvalException {
+        return evalSlots(environment).doubleValue();
+    }
+    
+    @Override
+    double evalDoubleValues(double[] values) {
+        return values[slot];
+    }
+    
+    @Override
+    void evalBatch(Batch batch, double[] out, int offset, int depth) {
+        batch.read(slot, out, offset);
     }
     
     @Override
     public String toString() {
         return name;
     }
+    
+    @Override
+    public boolean equals(Object obj) {
+        if (obj == this) return true;
+        return (obj instanceof Variable<?> other) && slot == other.slot && name.equals(other.name);
+    }
+    
+    @Override
+    public int hashCode() {
+        return hash;
+    }
 }
@@ -0,0 +1,131 @@
+package cfh.calculator.expr;
+
+import jdk.incubator.vector.DoubleVector;
+import jdk.incubator.vector.VectorOperators;
+import jdk.incubator.vector.VectorSpecies;
+
+
+// only loaded by Kernels if the jdk.incubator.vector module is present
+final class VectorKernels extends Kernels {
+
+    private static final VectorSpecies<Double> SPECIES = DoubleVector.SPECIES_PREFERRED;
+    
+    VectorKernels() {
+    }
+    
+    @Override
+    boolean isVectorized() {
+        return true;
+    }
+    
+    @Override
+    void binary(BinaryName name, double[] out, int offset, double[] operand, int length) {
+        switch (name) {
+            case ADD -> binary(VectorOperators.ADD, out, offset, operand, length);
+            case SUBTRACT -> binary(VectorOperators.SUB, out, offset, operand, length);
+            case MULTIPLICATE -> binary(VectorOperators.MUL, out, offset, operand, length);
+            case DIVIDE -> binary(VectorOperators.DIV, out, offset, operand, length);
+            // no floating point remainder in the vector API
+            case REMAINDER -> super.binary(name, out, offset, operand, length);
+        }
+    }
+    
+    @Override
+    void negate(double[] out, int offset, int length) {
+        unary(VectorOperators.NEG, out, offset, length);
+    }
+    
+    // vector SIN and COS are within 1 ulp like Math, but not necessarily the same value
+    @Override
+    boolean function(FunctionName name, double[] out, int offset, int length) {
+        switch (name) {
+            case SQRT -> unary(VectorOperators.SQRT, out, offset, length);
+            case SIN -> unary(VectorOperators.SIN, out, offset, length);
+            case COS -> unary(VectorOperators.COS, out, offset, length);
+        }
+        return true;
+    }
+    
+    @Override
+    boolean fastFunction(FunctionName name, double[] out, int offset, int length) {
+        switch (name) {
+            case SQRT -> unary(VectorOperators.SQRT, out, offset, length);
+            case SIN -> fastSin(out, offset, length, false);
+            case COS -> fastSin(out, offset, length, true);
+        }
+        return true;
+    }
+    
+    //----------------------------------------------------------------------------------------------
+    
+    // operator must be a constant at the call site for the JIT to use vector instructions
+    private static void binary(VectorOperators.Binary operator, double[] out, int offset, double[] operand, int length) {
+        var step = SPECIES.length();
+        var bound = SPECIES.loopBound(length);
+        var i = 0;
+        for (; i < bound; i += step) {
+            var value = DoubleVector.fromArray(SPECIES, out, offset + i);
+            value.lanewise(operator, DoubleVector.fromArray(SPECIES, operand, i)).intoArray(out, offset + i);
+        }
+        if (i < length) {
+            var mask = SPECIES.indexInRange(i, length);
+            var value = DoubleVector.fromArray(SPECIES, out, offset + i, mask);
+            value.lanewise(operator, DoubleVector.fromArray(SPECIES, operand, i, mask)).intoArray(out, offset + i, mask);
+        }
+    }
+    
+    private static void unary(VectorOperators.Unary operator, double[] out, int offset, int length) {
+        var step = SPECIES.length();
+        var bound = SPECIES.loopBound(length);
+        var i = 0;
+        for (; i < bound; i += step) {
+            DoubleVector.fromArray(SPECIES, out, offset + i).lanewise(operator).intoArray(out, offset + i);
+        }
+        if (i < length) {
+            var mask = SPECIES.indexInRange(i, length);
+            DoubleVector.fromArray(SPECIES, out, offset + i, mask).lanewise(operator).intoArray(out, offset + i, mask);
+        }
+    }
+    
+    // FastMath.sin and FastMath.cos lane by lane, vectors with an argument out of range are left to FastMath
+    private static void fastSin(double[] out, int offset, int length, boolean cos) {
+        var step = SPECIES.length();
+        var bound = SPECIES.loopBound(length);
+        var i = 0;
+        for (; i < bound; i += step) {
+            var x = DoubleVector.fromArray(SPECIES, out, offset + i);
+            if (x.abs().compare(VectorOperators.LE, FastMath.REDUCE_LIMIT).allTrue()) {
+                fastSin(x, cos).intoArray(out, offset + i);
+            } else {
+                for (var j = offset + i; j < offset + i + step; j++) {
+                    out[j] = cos ? FastMath.cos(out[j]) : FastMath.sin(out[j]);
+                }
+            }
+        }
+        for (var j = offset + i; j < offset + length; j++) {
+            out[j] = cos ? FastMath.cos(out[j]) : FastMath.sin(out[j]);
+        }
+    }
+    
+    private static DoubleVector fastSin(DoubleVector x, boolean cos) {
+        var scaled = x.mul(FastMath.INV_PI);
+        var rounded = (cos ? scaled.add(0.5) : scaled).add(FastMath.ROUND);
+        var n = rounded.sub(FastMath.ROUND);
+        var m = cos ? n.mul(2.0).sub(1.0) : n.mul(2.0);
+        var r = x.sub(m.mul(FastMath.PIO2_1)).sub(m.mul(FastMath.PIO2_2)).sub(m.mul(FastMath.PIO2_3))
+            .sub(m.mul(FastMath.PIO2_3T));
+        var z = r.mul(r);
+        var p = z.mul(FastMath.S21).add(FastMath.S19);
+        p = z.mul(p).add(FastMath.S17);
+        p = z.mul(p).add(FastMath.S15);
+        p = z.mul(p).add(FastMath.S13);
+        p = z.mul(p).add(FastMath.S11);
+        p = z.mul(p).add(FastMath.S9);
+        p = z.mul(p).add(FastMath.S7);
+        p = z.mul(p).add(FastMath.S5);
+        p = z.mul(p).add(FastMath.S3);
+        p = z.mul(p).add(1.0);
+        var sign = rounded.reinterpretAsLongs().lanewise(VectorOperators.LSHL, 63);
+        return r.mul(p).reinterpretAsLongs().lanewise(VectorOperators.XOR, sign).reinterpretAsDoubles();
+    }
+}
@@ -0,0 +1,207 @@
+package cfh.calculator.io;
+
+import static java.util.Objects.requireNonNull;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.text.ParseException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicLong;
+
+import cfh.calculator.Expression;
+import cfh.calculator.data.Data;
+import cfh.calculator.data.DataType;
+import cfh.calculator.expr.Parser;
+
+
+// parses catalogs of formulas, one per line, on a pool of threads; blank lines are allowed;
+// the reader waits while too many lines are not parsed yet, so memory use only grows with the
+// results; progress can be read from any thread while loading
+public final class CatalogLoader<D extends Data<D>> {
+
+    private static final int BATCH = 1024;
+
+    private final DataType<D> datatype;
+    private final int threads;
+
+    private final AtomicLong lines = new AtomicLong();
+    private final AtomicLong parsed = new AtomicLong();
+    private final AtomicLong failed = new AtomicLong();
+    private volatile long start;
+    private volatile long end;
+
+    public CatalogLoader(DataType<D> datatype, int threads) {
+        if (threads < 1) {
+            throw new IllegalArgumentException("threads: " + threads);
+        }
+        this.datatype = requireNonNull(datatype);
+        this.threads = threads;
+    }
+
+    public Catalog<D> load(Path file) throws IOException {
+        try (var reader = Files.newBufferedReader(file, StandardCharsets.UTF_8)) {
+            return load(reader);
+        }
+    }
+
+    // results in input order, not failing on the first invalid formula
+    public Catalog<D> load(BufferedReader reader) throws IOException {
+        lines.set(0);
+        parsed.set(0);
+        failed.set(0);
+        start = System.nanoTime();
+        end = 0;
+        var pool = Executors.newFixedThreadPool(threads, task -> {
+            var thread = new Thread(task, "catalog-loader");
+            thread.setDaemon(true);
+            return thread;
+        });
+        try {
+            return load(reader, pool);
+        } finally {
+            pool.shutdownNow();
+            end = System.nanoTime();
+        }
+    }
+
+    private Catalog<D> load(BufferedReader reader, ExecutorService pool) throws IOException {
+        var expressions = new ArrayList<Expression<D>>();
+        var failures = new ArrayList<Failure>();
+        var pending = new ArrayDeque<Future<Batch<D>>>();
+        var number = 0L;
+        for (;;) {
+            var texts = new ArrayList<String>(BATCH);
+            var first = number + 1;
+            String line;
+            while (texts.size() < BATCH && (line = reader.readLine()) != null) {
+                texts.add(line);
+                number++;
+            }
+            lines.set(number);
+            if (texts.isEmpty()) {
+                break;
+            }
+            if (pending.size() == 2 * threads) {
+                collect(pending.remove(), expressions, failures);
+            }
+            pending.add(pool.submit(() -> parse(first, texts)));
+        }
+        while (!pending.isEmpty()) {
+            collect(pending.remove(), expressions, failures);
+        }
+        return new Catalog<>(expressions, failures);
+    }
+
+    private static <D extends Data<D>> void collect(Future<Batch<D>> future, List<Expression<D>> expressions, List<Failure> failures)
+    throws IOException {
+        try {
+            var batch = future.get();
+            expressions.addAll(batch.expressions);
+            failures.addAll(batch.failures);
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw (IOException) new InterruptedIOException("interrupted while loading").initCause(ex);
+        } catch (ExecutionException ex) {
+            throw new IOException("parser failed", ex.getCause());
+        }
+    }
+
+    private Batch<D> parse(long first, List<String> texts) {
+        var parser = new Parser<>(datatype);
+        var batch = new Batch<D>(texts.size());
+        for (var i = 0; i < texts.size(); i++) {
+            var text = texts.get(i);
+            Expression<D> expression = null;
+            if (!text.isBlank()) {
+                try {
+                    expression = parser.parse(text);
+                    parsed.incrementAndGet();
+                } catch (ParseException ex) {
+                    batch.failures.add(new Failure(first + i, ex.getErrorOffset(), ex.getMessage()));
+                    failed.incrementAndGet();
+                }
+            }
+            batch.expressions.add(expression);
+        }
+        return batch;
+    }
+
+    // of the running or last load
+    public Progress progress() {
+        var end = this.end;
+        var nanos = (end == 0 ? System.nanoTime() : end) - start;
+        return new Progress(lines.get(), parsed.get(), failed.get(), start == 0 ? 0 : nanos);
+    }
+
+    ////////////////////////////////////////////////////////////////////////////////////////////////
+
+    private static final class Batch<D extends Data<D>> {
+
+        final List<Expression<D>> expressions;
+        final List<Failure> failures = new ArrayList<>(0);
+
+        Batch(int size) {
+            expressions = new ArrayList<>(size);
+        }
+    }
+
+    // the formula of each line and the invalid ones
+    public static final class Catalog<D extends Data<D>> {
+
+        private final List<Expression<D>> expressions;
+        private final List<Failure> failures;
+        private final int count;
+
+        private Catalog(List<Expression<D>> expressions, List<Failure> failures) {
+            this.expressions = Collections.unmodifiableList(expressions);
+            this.failures = Collections.unmodifiableList(failures);
+            this.count = expressions.size() - (int) expressions.stream().filter(Objects::isNull).count();
+        }
+
+        // one per line, index 0 is line 1; null for blank and invalid lines
+        public List<Expression<D>> expressions() {
+            return expressions;
+        }
+
+        // the valid formulas
+        public int count() {
+            return count;
+        }
+
+        public List<Failure> failures() {
+            return failures;
+        }
+
+        @Override
+        public String toString() {
+            return count + " formulas, " + failures.size() + " failures";
+        }
+    }
+
+    // line counted from 1, offset in the line
+    public record Failure(long line, int offset, String message) {
+        @Override
+        public String toString() {
+            return "line " + line + ", offset " + offset + ": " + message;
+        }
+    }
+
+    // lines read so far, the formulas parsed and failed of them
+    public record Progress(long lines, long parsed, long failed, long nanos) {
+        public double formulasPerSecond() {
+            return nanos == 0 ? 0 : (parsed + failed) * 1e9 / nanos;
+        }
+    }
+}
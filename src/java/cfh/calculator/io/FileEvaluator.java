@@ -0,0 +1,234 @@
+package cfh.calculator.io;
+
+import static java.nio.file.StandardOpenOption.*;
+import static java.util.Objects.requireNonNull;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+import cfh.calculator.BoundExpression;
+import cfh.calculator.Expression;
+import cfh.calculator.data.Column;
+import cfh.calculator.data.DoubleData;
+import cfh.calculator.data.Slots;
+import cfh.calculator.expr.EvalException;
+
+
+// evaluates an expression for every row of a file, reading it through memory mapped windows so
+// memory use does not depend on the file size; only the columns used by the expression are parsed
+public final class FileEvaluator {
+
+    private static final int CHUNK = 4096;
+    private static final long WINDOW = 64L << 20;
+
+    // comma separated values with a header line naming the columns; one result per output line
+    public static long evalCsv(Expression<DoubleData> expression, Path input, Path output) throws IOException, EvalException {
+        return evalCsv(expression, input, output, WINDOW);
+    }
+    
+    static long evalCsv(Expression<DoubleData> expression, Path input, Path output, long window) throws IOException, EvalException {
+        try (var channel = FileChannel.open(input, READ);
+             var writer = Files.newBufferedWriter(output, StandardCharsets.US_ASCII)) {
+            return new Csv(channel, window).eval(expression, writer);
+        }
+    }
+
+    // rows of doubles, one for each column, in the given byte order; results written the same way;
+    // both files are mapped and evaluated in place, window by window
+    public static long evalBinary(Expression<DoubleData> expression, List<String> columns, ByteOrder order, Path input, Path output)
+    throws IOException, EvalException {
+        requireNonNull(order);
+        var bound = bind(expression, columns);
+        var recordSize = 8L * columns.size();
+        var fields = fields(bound.slots(), columns);
+        try (var in = FileChannel.open(input, READ);
+             var out = FileChannel.open(output, READ, WRITE, CREATE, TRUNCATE_EXISTING)) {
+            var size = in.size();
+            if (recordSize == 0 || size % recordSize != 0) {
+                throw new IOException("file size " + size + " is not a multiple of the record size " + recordSize);
+            }
+            var rows = size / recordSize;
+            var values = new Column[bound.slots().size()];
+            var windowRows = Math.max(1, WINDOW / recordSize);
+            for (var first = 0L; first < rows; first += windowRows) {
+                var count = (int) Math.min(windowRows, rows - first);
+                var window = in.map(FileChannel.MapMode.READ_ONLY, first * recordSize, count * recordSize);
+                for (var column = 0; column < fields.length; column++) {
+                    if (fields[column] != -1) {
+                        values[fields[column]] = Column.of(window, 8 * column, (int) recordSize, count, order);
+                    }
+                }
+                var results = out.map(FileChannel.MapMode.READ_WRITE, 8 * first, 8L * count);
+                bound.evalBatch(values, 0, count, Column.of(results, 0, 8, count, order));
+            }
+            return rows;
+        }
+    }
+
+    //----------------------------------------------------------------------------------------------
+
+    // bound to the used columns only, in column order; unknown variables reported here
+    private static BoundExpression<DoubleData> bind(Expression<DoubleData> expression, List<String> columns) throws EvalException {
+        var variables = expression.variables();
+        for (var variable : variables) {
+            if (!columns.contains(variable)) {
+                throw new EvalException("Unknown variable: " + variable);
+            }
+        }
+        var used = new ArrayList<String>();
+        for (var column : columns) {
+            if (variables.contains(column) && !used.contains(column)) {
+                used.add(column);
+            }
+        }
+        return expression.bind(Slots.of(used));
+    }
+
+    // slot of each column, -1 if not used
+    private static int[] fields(Slots slots, List<String> columns) {
+        var fields = new int[columns.size()];
+        for (var i = 0; i < fields.length; i++) {
+            fields[i] = slots.indexOf(columns.get(i));
+        }
+        return fields;
+    }
+
+    private FileEvaluator() {
+    }
+
+    ////////////////////////////////////////////////////////////////////////////////////////////////
+
+    private static final class Csv {
+
+        private final FileChannel channel;
+        private final long size;
+        private final long windowSize;
+
+        private MappedByteBuffer window;
+        private long base;      // file position of the window
+        private int position;   // in the window
+        private long line;
+
+        Csv(FileChannel channel, long windowSize) throws IOException {
+            this.channel = channel;
+            this.size = channel.size();
+            this.windowSize = windowSize;
+        }
+
+        long eval(Expression<DoubleData> expression, BufferedWriter writer) throws IOException, EvalException {
+            map(0);
+            var header = nextLine();
+            if (header == -1) {
+                throw new IOException("missing header line");
+            }
+            var columns = header(header);
+            var bound = bind(expression, columns);
+            var fields = fields(bound.slots(), columns);
+            var values = new double[bound.slots().size()][CHUNK];
+            var results = new double[CHUNK];
+            var rows = 0L;
+            var length = 0;
+            int end;
+            while ((end = nextLine()) != -1) {
+                if (end == position || (end == position + 1 && window.get(position) == '\r')) {
+                    position = end + 1;
+                    continue;
+                }
+                row(fields, values, length, end);
+                if (++length == CHUNK) {
+                    write(bound, values, length, results, writer);
+                    rows += length;
+                    length = 0;
+                }
+            }
+            if (length > 0) {
+                write(bound, values, length, results, writer);
+                rows += length;
+            }
+            return rows;
+        }
+
+        private List<String> header(int end) {
+            var bytes = new byte[end - position];
+            window.get(position, bytes);
+            position = end + 1;
+            var columns = new ArrayList<String>();
+            for (var name : new String(bytes, StandardCharsets.UTF_8).split(",", -1)) {
+                columns.add(name.strip());
+            }
+            return columns;
+        }
+
+        private void row(int[] fields, double[][] values, int row, int end) throws IOException {
+            var start = position;
+            for (var column = 0; column < fields.length; column++) {
+                var next = start;
+                while (next < end && window.get(next) != ',') {
+                    next++;
+                }
+                if (next == end && column < fields.length - 1) {
+                    throw new IOException("line " + line + ": expected " + fields.length + " fields, got " + (column + 1));
+                }
+                if (fields[column] != -1) {
+                    try {
+                        values[fields[column]][row] = Numbers.parse(window, start, next);
+                    } catch (NumberFormatException ex) {
+                        throw new IOException("line " + line + ": invalid number in column " + (column + 1), ex);
+                    }
+                }
+                start = next + 1;
+            }
+            if (start <= end) {
+                throw new IOException("line " + line + ": more than " + fields.length + " fields");
+            }
+            position = end + 1;
+        }
+
+        private static void write(BoundExpression<DoubleData> bound, double[][] values, int length, double[] results, BufferedWriter writer)
+        throws IOException {
+            bound.evalBatch(values, 0, length, results);
+            for (var i = 0; i < length; i++) {
+                writer.write(Double.toString(results[i]));
+                writer.newLine();
+            }
+        }
+
+        // end of the line starting at position (index of '\n' or of the end of file), -1 at end of file
+        private int nextLine() throws IOException {
+            for (;;) {
+                var limit = window.limit();
+                for (var i = position; i < limit; i++) {
+                    if (window.get(i) == '\n') {
+                        line++;
+                        return i;
+                    }
+                }
+                if (base + limit == size) {
+                    if (position >= limit) {
+                        return -1;
+                    }
+                    line++;
+                    return limit;
+                }
+                if (position == 0) {
+                    throw new IOException("line " + (line + 1) + " longer than " + windowSize + " bytes");
+                }
+                map(base + position);
+            }
+        }
+
+        private void map(long start) throws IOException {
+            base = start;
+            position = 0;
+            window = channel.map(FileChannel.MapMode.READ_ONLY, start, Math.min(windowSize, size - start));
+        }
+    }
+}
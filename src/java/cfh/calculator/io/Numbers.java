@@ -0,0 +1,56 @@
+package cfh.calculator.io;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+import cfh.calculator.data.Decimals;
+
+
+// parses decimal numbers directly from bytes, without creating a String in the common case
+final class Numbers {
+
+    // bytes from (inclusive) to (exclusive), surrounding spaces ignored, empty is NaN
+    static double parse(ByteBuffer buffer, int from, int to) {
+        while (from < to && buffer.get(from) == ' ') {
+            from++;
+        }
+        while (to > from && (buffer.get(to - 1) == ' ' || buffer.get(to - 1) == '\r')) {
+            to--;
+        }
+        if (from == to) {
+            return Double.NaN;
+        }
+        return Decimals.parse(new Latin1(buffer), from, to);
+    }
+    
+    private Numbers() {
+    }
+    
+    ////////////////////////////////////////////////////////////////////////////////////////////////
+    
+    // the bytes of the buffer as characters, indexed like the buffer
+    private record Latin1(ByteBuffer buffer) implements CharSequence {
+        
+        @Override
+        public int length() {
+            return buffer.limit();
+        }
+        
+        @Override
+        public char charAt(int index) {
+            return (char) (buffer.get(index) & 0xFF);
+        }
+        
+        @Override
+        public CharSequence subSequence(int start, int end) {
+            var bytes = new byte[end - start];
+            buffer.get(start, bytes);
+            return new String(bytes, StandardCharsets.ISO_8859_1);
+        }
+        
+        @Override
+        public String toString() {
+            return subSequence(0, length()).toString();
+        }
+    }
+}
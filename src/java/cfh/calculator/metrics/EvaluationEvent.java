@@ -0,0 +1,30 @@
+package cfh.calculator.metrics;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.EventType;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+
+// evaluation of an instrumented expression
+@Name("cfh.calculator.Evaluation")
+@Label("Expression Evaluation")
+@Category("Calculator")
+@Description("Evaluation of an instrumented expression")
+public final class EvaluationEvent extends Event {
+
+    private static final EventType TYPE = EventType.getEventType(EvaluationEvent.class);
+
+    // whether a running recording wants this event, checked before creating one
+    public static boolean enabled() {
+        return TYPE.isEnabled();
+    }
+
+    @Label("Expression")
+    public String expression;
+
+    public EvaluationEvent() {
+    }
+}
@@ -0,0 +1,20 @@
+package cfh.calculator.metrics;
+
+
+// global instrumentation settings
+public final class Instrumentation {
+
+    private static volatile Metrics parseMetrics;
+
+    // receives the parse time of every parsed text; null, the default, for none
+    public static void setParseMetrics(Metrics metrics) {
+        parseMetrics = metrics;
+    }
+
+    public static Metrics parseMetrics() {
+        return parseMetrics;
+    }
+
+    private Instrumentation() {
+    }
+}
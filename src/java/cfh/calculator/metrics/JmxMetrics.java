@@ -0,0 +1,201 @@
+package cfh.calculator.metrics;
+
+import static java.util.Objects.requireNonNull;
+
+import java.lang.management.ManagementFactory;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+import javax.management.InstanceAlreadyExistsException;
+import javax.management.JMException;
+import javax.management.ObjectName;
+
+import cfh.calculator.expr.FunctionName;
+
+
+// metrics accumulated in counters, readable as MXBean; at most maxKeys node texts and variable
+// names are kept each, until reset, the ones seen later are counted together under OTHER
+public final class JmxMetrics implements Metrics, JmxMetricsMXBean {
+
+    public static final String OBJECT_NAME = "cfh.calculator:type=Metrics";
+
+    public static final int DEFAULT_MAX_KEYS = 10_000;
+    public static final String OTHER = "(other)";
+
+    private static final int BUCKETS = 32;
+
+    // registered with the platform MBean server on first use
+    public static JmxMetrics platform() {
+        return Platform.INSTANCE;
+    }
+
+    //==============================================================================================
+
+    private final Map<String, Counter> nodes = new ConcurrentHashMap<>();
+    private final Counter[] functions = new Counter[FunctionName.values().length];
+    private final Map<String, LongAdder> variables = new ConcurrentHashMap<>();
+    private final LongAdder parseFailures = new LongAdder();
+    private final LongAdder[] parseHistogram = new LongAdder[BUCKETS];
+    private final int maxKeys;
+
+    public JmxMetrics() {
+        this(DEFAULT_MAX_KEYS);
+    }
+
+    public JmxMetrics(int maxKeys) {
+        if (maxKeys < 1) {
+            throw new IllegalArgumentException("maxKeys: " + maxKeys);
+        }
+        this.maxKeys = maxKeys;
+        for (var i = 0; i < functions.length; i++) {
+            functions[i] = new Counter();
+        }
+        for (var i = 0; i < BUCKETS; i++) {
+            parseHistogram[i] = new LongAdder();
+        }
+    }
+
+    public void register(ObjectName name) throws JMException {
+        ManagementFactory.getPlatformMBeanServer().registerMBean(this, requireNonNull(name));
+    }
+
+    @Override
+    public void nodeEvaluated(String node, long nanos) {
+        var counter = nodes.get(node);
+        if (counter == null) {
+            counter = nodes.computeIfAbsent(nodes.size() < maxKeys ? node : OTHER, key -> new Counter());
+        }
+        counter.add(nanos);
+    }
+
+    @Override
+    public void functionCalled(FunctionName function, long nanos) {
+        functions[function.ordinal()].add(nanos);
+    }
+
+    @Override
+    public void variableRead(String variable) {
+        var count = variables.get(variable);
+        if (count == null) {
+            count = variables.computeIfAbsent(variables.size() < maxKeys ? variable : OTHER, key -> new LongAdder());
+        }
+        count.increment();
+    }
+
+    @Override
+    public void textParsed(int length, long nanos, boolean failed) {
+        if (failed) {
+            parseFailures.increment();
+        }
+        var micros = Math.max(0, nanos / 1000);
+        parseHistogram[Math.min(BUCKETS - 1, 64 - Long.numberOfLeadingZeros(micros))].increment();
+    }
+
+    //----------------------------------------------------------------------------------------------
+
+    @Override
+    public Map<String, Long> getNodeCounts() {
+        var counts = new TreeMap<String, Long>();
+        nodes.forEach((node, counter) -> counts.put(node, counter.count.sum()));
+        return counts;
+    }
+
+    @Override
+    public Map<String, Long> getNodeNanos() {
+        var nanos = new TreeMap<String, Long>();
+        nodes.forEach((node, counter) -> nanos.put(node, counter.nanos.sum()));
+        return nanos;
+    }
+
+    @Override
+    public Map<String, Long> getFunctionCounts() {
+        var counts = new TreeMap<String, Long>();
+        for (var function : FunctionName.values()) {
+            counts.put(function.toString(), functions[function.ordinal()].count.sum());
+        }
+        return counts;
+    }
+
+    @Override
+    public Map<String, Long> getFunctionNanos() {
+        var nanos = new TreeMap<String, Long>();
+        for (var function : FunctionName.values()) {
+            nanos.put(function.toString(), functions[function.ordinal()].nanos.sum());
+        }
+        return nanos;
+    }
+
+    @Override
+    public Map<String, Long> getVariableReads() {
+        var reads = new TreeMap<String, Long>();
+        variables.forEach((variable, count) -> reads.put(variable, count.sum()));
+        return reads;
+    }
+
+    @Override
+    public long getParseCount() {
+        var count = 0L;
+        for (var bucket : parseHistogram) {
+            count += bucket.sum();
+        }
+        return count;
+    }
+
+    @Override
+    public long getParseFailures() {
+        return parseFailures.sum();
+    }
+
+    @Override
+    public long[] getParseHistogram() {
+        var histogram = new long[BUCKETS];
+        for (var i = 0; i < BUCKETS; i++) {
+            histogram[i] = parseHistogram[i].sum();
+        }
+        return histogram;
+    }
+
+    @Override
+    public void reset() {
+        nodes.clear();
+        for (var function : functions) {
+            function.count.reset();
+            function.nanos.reset();
+        }
+        variables.clear();
+        parseFailures.reset();
+        for (var bucket : parseHistogram) {
+            bucket.reset();
+        }
+    }
+
+    ////////////////////////////////////////////////////////////////////////////////////////////////
+
+    private static final class Counter {
+
+        final LongAdder count = new LongAdder();
+        final LongAdder nanos = new LongAdder();
+
+        void add(long nanos) {
+            count.increment();
+            this.nanos.add(nanos);
+        }
+    }
+
+    private static final class Platform {
+
+        static final JmxMetrics INSTANCE = new JmxMetrics();
+
+        static {
+            try {
+                INSTANCE.register(new ObjectName(OBJECT_NAME));
+            } catch (InstanceAlreadyExistsException ex) {
+                // registered by another class loader, this instance only collects
+            } catch (JMException ex) {
+                throw new IllegalStateException("registering " + OBJECT_NAME, ex);
+            }
+        }
+    }
+}
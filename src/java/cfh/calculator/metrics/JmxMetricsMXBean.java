@@ -0,0 +1,27 @@
+package cfh.calculator.metrics;
+
+import java.util.Map;
+
+
+// attributes of JmxMetrics, keyed by node text, function or variable name
+public interface JmxMetricsMXBean {
+
+    Map<String, Long> getNodeCounts();
+
+    Map<String, Long> getNodeNanos();
+
+    Map<String, Long> getFunctionCounts();
+
+    Map<String, Long> getFunctionNanos();
+
+    Map<String, Long> getVariableReads();
+
+    long getParseCount();
+
+    long getParseFailures();
+
+    // element i counts the parses that took less than 2^i microseconds (and not less than 2^(i-1))
+    long[] getParseHistogram();
+
+    void reset();
+}
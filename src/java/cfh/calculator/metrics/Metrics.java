@@ -0,0 +1,19 @@
+package cfh.calculator.metrics;
+
+import cfh.calculator.expr.FunctionName;
+
+
+// receiver of instrumentation data, see Expression.instrument and Instrumentation.setParseMetrics;
+// called concurrently by all evaluating threads
+public interface Metrics {
+
+    // one evaluation of an instrumented node, nanos including its children
+    void nodeEvaluated(String node, long nanos);
+
+    // one evaluation of a function call, nanos including its argument
+    void functionCalled(FunctionName function, long nanos);
+
+    void variableRead(String variable);
+
+    void textParsed(int length, long nanos, boolean failed);
+}
@@ -0,0 +1,33 @@
+package cfh.calculator.metrics;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.EventType;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+
+// parsing of an expression text
+@Name("cfh.calculator.Parse")
+@Label("Expression Parse")
+@Category("Calculator")
+@Description("Parsing of an expression text")
+public final class ParseEvent extends Event {
+
+    private static final EventType TYPE = EventType.getEventType(ParseEvent.class);
+
+    // whether a running recording wants this event, checked before creating one
+    public static boolean enabled() {
+        return TYPE.isEnabled();
+    }
+
+    @Label("Length")
+    public int length;
+
+    @Label("Failed")
+    public boolean failed;
+
+    public ParseEvent() {
+    }
+}
@@ -0,0 +1,152 @@
+package cfh.calculator.server;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+
+// blocking client of an EvalServer, not thread safe
+public final class EvalClient implements AutoCloseable {
+
+    // requests sent ahead of the responses read by evalAll
+    private static final int WINDOW = 256;
+
+    public static EvalClient connect(InetSocketAddress address) throws IOException {
+        var socket = new Socket();
+        try {
+            socket.setTcpNoDelay(true);
+            socket.connect(address);
+            return new EvalClient(socket);
+        } catch (IOException ex) {
+            socket.close();
+            throw ex;
+        }
+    }
+
+    //==============================================================================================
+
+    private final Socket socket;
+    private final DataInputStream in;
+    private final DataOutputStream out;
+    private int nextRequest;
+
+    private EvalClient(Socket socket) throws IOException {
+        this.socket = socket;
+        this.in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+        this.out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+    }
+
+    public Formula define(String text) throws IOException {
+        var bytes = text.getBytes(StandardCharsets.UTF_8);
+        var request = header(Protocol.DEFINE, bytes.length);
+        out.write(bytes);
+        out.flush();
+        var length = response(request);
+        var id = in.readInt();
+        var variables = new ArrayList<String>();
+        for (var count = in.readUnsignedShort(); count > 0; count--) {
+            var name = new byte[in.readUnsignedShort()];
+            in.readFully(name);
+            variables.add(new String(name, StandardCharsets.UTF_8));
+        }
+        assert length == 4 + 2 + variables.stream().mapToInt(name -> 2 + name.length()).sum();
+        return new Formula(id, List.copyOf(variables));
+    }
+
+    public double eval(int formula, double... values) throws IOException {
+        var request = send(formula, values);
+        out.flush();
+        response(request);
+        return in.readDouble();
+    }
+
+    // one request for each row, pipelined; after an error response no more rows are sent, the
+    // responses to those already sent are read and the first error is thrown, so the client can
+    // still be used
+    public double[] evalAll(int formula, double[][] rows) throws IOException {
+        var results = new double[rows.length];
+        var first = nextRequest;
+        var sent = 0;
+        ErrorResponse error = null;
+        for (var received = 0; received < rows.length; received++) {
+            while (error == null && sent < rows.length && sent - received < WINDOW) {
+                send(formula, rows[sent++]);
+            }
+            if (received == sent) {
+                break;
+            }
+            out.flush();
+            try {
+                response(first + received);
+                results[received] = in.readDouble();
+            } catch (ErrorResponse ex) {
+                if (error == null) {
+                    error = ex;
+                }
+            }
+        }
+        if (error != null) {
+            throw error;
+        }
+        return results;
+    }
+
+    private int send(int formula, double[] values) throws IOException {
+        var request = header(Protocol.EVAL, 4 + 8 * values.length);
+        out.writeInt(formula);
+        for (var value : values) {
+            out.writeDouble(value);
+        }
+        return request;
+    }
+
+    private int header(byte code, int payload) throws IOException {
+        var request = nextRequest++;
+        out.writeInt(1 + 4 + payload);
+        out.writeByte(code);
+        out.writeInt(request);
+        return request;
+    }
+
+    // length of the payload of the OK response, the response to one request of a formula
+    // come in request order
+    private int response(int request) throws IOException {
+        var length = in.readInt();
+        var code = in.readByte();
+        var id = in.readInt();
+        if (id != request) {
+            throw new IOException("expected response to " + request + ", got " + id);
+        }
+        if (code != Protocol.OK) {
+            var message = new byte[length - 5];
+            in.readFully(message);
+            throw new ErrorResponse("request " + request + ": " + new String(message, StandardCharsets.UTF_8));
+        }
+        return length - 5;
+    }
+
+    @Override
+    public void close() throws IOException {
+        socket.close();
+    }
+
+    ////////////////////////////////////////////////////////////////////////////////////////////////
+
+    // id and variables in the order of the values to evaluate it
+    public record Formula(int id, List<String> variables) {
+    }
+
+    // an ERROR response, read completely, the connection stays usable
+    private static final class ErrorResponse extends IOException {
+        ErrorResponse(String message) {
+            super(message);
+        }
+    }
+}
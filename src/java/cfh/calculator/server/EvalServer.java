@@ -0,0 +1,559 @@
+package cfh.calculator.server;
+
+import static java.util.Objects.requireNonNull;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.text.ParseException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+import cfh.calculator.BoundExpression;
+import cfh.calculator.Expression;
+import cfh.calculator.data.DataType;
+import cfh.calculator.data.DoubleData;
+import cfh.calculator.data.Slots;
+import cfh.calculator.expr.EvalException;
+
+
+// evaluates formulas for clients over TCP, see Protocol; one selector thread does all the I/O,
+// a pool of threads evaluates: all requests for the same formula received in one round of the
+// selector, and those arriving while it is evaluated, are evaluated together as one batch
+public final class EvalServer implements AutoCloseable {
+
+    private static final int MAX_BATCH = 4096;
+    // a connection is not read while more than this is waiting to be written to it
+    private static final int MAX_PENDING_OUTPUT = 1 << 20;
+    private static final int BUCKETS = 32;
+
+    // on an ephemeral port of the loopback address
+    public static EvalServer start(int threads) throws IOException {
+        return start(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), DataType.DOUBLE, threads);
+    }
+
+    public static EvalServer start(InetSocketAddress address, DataType<DoubleData> datatype, int threads) throws IOException {
+        return start(address, datatype, threads, ServerSocketChannel::accept);
+    }
+
+    static EvalServer start(InetSocketAddress address, DataType<DoubleData> datatype, int threads, Acceptor acceptor)
+    throws IOException {
+        if (threads < 1) {
+            throw new IllegalArgumentException("threads: " + threads);
+        }
+        return new EvalServer(address, requireNonNull(datatype), threads, requireNonNull(acceptor));
+    }
+
+    // accepts the next connection of the server channel, replaced by tests to make accepting fail
+    interface Acceptor {
+        SocketChannel accept(ServerSocketChannel server) throws IOException;
+    }
+
+    //==============================================================================================
+
+    private final DataType<DoubleData> datatype;
+    private final ServerSocketChannel server;
+    private final Selector selector;
+    private final ExecutorService pool;
+    private final Acceptor acceptor;
+    private final Thread loop;
+    private volatile boolean open = true;
+    private volatile IOException failure;
+
+    private final Map<String, Formula> texts = new ConcurrentHashMap<>();
+    private final Map<Integer, Formula> formulas = new ConcurrentHashMap<>();
+    private final AtomicInteger nextId = new AtomicInteger();
+    private final Queue<Connection> writable = new ConcurrentLinkedQueue<>();
+    private final Set<Formula> received = new LinkedHashSet<>();
+
+    private final long started = System.nanoTime();
+    private final AtomicInteger connections = new AtomicInteger();
+    private final LongAdder requests = new LongAdder();
+    private final LongAdder errors = new LongAdder();
+    private final LongAdder batches = new LongAdder();
+    private final LongAdder evaluated = new LongAdder();
+    private final LongAdder[] latencies = new LongAdder[BUCKETS];
+
+    private EvalServer(InetSocketAddress address, DataType<DoubleData> datatype, int threads, Acceptor acceptor)
+    throws IOException {
+        this.datatype = datatype;
+        this.acceptor = acceptor;
+        for (var i = 0; i < BUCKETS; i++) {
+            latencies[i] = new LongAdder();
+        }
+        this.selector = Selector.open();
+        this.server = ServerSocketChannel.open();
+        try {
+            server.bind(address);
+            server.configureBlocking(false);
+            server.register(selector, SelectionKey.OP_ACCEPT);
+        } catch (IOException ex) {
+            server.close();
+            selector.close();
+            throw ex;
+        }
+        var count = new AtomicInteger();
+        this.pool = Executors.newFixedThreadPool(threads, task -> {
+            var thread = new Thread(task, "eval-server-" + count.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+        this.loop = new Thread(this::run, "eval-server-selector");
+        loop.setDaemon(true);
+        loop.start();
+    }
+
+    public InetSocketAddress address() throws IOException {
+        return (InetSocketAddress) server.getLocalAddress();
+    }
+
+    // id of the formula, the same for the same text
+    public int define(CharSequence text) throws ParseException {
+        var key = text.toString();
+        var formula = texts.get(key);
+        if (formula == null) {
+            var expression = Expression.parse(datatype, key);
+            BoundExpression<DoubleData> bound;
+            try {
+                bound = expression.bind(Slots.of(expression.variables()));
+            } catch (EvalException ex) {
+                throw new AssertionError("all variables have a slot", ex);
+            }
+            // registered by id first, an id handed out is always found in formulas
+            var candidate = new Formula(nextId.getAndIncrement(), bound);
+            formulas.put(candidate.id, candidate);
+            formula = texts.putIfAbsent(key, candidate);
+            if (formula == null) {
+                formula = candidate;
+            } else {
+                formulas.remove(candidate.id);
+            }
+        }
+        return formula.id;
+    }
+
+    // variables of the formula in the order of the values of EVAL
+    public List<String> variables(int formula) {
+        var found = formulas.get(formula);
+        if (found == null) {
+            throw new IllegalArgumentException("unknown formula: " + formula);
+        }
+        return found.variables();
+    }
+
+    public Stats stats() {
+        var count = batches.sum();
+        return new Stats(connections.get(), requests.sum(), errors.sum(), count,
+            count == 0 ? 0 : (double) evaluated.sum() / count, System.nanoTime() - started);
+    }
+
+    // upper bound of the quantile of the time from reading a request to queuing its response
+    public long latencyMicros(double quantile) {
+        var counts = new long[BUCKETS];
+        var total = 0L;
+        for (var i = 0; i < BUCKETS; i++) {
+            counts[i] = latencies[i].sum();
+            total += counts[i];
+        }
+        var rank = (long) Math.ceil(quantile * total);
+        var seen = 0L;
+        for (var i = 0; i < BUCKETS; i++) {
+            seen += counts[i];
+            if (seen >= rank && seen > 0) {
+                return i == 0 ? 0 : 1L << i;
+            }
+        }
+        return 0;
+    }
+
+    // also throws the failure that stopped the server before, if any
+    @Override
+    public void close() throws IOException {
+        open = false;
+        selector.wakeup();
+        try {
+            loop.join();
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+        }
+        pool.shutdownNow();
+        if (failure != null) {
+            throw new IOException("server failed", failure);
+        }
+    }
+
+    // whether the server still accepts and answers requests, false after close or a failure
+    public boolean isOpen() {
+        return open;
+    }
+
+    //----------------------------------------------------------------------------------------------
+
+    private void run() {
+        try (selector; server) {
+            while (open) {
+                selector.select();
+                Connection connection;
+                while ((connection = writable.poll()) != null) {
+                    connection.write();
+                }
+                var keys = selector.selectedKeys();
+                for (var key : keys) {
+                    if (!key.isValid()) {
+                        continue;
+                    }
+                    if (key.isAcceptable()) {
+                        accept();
+                    } else {
+                        var client = (Connection) key.attachment();
+                        if (key.isWritable()) {
+                            client.write();
+                        }
+                        if (key.isValid() && key.isReadable()) {
+                            client.read();
+                        }
+                    }
+                }
+                keys.clear();
+                for (var formula : received) {
+                    formula.schedule();
+                }
+                received.clear();
+            }
+            for (var key : selector.keys()) {
+                key.channel().close();
+            }
+        } catch (IOException ex) {
+            // the selector failed, reported by close
+            failure = ex;
+            open = false;
+        }
+    }
+
+    // a failing connection is dropped, the server keeps accepting
+    private void accept() {
+        SocketChannel channel;
+        try {
+            channel = acceptor.accept(server);
+        } catch (IOException ex) {
+            // out of file descriptors for example, the connection stays pending for the next round
+            return;
+        }
+        if (channel == null) {
+            return;
+        }
+        try {
+            channel.configureBlocking(false);
+            channel.setOption(StandardSocketOptions.TCP_NODELAY, true);
+            var connection = new Connection(channel);
+            connection.key = channel.register(selector, SelectionKey.OP_READ, connection);
+            connections.incrementAndGet();
+        } catch (IOException ex) {
+            try {
+                channel.close();
+            } catch (IOException ignored) {
+                // closing anyway
+            }
+        }
+    }
+
+    // on the selector thread, answers anything failing with an error instead of ending the loop
+    private void request(Connection connection, ByteBuffer frame) {
+        requests.increment();
+        var code = frame.get();
+        var request = frame.getInt();
+        try {
+            dispatch(connection, code, request, frame);
+        } catch (RuntimeException | StackOverflowError ex) {
+            fail(connection, request, message(ex));
+        }
+    }
+
+    private void dispatch(Connection connection, byte code, int request, ByteBuffer frame) {
+        switch (code) {
+            case Protocol.DEFINE -> {
+                var text = StandardCharsets.UTF_8.decode(frame);
+                try {
+                    var id = define(text);
+                    connection.send(Protocol.defined(request, id, formulas.get(id).variables()));
+                } catch (ParseException ex) {
+                    fail(connection, request, "offset " + ex.getErrorOffset() + ": " + ex.getMessage());
+                }
+            }
+            case Protocol.EVAL -> {
+                if (frame.remaining() < 4) {
+                    fail(connection, request, "invalid EVAL frame");
+                    return;
+                }
+                var formula = formulas.get(frame.getInt());
+                if (formula == null) {
+                    fail(connection, request, "unknown formula");
+                    return;
+                }
+                // errors of a known formula are queued like values, so they keep the request order
+                String error = null;
+                double[] values = null;
+                if (frame.remaining() % 8 != 0) {
+                    error = "invalid EVAL frame";
+                } else if (frame.remaining() / 8 != formula.slots.size()) {
+                    error = "expected " + formula.slots.size() + " values, got " + frame.remaining() / 8;
+                } else {
+                    values = new double[formula.slots.size()];
+                    frame.asDoubleBuffer().get(values);
+                }
+                if (error != null) {
+                    errors.increment();
+                }
+                formula.pending.add(new Pending(connection, request, values, error, System.nanoTime()));
+                received.add(formula);
+            }
+            default -> fail(connection, request, "unknown request: " + code);
+        }
+    }
+
+    private void fail(Connection connection, int request, String message) {
+        errors.increment();
+        connection.send(Protocol.error(request, message));
+    }
+
+    private static String message(Throwable ex) {
+        return ex.getMessage() == null ? ex.getClass().getSimpleName() : ex.getMessage();
+    }
+
+    private void record(long received) {
+        var micros = Math.max(0, (System.nanoTime() - received) / 1000);
+        latencies[Math.min(BUCKETS - 1, 64 - Long.numberOfLeadingZeros(micros))].increment();
+    }
+
+    ////////////////////////////////////////////////////////////////////////////////////////////////
+
+    // values to evaluate or, if the request is invalid, the error to answer
+    private record Pending(Connection connection, int request, double[] values, String error, long received) {
+    }
+
+    private final class Formula {
+
+        final int id;
+        final BoundExpression<DoubleData> bound;
+        final Slots slots;
+        final Queue<Pending> pending = new ConcurrentLinkedQueue<>();
+        final AtomicBoolean scheduled = new AtomicBoolean();
+
+        Formula(int id, BoundExpression<DoubleData> bound) {
+            this.id = id;
+            this.bound = bound;
+            this.slots = bound.slots();
+        }
+
+        List<String> variables() {
+            var names = new ArrayList<String>(slots.size());
+            for (var i = 0; i < slots.size(); i++) {
+                names.add(slots.name(i));
+            }
+            return names;
+        }
+
+        void schedule() {
+            if (scheduled.compareAndSet(false, true)) {
+                pool.execute(this::drain);
+            }
+        }
+
+        // one drain at a time, so responses to one connection keep the request order
+        private void drain() {
+            var done = false;
+            try {
+                for (;;) {
+                    var batch = new ArrayList<Pending>();
+                    Pending next;
+                    while (batch.size() < MAX_BATCH && (next = pending.poll()) != null) {
+                        batch.add(next);
+                    }
+                    if (!batch.isEmpty()) {
+                        evaluate(batch);
+                    }
+                    if (batch.size() < MAX_BATCH) {
+                        scheduled.set(false);
+                        if (pending.isEmpty() || !scheduled.compareAndSet(false, true)) {
+                            done = true;
+                            return;
+                        }
+                    }
+                }
+            } finally {
+                if (!done) {
+                    // left by an error, the next request received schedules it again
+                    scheduled.set(false);
+                }
+            }
+        }
+
+        private void evaluate(List<Pending> batch) {
+            // row of each request in the columns, -1 for an invalid one
+            var rowOf = new int[batch.size()];
+            var rows = 0;
+            for (var i = 0; i < batch.size(); i++) {
+                rowOf[i] = batch.get(i).error == null ? rows++ : -1;
+            }
+            var columns = new double[slots.size()][rows];
+            for (var i = 0; i < batch.size(); i++) {
+                if (rowOf[i] == -1) {
+                    continue;
+                }
+                var values = batch.get(i).values;
+                for (var slot = 0; slot < values.length; slot++) {
+                    columns[slot][rowOf[i]] = values[slot];
+                }
+            }
+            var out = new double[rows];
+            String failed = null;
+            if (rows > 0) {
+                try {
+                    bound.evalBatch(columns, out);
+                    batches.increment();
+                    evaluated.add(rows);
+                } catch (RuntimeException | StackOverflowError ex) {
+                    failed = message(ex);
+                    errors.add(rows);
+                }
+            }
+            var touched = new LinkedHashSet<Connection>();
+            for (var i = 0; i < batch.size(); i++) {
+                var request = batch.get(i);
+                ByteBuffer response;
+                if (request.error != null) {
+                    response = Protocol.error(request.request, request.error);
+                } else if (failed != null) {
+                    response = Protocol.error(request.request, failed);
+                } else {
+                    response = Protocol.value(request.request, out[rowOf[i]]);
+                }
+                request.connection.queue(response);
+                record(request.received);
+                touched.add(request.connection);
+            }
+            writable.addAll(touched);
+            selector.wakeup();
+        }
+    }
+
+    private final class Connection {
+
+        private final SocketChannel channel;
+        private SelectionKey key;
+        private ByteBuffer in = ByteBuffer.allocate(64 << 10);
+        private final ArrayDeque<ByteBuffer> out = new ArrayDeque<>();
+        private long outBytes;
+
+        Connection(SocketChannel channel) {
+            this.channel = channel;
+        }
+
+        // on the selector thread
+        void read() {
+            try {
+                if (channel.read(in) == -1) {
+                    close();
+                    return;
+                }
+            } catch (IOException ex) {
+                close();
+                return;
+            }
+            in.flip();
+            while (in.remaining() >= 4) {
+                var length = in.getInt(in.position());
+                if (length < 5 || length > Protocol.MAX_FRAME) {
+                    close();
+                    return;
+                }
+                if (in.remaining() < 4 + length) {
+                    if (4 + length > in.capacity()) {
+                        in = ByteBuffer.allocate(4 + length).put(in).flip();
+                    }
+                    break;
+                }
+                var frame = in.slice(in.position() + 4, length);
+                in.position(in.position() + 4 + length);
+                request(this, frame);
+            }
+            in.compact();
+        }
+
+        // from any thread, the selector writes it
+        void send(ByteBuffer response) {
+            queue(response);
+            writable.add(this);
+            selector.wakeup();
+        }
+
+        synchronized void queue(ByteBuffer response) {
+            out.add(response);
+            outBytes += response.remaining();
+        }
+
+        // on the selector thread
+        synchronized void write() {
+            if (!key.isValid()) {
+                return;
+            }
+            try {
+                while (!out.isEmpty()) {
+                    var head = out.peek();
+                    var written = channel.write(head);
+                    outBytes -= written;
+                    if (head.hasRemaining()) {
+                        break;
+                    }
+                    out.remove();
+                }
+            } catch (IOException ex) {
+                close();
+                return;
+            }
+            var ops = out.isEmpty() ? 0 : SelectionKey.OP_WRITE;
+            if (outBytes <= MAX_PENDING_OUTPUT) {
+                ops |= SelectionKey.OP_READ;
+            }
+            key.interestOps(ops);
+        }
+
+        private void close() {
+            if (key.isValid()) {
+                key.cancel();
+                connections.decrementAndGet();
+            }
+            try {
+                channel.close();
+            } catch (IOException ex) {
+                // closing anyway
+            }
+        }
+    }
+
+    // requests received, errors answered, batches evaluated and their mean number of requests
+    public record Stats(int connections, long requests, long errors, long batches, double meanBatchSize, long nanos) {
+        public double requestsPerSecond() {
+            return nanos == 0 ? 0 : requests * 1e9 / nanos;
+        }
+    }
+}
@@ -0,0 +1,59 @@
+package cfh.calculator.server;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+
+
+// frames of the evaluation protocol, all numbers big endian:
+//   frame    = u32 length of the rest, u8 code, u32 request id, payload
+// requests, answered by a frame with the same request id:
+//   DEFINE   = UTF-8 formula text
+//   EVAL     = u32 formula id, f64 value of each variable in the order given by DEFINE
+// responses:
+//   OK       = u32 formula id, u16 count, count * (u16 length, UTF-8 name)   to DEFINE
+//              f64 value                                                    to EVAL
+//   ERROR    = UTF-8 message
+// requests may be pipelined, responses to EVAL of the same formula come in request order,
+// errors included; only an EVAL of an unknown formula is answered at once
+final class Protocol {
+
+    static final byte DEFINE = 1;
+    static final byte EVAL = 2;
+
+    static final byte OK = 0;
+    static final byte ERROR = 1;
+
+    static final int HEADER = 4 + 1 + 4;
+    static final int MAX_FRAME = 1 << 20;
+
+    static ByteBuffer value(int request, double value) {
+        return header(OK, request, 8).putDouble(value).flip();
+    }
+
+    static ByteBuffer defined(int request, int formula, List<String> variables) {
+        var names = new byte[variables.size()][];
+        var size = 4 + 2;
+        for (var i = 0; i < names.length; i++) {
+            names[i] = variables.get(i).getBytes(StandardCharsets.UTF_8);
+            size += 2 + names[i].length;
+        }
+        var buffer = header(OK, request, size).putInt(formula).putShort((short) names.length);
+        for (var name : names) {
+            buffer.putShort((short) name.length).put(name);
+        }
+        return buffer.flip();
+    }
+
+    static ByteBuffer error(int request, String message) {
+        var bytes = String.valueOf(message).getBytes(StandardCharsets.UTF_8);
+        return header(ERROR, request, bytes.length).put(bytes).flip();
+    }
+
+    static ByteBuffer header(byte code, int request, int payload) {
+        return ByteBuffer.allocate(HEADER + payload).putInt(1 + 4 + payload).put(code).putInt(request);
+    }
+
+    private Protocol() {
+    }
+}
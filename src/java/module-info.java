@@ -1,4 +1,12 @@
 module cfh.calculator {
-    requires org.junit.jupiter.params;
-    requires org.junit.jupiter.api;
+    requires transitive java.management;
+    requires transitive jdk.jfr;
+    requires static jdk.incubator.vector;
+    
+    exports cfh.calculator;
+    exports cfh.calculator.data;
+    exports cfh.calculator.expr;
+    exports cfh.calculator.io;
+    exports cfh.calculator.metrics;
+    exports cfh.calculator.server;
 }
\ No newline at end of file
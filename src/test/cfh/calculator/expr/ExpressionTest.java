@@ -2,17 +2,44 @@ package cfh.calculator.expr;
 
 import static org.junit.jupiter.api.Assertions.*;
 
+import java.lang.management.ManagementFactory;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.ReadOnlyBufferException;
+import java.nio.file.Files;
+import java.nio.file.Path;
 import java.text.ParseException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
 import org.junit.jupiter.params.ParameterizedTest;
 import org.junit.jupiter.params.provider.CsvSource;
+import org.junit.jupiter.params.provider.EnumSource;
 import org.junit.jupiter.params.provider.ValueSource;
 
+import cfh.calculator.BoundExpression;
 import cfh.calculator.Expression;
+import cfh.calculator.ExpressionCache;
+import cfh.calculator.data.Column;
 import cfh.calculator.data.DataType;
 import cfh.calculator.data.DoubleData;
+import cfh.calculator.data.DualData;
 import cfh.calculator.data.Environment;
+import cfh.calculator.data.Missing;
+import cfh.calculator.data.Precision;
+import cfh.calculator.data.SlotEnvironment;
+import cfh.calculator.data.Slots;
+import cfh.calculator.metrics.JmxMetrics;
 
 
 class ExpressionTest {
@@ -193,7 +220,8 @@ class ExpressionTest {
             @ParameterizedTest
             @CsvSource({
                 "2 + 3,  5",
-                "3+4+5, 12"
+                "3+4+5, 12",
+                "2+3*5, 17"
             })
             void testAdd(String text, double expected) throws Exception {
                 var expr = Expression.parseDouble(text);
@@ -212,5 +240,1208 @@ class ExpressionTest {
                 assertEquals(expected, expr.evalDouble(null));
             }
         }
+        
+        @Test
+        void testReuse() throws Exception {
+            var parser = new Parser<>(DataType.DOUBLE);
+            assertEquals("(x+1.0)", parser.parse("x + 1").toString());
+            assertEquals("sin(y)", parser.parse(new StringBuilder("SIN(y)")).toString());
+            var chars = "??? 2 * z ???".toCharArray();
+            assertEquals("(2.0*z)", parser.parse(chars, 3, 7).toString());
+            var ex = assertThrows(ParseException.class, () -> parser.parse(chars, 3, 8));
+            assertEquals(7, ex.getErrorOffset());
+            assertThrows(ParseException.class, () -> parser.parse("foo(1)"));
+            assertThrows(IllegalStateException.class, () -> parser.parse());
+            assertEquals("(x+1.0)", new Parser<>(DataType.DOUBLE, "x + 1").parse().toString());
+        }
+        
+        @ParameterizedTest
+        @ValueSource(strings = { "0", "0.1", "12.5", ".25", "7.", "9007199254740993", "123456789012345678901234.5", 
+                                 "0.000000000000000000000000123", "3.14159265358979323846" })
+        void testLiteralValues(String literal) throws Exception {
+            var expr = Expression.parseDouble(literal);
+            assertEquals(Double.parseDouble(literal), expr.evalDouble(null));
+            assertEquals(Double.parseDouble(literal), Expression.parse(DataType.DUAL, literal).evalDouble(null));
+        }
+        
+        @Test
+        void testRandomLiterals() throws Exception {
+            var random = new Random(42);
+            for (var i = 0; i < 10_000; i++) {
+                var literal = Long.toString(random.nextLong() >>> random.nextInt(64)) + "." + random.nextInt(1_000_000);
+                assertEquals(Double.parseDouble(literal), Expression.parseDouble(literal).evalDouble(null), literal);
+            }
+        }
+        
+        @ParameterizedTest
+        @ValueSource(strings = { ".", "1.2.3", "..5" })
+        void testInvalidLiteral(String literal) {
+            var ex = assertThrows(ParseException.class, () -> Expression.parseDouble("x + " + literal));
+            assertEquals(4, ex.getErrorOffset());
+            assertInstanceOf(NumberFormatException.class, ex.getCause());
+        }
+        
+        @Test
+        void testInternedNames() throws Exception {
+            var name = Expression.parseDouble("alpha + 1").variables().iterator().next();
+            assertSame("alpha", name);
+            var other = Executors.newSingleThreadExecutor();
+            try {
+                var future = other.submit(() -> Expression.parseDouble(new StringBuilder("2 * alpha")).variables().iterator().next());
+                assertSame(name, future.get());
+            } finally {
+                other.shutdown();
+            }
+        }
+        
+        @Test
+        void testConcurrent() throws Exception {
+            var texts = new ArrayList<String>();
+            for (var i = 0; i < 50; i++) {
+                texts.add("sqrt(x" + i + " * 2.5) + y / (" + i + " - z) % cos(w" + (i % 7) + ")");
+            }
+            var expected = new ArrayList<Expression<DoubleData>>();
+            for (var text : texts) {
+                expected.add(Expression.parseDouble(text));
+            }
+            var pool = Executors.newFixedThreadPool(8);
+            try {
+                var futures = new ArrayList<Future<Boolean>>();
+                for (var t = 0; t < 8; t++) {
+                    futures.add(pool.submit(() -> {
+                        var parser = new Parser<>(DataType.DOUBLE);
+                        for (var round = 0; round < 100; round++) {
+                            for (var i = 0; i < texts.size(); i++) {
+                                if (!parser.parse(texts.get(i)).equals(expected.get(i))) {
+                                    return false;
+                                }
+                            }
+                        }
+                        return true;
+                    }));
+                }
+                for (var future : futures) {
+                    assertTrue(future.get());
+                }
+            } finally {
+                pool.shutdown();
+            }
+        }
+    }
+    
+    static class EvalDoubleTests {
+        
+        @ParameterizedTest
+        @ValueSource(strings = {
+            "x + y * z", 
+            "x / y - z % 2",
+            "-x * +y",
+            "sqrt(x*x + y*y) / (1 + sin(z)) - cos(x)"
+        })
+        void testSameAsEval(String text) throws Exception {
+            var expr = Expression.parseDouble(text);
+            var env = Environment.of("x", 3.5, "y", -1.25, "z", 0.75);
+            assertEquals(expr.eval(env).doubleValue(), expr.evalDouble(env));
+        }
+        
+        @Test
+        void testUnknownVariable() throws Exception {
+            var expr = Expression.parseDouble("x + unknown");
+            EvalException ex = assertThrows(
+                EvalException.class,
+                () -> expr.evalDouble(Environment.of("x", 1.0))
+                );
+            assertTrue(ex.getMessage().contains("unknown"));
+        }
+        
+        @Test
+        void testNoAllocation() throws Exception {
+            var expr = Expression.parseDouble("sqrt(x*x + y*y) / (1 + -z) % 7 + sin(x) - cos(y)");
+            var env = Environment.of("x", 3.0, "y", 4.0, "z", 0.5);
+            var bean = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+            var count = 100_000;
+            var sum = 0.0;
+            for (var i = 0; i < count; i++) {
+                sum += expr.evalDouble(env);
+            }
+            var before = bean.getCurrentThreadAllocatedBytes();
+            for (var i = 0; i < count; i++) {
+                sum += expr.evalDouble(env);
+            }
+            var allocated = bean.getCurrentThreadAllocatedBytes() - before;
+            assertFalse(Double.isNaN(sum));
+            assertTrue(allocated < count, "allocated " + allocated + " bytes for " + count + " evaluations");
+        }
+    }
+    
+    static class BindTests {
+        
+        private static final Slots SLOTS = Slots.of("z", "y", "x");
+        
+        @ParameterizedTest
+        @CsvSource({
+            "x + y * z,     1.0",
+            "sqrt(x*x+y*y), 5.0",
+            "-z % x,        0.5",
+            "12,           12.0"
+        })
+        void testEval(String text, double expected) throws Exception {
+            var expr = Expression.parseDouble(text).bind(SLOTS);
+            var env = SlotEnvironment.of(SLOTS, -0.5, 4.0, 3.0);
+            assertEquals(expected, expr.eval(env).doubleValue());
+            assertEquals(expected, expr.evalDouble(env));
+            assertEquals(expected, expr.evalDouble(new double[] {-0.5, 4.0, 3.0}));
+            assertEquals(expected, expr.evalDouble(Environment.of("x", 3.0, "y", 4.0, "z", -0.5)));
+        }
+        
+        @Test
+        void testUnknownVariable() throws Exception {
+            var expr = Expression.parseDouble("x + w");
+            EvalException ex = assertThrows(
+                EvalException.class,
+                () -> expr.bind(SLOTS)
+                );
+            assertTrue(ex.getMessage().contains("w"));
+        }
+        
+        @Test
+        void testUnsetVariable() throws Exception {
+            var expr = Expression.parseDouble("x + y").bind(SLOTS);
+            var env = new SlotEnvironment<DoubleData>(SLOTS).put("x", expr.eval(Environment.of("x", 1.0, "y", 2.0)));
+            assertThrows(EvalException.class, () -> expr.evalDouble(env));
+        }
+        
+        @Test
+        void testSlotsMismatch() throws Exception {
+            var expr = Expression.parseDouble("x").bind(SLOTS);
+            var env = SlotEnvironment.of(Slots.of("x"), 1.0);
+            assertThrows(IllegalArgumentException.class, () -> expr.evalDouble(env));
+        }
+    }
+    
+    static class CompileTests {
+        
+        private static final Slots SLOTS = Slots.of("a", "b", "c", "d", "e", "f", "g", "x", "y");
+        
+        @ParameterizedTest
+        @ValueSource(strings = {
+            "1.5",
+            "x",
+            "-y",
+            "+x * -y",
+            "x + y * 2 - 3 / x % 0.7",
+            "sqrt(x*x + y*y) / (1 + sqrt(x*x + y*y))",
+            "sin(x) * cos(y) - sin(-x / 3)",
+            "a + b + c + d + e + f + g + x + y",
+            "g / (f - f)",
+            "sqrt(-a)"
+        })
+        void testSameAsEval(String text) throws Exception {
+            var bound = Expression.parseDouble(text).bind(SLOTS);
+            var compiled = bound.compile();
+            assertNotSame(bound, compiled);
+            var random = new Random(text.hashCode());
+            var values = new double[SLOTS.size()];
+            for (var i = 0; i < 100; i++) {
+                for (var j = 0; j < values.length; j++) {
+                    values[j] = random.nextGaussian() * 10;
+                }
+                var env = SlotEnvironment.of(SLOTS, values);
+                var expected = bound.eval(env).doubleValue();
+                assertEquals(Double.doubleToLongBits(expected), Double.doubleToLongBits(compiled.evalDouble(values)), text);
+                assertEquals(expected, compiled.eval(env).doubleValue());
+            }
+        }
+        
+        @Test
+        void testToString() throws Exception {
+            var bound = Expression.parseDouble("x + sqrt(y)").bind(SLOTS);
+            assertEquals(bound.toString(), bound.compile().toString());
+        }
+    }
+    
+    static class OptimizeTests {
+        
+        @ParameterizedTest
+        @CsvSource(delimiter = ';', value = {
+            "2*3*x + 0;      ((6.0*x)+0.0)",
+            "sqrt(16)*y;     (4.0*y)",
+            "-(-x);          x",
+            "+x;             x",
+            "x*1 + 1*y;      (x+y)",
+            "x/1 - 0;        x",
+            "x - -0;         (x--0.0)",
+            "x * 0;          (x*0.0)",
+            "x*2*3;          ((x*2.0)*3.0)",
+            "-(2) + sin(0);  -2.0"
+        })
+        void testStrict(String text, String expected) throws Exception {
+            var expr = Expression.parseDouble(text);
+            var optimized = expr.optimize();
+            assertEquals(expected, optimized.toString());
+            var env = Environment.of("x", -0.0, "y", 3.0);
+            assertEquals(expr.evalDouble(env), optimized.evalDouble(env));
+        }
+        
+        @ParameterizedTest
+        @CsvSource(delimiter = ';', value = {
+            "2*3*x + 0;   (6.0*x)",
+            "0 + x;       x",
+            "x * 0;       0.0",
+            "x*2*3;       (x*6.0)",
+            "(y+1)+2+3;   (y+6.0)",
+            "y*2+3+4;     ((y*2.0)+7.0)"
+        })
+        void testFastMath(String text, String expected) throws Exception {
+            var expr = Expression.parseDouble(text);
+            var optimized = expr.optimize(Optimization.FAST_MATH);
+            assertEquals(expected, optimized.toString());
+            var env = Environment.of("x", 1.5, "y", 3.0);
+            assertEquals(expr.evalDouble(env), optimized.evalDouble(env));
+        }
+        
+        @Test
+        void testBound() throws Exception {
+            var slots = Slots.of("x", "y");
+            var bound = Expression.parseDouble("x * (1 + 2) + sqrt(4) * y").bind(slots).compile().optimize();
+            assertEquals("((x*3.0)+(2.0*y))", bound.toString());
+            assertEquals(3.0 * 5 + 2 * 7, bound.evalDouble(new double[] {5, 7}));
+        }
+    }
+    
+    static class SharingTests {
+        
+        @Test
+        void testEquals() throws Exception {
+            var expr1 = Expression.parseDouble("sqrt(x*x + y*y) - -z % 2");
+            var expr2 = Expression.parseDouble("sqrt(x * x+y * y)- -z%2");
+            assertEquals(expr1, expr2);
+            assertEquals(expr1.hashCode(), expr2.hashCode());
+            assertNotEquals(expr1, Expression.parseDouble("sqrt(x*x + y*y) - -z % 3"));
+            assertNotEquals(Expression.parseDouble("x - y"), Expression.parseDouble("x + y"));
+            assertNotEquals(Expression.parseDouble("sin(x)"), Expression.parseDouble("cos(x)"));
+        }
+        
+        // distinct literals whose hash codes collide are neither equal nor shared
+        @Test
+        void testLiteralHashCollision() throws Exception {
+            var one = DataType.DOUBLE.parse("1.0");
+            var other = DataType.DOUBLE.parse(Double.toString(Double.longBitsToDouble(0x3FF0000100000001L)));
+            assertEquals(one.hashCode(), other.hashCode());
+            assertNotEquals(one, other);
+            assertNotEquals(new Literal<>(one), new Literal<>(other));
+            var expr = Expression.parseDouble("sqrt(x + " + one + ") - sqrt(x + " + other + ")");
+            assertFalse(expr.eliminateCommon() instanceof Let);
+            assertNotEquals(0.0, expr.eliminateCommon().evalDouble(Environment.of("x", 0.0)));
+        }
+        
+        @ParameterizedTest
+        @CsvSource(delimiter = ';', value = {
+            "sqrt(x*x+y*y) / (1 + sqrt(x*x+y*y));      1",
+            "sin(x) * sin(x) + cos(x) * cos(x);        2",
+            "(x*x+y*y) * (x*x+y*y) - sqrt(x*x+y*y);    1",
+            "sqrt(x*y+1) + sqrt(x*y+1) * sqrt(x*y+1);  1",
+            "x*y + x*y;                                0",
+            "x + y;                                    0"
+        })
+        void testEliminate(String text, int shared) throws Exception {
+            var expr = Expression.parseDouble(text);
+            var eliminated = expr.eliminateCommon();
+            if (shared == 0) {
+                assertFalse(eliminated instanceof Let);
+            } else {
+                assertEquals(shared, ((Let<?>) eliminated).definitions().size());
+            }
+            assertEquals(expr.toString(), eliminated.toString());
+            var env = Environment.of("x", 0.3, "y", 4.0);
+            assertEquals(expr.eval(env), eliminated.eval(env));
+            assertEquals(expr.evalDouble(env), eliminated.evalDouble(env));
+            var slots = Slots.of("y", "x");
+            var bound = expr.bind(slots).eliminateCommon();
+            var values = new double[] {4.0, 0.3};
+            assertEquals(expr.evalDouble(env), bound.evalDouble(values));
+            assertEquals(expr.evalDouble(env), bound.compile().evalDouble(values));
+            assertEquals(expr.evalDouble(env), bound.evalDouble(SlotEnvironment.of(slots, values)));
+        }
+    }
+    
+    static class FlattenTests {
+        
+        @ParameterizedTest
+        @ValueSource(strings = {
+            "42", "x", "-x", "+x", "-(-x)", "2+3*5", "x - y - z", "x / (y % 3)", "sqrt(x*x + y*y) - -z % 2",
+            "sin(x) * sin(x) + cos(x) * cos(x)", "sqrt(x*y+1) + sqrt(x*y+1) * sqrt(x*y+1)", "1.5 * x + 1.5 * y"
+        })
+        void testFlatten(String text) throws Exception {
+            var env = Environment.of("x", 0.3, "y", 4.0, "z", -2.5);
+            for (var tree : List.of(Expression.parseDouble(text), Expression.parseDouble(text).eliminateCommon())) {
+                var flat = tree.flatten();
+                assertInstanceOf(Program.class, flat);
+                assertSame(flat, flat.flatten());
+                assertEquals(tree.toString(), flat.toString());
+                assertEquals(tree, ((Program<DoubleData>) flat).expand());
+                assertEquals(tree.variables(), flat.variables());
+                assertEquals(tree.eval(env), flat.eval(env));
+                assertEquals(tree.evalDouble(env), flat.evalDouble(env));
+                assertEquals(tree.evalDouble(env), flat.bind(Slots.of("x", "y", "z")).evalDouble(new double[] {0.3, 4.0, -2.5}));
+            }
+        }
+        
+        @Test
+        void testEquals() throws Exception {
+            var flat = Expression.parseDouble("x * 2 + sin(y)").flatten();
+            assertEquals(flat, Expression.parseDouble("x*2+sin(y)").flatten());
+            assertEquals(flat.hashCode(), Expression.parseDouble("x*2+sin(y)").flatten().hashCode());
+            assertNotEquals(flat, Expression.parseDouble("x * 2 + cos(y)").flatten());
+            assertNotEquals(flat, Expression.parseDouble("x * 3 + sin(y)").flatten());
+        }
+        
+        @Test
+        void testUnknownVariable() throws Exception {
+            var flat = Expression.parseDouble("x + y").flatten();
+            var env = Environment.of("x", 1);
+            var ex = assertThrows(EvalException.class, () -> flat.evalDouble(env));
+            assertEquals("Unknown variable: y", ex.getMessage());
+            assertThrows(EvalException.class, () -> flat.eval(env));
+        }
+        
+        @Test
+        void testOptimize() throws Exception {
+            var flat = Expression.parseDouble("x * (2 + 3) * 1").flatten().optimize();
+            assertInstanceOf(Program.class, flat);
+            assertEquals("(x*5.0)", flat.toString());
+        }
+        
+        @Test
+        void testDeep() throws Exception {
+            var flat = Expression.parseDouble("x" + " + 1".repeat(1000)).flatten();
+            assertEquals(1001.0, flat.evalDouble(Environment.of("x", 1)));
+        }
+    }
+    
+    static class BinaryFormatTests {
+        
+        private static final String[] TEXTS = {
+            "42", "x", "-x", "+x", "-(-x)", "2+3*5", "x - y - z", "x / (y % 3)", "sqrt(x*x + y*y) - -z % 2",
+            "sin(x) * sin(x) + cos(x) * cos(x)", "1.5 * value", "0.1 + -0.0 * x"
+        };
+        
+        private static List<Expression<DoubleData>> parseAll() throws ParseException {
+            var expressions = new ArrayList<Expression<DoubleData>>();
+            for (var text : TEXTS) {
+                expressions.add(Expression.parseDouble(text));
+            }
+            return expressions;
+        }
+        
+        @Test
+        void testRoundTrip() throws Exception {
+            var expressions = parseAll();
+            for (var order : new ByteOrder[] { ByteOrder.BIG_ENDIAN, ByteOrder.LITTLE_ENDIAN }) {
+                var buffer = ByteBuffer.allocate(BinaryFormat.size(expressions)).order(order);
+                BinaryFormat.write(expressions, buffer);
+                assertFalse(buffer.hasRemaining());
+                var read = BinaryFormat.read(DataType.DOUBLE, buffer.flip());
+                assertEquals(expressions, read);
+                for (var i = 0; i < TEXTS.length; i++) {
+                    assertEquals(expressions.get(i).toString(), read.get(i).toString());
+                }
+            }
+        }
+        
+        @Test
+        void testShared() throws Exception {
+            var expressions = new ArrayList<Expression<DoubleData>>();
+            for (var expression : parseAll()) {
+                expressions.add(expression.eliminateCommon());
+            }
+            expressions.add(Expression.parseDouble("x * y + 1").flatten());
+            expressions.add(Expression.parseDouble("x * y").bind(Slots.of("y", "x")));
+            var buffer = ByteBuffer.allocateDirect(BinaryFormat.size(expressions));
+            BinaryFormat.write(expressions, buffer);
+            var read = BinaryFormat.read(DataType.DOUBLE, buffer.flip());
+            assertEquals(expressions.subList(0, TEXTS.length), read.subList(0, TEXTS.length));
+            assertEquals(Expression.parseDouble("x * y + 1"), read.get(TEXTS.length));
+            assertEquals(Expression.parseDouble("x * y"), read.get(TEXTS.length + 1));
+        }
+        
+        @Test
+        void testFile(@TempDir Path dir) throws Exception {
+            var expressions = parseAll();
+            var file = dir.resolve("catalog.bin");
+            BinaryFormat.write(expressions, file);
+            assertEquals(BinaryFormat.size(expressions), Files.size(file));
+            assertEquals(expressions, BinaryFormat.read(DataType.DOUBLE, file));
+        }
+        
+        @Test
+        void testMalformed() throws Exception {
+            var expressions = parseAll();
+            var bytes = new byte[BinaryFormat.size(expressions)];
+            BinaryFormat.write(expressions, ByteBuffer.wrap(bytes));
+            var ex = assertThrows(ParseException.class, () -> BinaryFormat.read(DataType.DOUBLE, ByteBuffer.wrap(bytes, 1, bytes.length - 1)));
+            assertTrue(ex.getMessage().startsWith("Invalid magic"), ex.getMessage());
+            assertThrows(ParseException.class, () -> BinaryFormat.read(DataType.DOUBLE, ByteBuffer.wrap(bytes, 0, bytes.length - 1)));
+            assertThrows(ParseException.class, () -> BinaryFormat.read(DataType.DOUBLE, ByteBuffer.wrap(bytes, 0, 20)));
+            var random = new Random(13);
+            for (var i = 0; i < 10_000; i++) {
+                var corrupt = bytes.clone();
+                corrupt[10 + random.nextInt(corrupt.length - 10)] = (byte) random.nextInt();
+                try {
+                    for (var expression : BinaryFormat.read(DataType.DOUBLE, ByteBuffer.wrap(corrupt))) {
+                        expression.toString();
+                    }
+                } catch (ParseException expected) {
+                }
+            }
+        }
+    }
+    
+    static class FormulaSetTests {
+        
+        private static final List<String> TEXTS = List.of(
+            "sqrt(x*x + y*y)",
+            "sqrt(x*x + y*y) / (1 + z)",
+            "(x*x + y*y) * z",
+            "sin(x) * cos(y) - z",
+            "sin(x) * cos(y) + z",
+            "x*x + y*y",
+            "-z",
+            "42");
+        
+        @Test
+        void testEvalDouble() throws Exception {
+            var set = FormulaSet.parseDouble(TEXTS);
+            assertEquals(TEXTS.size(), set.size());
+            assertEquals(Slots.of("x", "y", "z"), set.slots());
+            assertTrue(set.sharedCount() >= 3, () -> "shared " + set.sharedCount());
+            var env = Environment.of("x", 0.3, "y", 4.0, "z", -2.5);
+            var out = new double[TEXTS.size()];
+            set.evalDouble(env, out);
+            for (var i = 0; i < TEXTS.size(); i++) {
+                assertEquals(set.formula(i).evalDouble(env), out[i], TEXTS.get(i));
+            }
+            var values = new double[TEXTS.size()];
+            set.evalDouble(new double[] {0.3, 4.0, -2.5}, values);
+            assertArrayEquals(out, values);
+            assertThrows(IllegalArgumentException.class, () -> set.evalDouble(env, new double[1]));
+            var ex = assertThrows(EvalException.class, () -> set.evalDouble(Environment.of("x", 1, "y", 2), out));
+            assertEquals("Unknown variable: z", ex.getMessage());
+        }
+        
+        @Test
+        void testMixed() throws Exception {
+            var expressions = List.of(
+                Expression.parseDouble("sin(x) * sin(x) + 1").eliminateCommon(),
+                Expression.parseDouble("sin(x) * y").flatten(),
+                Expression.parseDouble("sin(x) * 2").bind(Slots.of("x")));
+            var set = FormulaSet.of(expressions);
+            assertEquals(1, set.sharedCount());
+            var out = new double[3];
+            set.evalDouble(Environment.of("x", 0.5, "y", 3), out);
+            assertArrayEquals(new double[] {Math.sin(0.5) * Math.sin(0.5) + 1, Math.sin(0.5) * 3, Math.sin(0.5) * 2}, out);
+        }
+        
+        @Test
+        void testBatch() throws Exception {
+            var set = FormulaSet.parseDouble(TEXTS);
+            var rows = 2500;
+            var random = new Random(15);
+            var columns = new double[3][rows];
+            for (var column : columns) {
+                for (var i = 0; i < rows; i++) {
+                    column[i] = random.nextDouble() * 10 - 5;
+                }
+            }
+            var out = new double[TEXTS.size()][rows];
+            set.evalBatch(columns, out);
+            var row = new double[TEXTS.size()];
+            for (var i = 0; i < rows; i++) {
+                set.evalDouble(new double[] {columns[0][i], columns[1][i], columns[2][i]}, row);
+                for (var k = 0; k < row.length; k++) {
+                    assertEquals(row[k], out[k][i], Kernels.INSTANCE.isVectorized() ? 1e-12 * Math.max(1, Math.abs(row[k])) : 0.0);
+                }
+            }
+        }
+        
+        @Test
+        void testParseError() {
+            var ex = assertThrows(ParseException.class, () -> FormulaSet.parseDouble(List.of("x", "y +")));
+            assertTrue(ex.getMessage().startsWith("formula 1: "), ex.getMessage());
+        }
+    }
+    
+    static class SheetTests {
+        
+        @Test
+        void testListener() {
+            var env = Environment.of("x", 1, "y", 2);
+            var changes = new ArrayList<String>();
+            Environment.Listener listener = changes::add;
+            env.addListener(listener);
+            env.put("x", DataType.DOUBLE.valueOf(1));
+            env.put("x", DataType.DOUBLE.valueOf(3));
+            env.put("z", DataType.DOUBLE.valueOf(3));
+            env.replace("y", DataType.DOUBLE.valueOf(2));
+            env.replace("y", DataType.DOUBLE.valueOf(5));
+            env.replace("w", DataType.DOUBLE.valueOf(5));
+            env.remove("z");
+            env.remove("z");
+            assertEquals(List.of("x", "z", "y", "z"), changes);
+            changes.clear();
+            env.clear();
+            assertEquals(Set.of("x", "y"), Set.copyOf(changes));
+            env.removeListener(listener);
+            env.put("x", DataType.DOUBLE.valueOf(1));
+            assertEquals(2, changes.size());
+        }
+        
+        @Test
+        void testIncremental() throws Exception {
+            var env = Environment.of("a", 1, "b", 2, "c", 3);
+            try (var sheet = new Sheet<>(env)) {
+                var sum = sheet.add(Expression.parseDouble("sqrt(a*a + b*b)"));
+                var scaled = sheet.add(Expression.parseDouble("sqrt(a*a + b*b) * c"));
+                var other = sheet.add(Expression.parseDouble("c - 1"));
+                assertTrue(sum.isDirty());
+                assertEquals(Math.sqrt(5), sum.doubleValue());
+                var first = sheet.recomputations();
+                assertEquals(Math.sqrt(5) * 3, scaled.doubleValue());
+                assertEquals(2, sheet.recomputations() - first);  // c and the product
+                assertEquals(2.0, other.doubleValue());
+                var before = sheet.recomputations();
+                assertEquals(2.0, other.doubleValue());
+                assertEquals(Math.sqrt(5) * 3, scaled.doubleValue());
+                assertEquals(before, sheet.recomputations());
+                
+                env.put("c", DataType.DOUBLE.valueOf(4));
+                assertFalse(sum.isDirty());
+                assertTrue(scaled.isDirty());
+                assertTrue(other.isDirty());
+                assertEquals(Math.sqrt(5), sum.doubleValue());
+                assertEquals(Math.sqrt(5) * 4, scaled.doubleValue());
+                assertEquals(before + 2, sheet.recomputations());  // c and the product, sqrt cached
+                assertEquals(3.0, other.doubleValue());
+                
+                env.remove("a");
+                assertThrows(EvalException.class, sum::doubleValue);
+                assertTrue(sum.isDirty());
+                env.put("a", DataType.DOUBLE.valueOf(3));
+                assertEquals(Math.sqrt(13), sum.doubleValue());
+                assertEquals(Expression.parseDouble("sqrt(a*a + b*b)").eval(env), sum.value());
+            }
+            env.put("a", DataType.DOUBLE.valueOf(4));
+        }
+        
+        @Test
+        void testShared() throws Exception {
+            var env = Environment.of("x", 0.5);
+            try (var sheet = new Sheet<>(env)) {
+                var cell = sheet.add(Expression.parseDouble("sin(x) * sin(x) + 1").eliminateCommon());
+                assertEquals(Math.sin(0.5) * Math.sin(0.5) + 1, cell.doubleValue());
+                assertEquals(5, sheet.recomputations());  // x, sin, product, 1, sum
+                assertEquals("((sin(x)*sin(x))+1.0)", cell.toString());
+            }
+        }
+    }
+    
+    static class StoreTests {
+        
+        @ParameterizedTest
+        @ValueSource(strings = {
+            "2.5", "x", "-x * +y - 1 / x", "x + y * z % 0.3", "sqrt(x*x + y*y) - sin(z) * cos(z)",
+            "((((x+1)*(y-2))/((z+3)-(x*4)))+(((y+5)%(z*6))-((x-7)/(y+8))))"
+        })
+        void testSameAsTree(String text) throws Exception {
+            var store = new ExpressionStore<>(DataType.DOUBLE, 0);
+            store.parse("a + b");
+            var handle = store.parse(text);
+            var tree = Expression.parseDouble(text);
+            var stored = store.expression(handle);
+            assertEquals(tree.toString(), stored.toString());
+            assertEquals(tree.variables(), stored.variables());
+            var env = Environment.of("x", 1.25, "y", -2.5, "z", 3.75);
+            var values = new double[store.variableCount()];
+            for (var name : List.of("x", "y", "z")) {
+                if (store.variableId(name) != -1) {
+                    values[store.variableId(name)] = env.get(name).doubleValue();
+                }
+            }
+            assertEquals(tree.evalDouble(env), store.evalDouble(handle, env));
+            assertEquals(tree.evalDouble(env), store.evalDouble(handle, values));
+            assertEquals(tree.eval(env), store.eval(handle, env));
+            assertEquals(tree.evalDouble(env), stored.evalDouble(env));
+            assertEquals(tree.evalDouble(env), stored.bind(Slots.of("x", "y", "z")).evalDouble(new double[] {1.25, -2.5, 3.75}));
+            assertEquals(tree.evalDouble(env), stored.optimize().evalDouble(env));
+        }
+        
+        @Test
+        void testMany() throws Exception {
+            var store = new ExpressionStore<>(DataType.DOUBLE);
+            var random = new Random(3);
+            var texts = new ArrayList<String>();
+            var handles = new int[10_000];
+            for (var i = 0; i < handles.length; i++) {
+                var text = "v" + random.nextInt(100) + " * " + i + " + sqrt(w" + random.nextInt(100) + ") - x";
+                texts.add(text);
+                handles[i] = store.parse(text);
+            }
+            assertEquals(201, store.variableCount());
+            assertEquals(handles.length * 5 + 201, store.size());
+            store.trimToSize();
+            assertEquals(9L * store.size(), store.bytes());
+            var values = new double[store.variableCount()];
+            for (var i = 0; i < values.length; i++) {
+                values[i] = i + 0.5;
+            }
+            var env = new Environment<DoubleData>();
+            for (var i = 0; i < values.length; i++) {
+                env.put(store.variable(i), DataType.DOUBLE.valueOf(values[i]));
+            }
+            for (var i = 0; i < handles.length; i++) {
+                var expected = Expression.parseDouble(texts.get(i)).evalDouble(env);
+                assertEquals(expected, store.evalDouble(handles[i], values));
+            }
+            assertSame(store.variable(0), store.variable(store.variableId(store.variable(0))));
+            store.parse("1");
+            assertEquals(handles.length * 5 + 202, store.size());
+        }
+        
+        @Test
+        void testAddForms() throws Exception {
+            var store = new ExpressionStore<>(DataType.DOUBLE);
+            var text = "sin(x) * sin(x) + y";
+            var expr = Expression.parseDouble(text);
+            var env = Environment.of("x", 0.5, "y", 2);
+            for (var form : List.of(expr, expr.flatten(), expr.eliminateCommon(), expr.eliminateCommon().flatten(), 
+                                    expr.bind(Slots.of("x", "y")), expr.instrument(new JmxMetrics()))) {
+                var handle = store.add(form);
+                assertEquals(expr.toString(), store.expression(handle).toString());
+                assertEquals(expr.evalDouble(env), store.evalDouble(handle, env));
+            }
+            var stored = store.expression(store.add(expr));
+            assertEquals(store.size() - 1, store.add(stored));
+            assertThrows(IllegalArgumentException.class, () -> store.add(Expression.parse(DataType.DOUBLE.with(Precision.FAST), "sin(x)")));
+            assertThrows(IndexOutOfBoundsException.class, () -> store.eval(store.size(), env));
+            var ex = assertThrows(EvalException.class, () -> store.evalDouble(store.parse("zz"), env));
+            assertEquals("Unknown variable: zz", ex.getMessage());
+        }
+        
+        @Test
+        void testDual() throws Exception {
+            var store = new ExpressionStore<>(DataType.DUAL);
+            var handle = store.parse("x * x + 3 * y");
+            var result = store.eval(handle, DualData.environment(new String[] {"x", "y"}, 2, 5));
+            assertEquals(19.0, result.doubleValue());
+            assertArrayEquals(new double[] {4, 3}, result.gradient(2));
+        }
+    }
+    
+    static class DualTests {
+        
+        @ParameterizedTest
+        @ValueSource(strings = {
+            "x", "-x", "x + y", "x - y * 3", "x * y * z", "x / y", "(x + 1) / (y * z)", "x % y", "-x % y",
+            "sqrt(x*x + y*y)", "sin(x) * cos(y) - z", "sin(x * y) / sqrt(z + 10)", "2 * 3 + x * 0"
+        })
+        void testGradient(String text) throws Exception {
+            var names = new String[] {"x", "y", "z"};
+            var values = new double[] {0.7, -1.3, 2.1};
+            var dual = Expression.parse(DataType.DUAL, text);
+            var result = dual.eval(DualData.environment(names, values));
+            var expr = Expression.parseDouble(text);
+            var value = expr.evalDouble(Environment.of("x", values[0], "y", values[1], "z", values[2]));
+            assertEquals(value, result.doubleValue());
+            assertEquals(value, dual.evalDouble(DualData.environment(names, values)));
+            var h = 1e-6;
+            for (var i = 0; i < names.length; i++) {
+                var plus = values.clone();
+                var minus = values.clone();
+                plus[i] += h;
+                minus[i] -= h;
+                var difference = (expr.evalDouble(Environment.of("x", plus[0], "y", plus[1], "z", plus[2]))
+                                - expr.evalDouble(Environment.of("x", minus[0], "y", minus[1], "z", minus[2]))) / (2 * h);
+                assertEquals(difference, result.derivative(i), 1e-6, text + " by " + names[i]);
+            }
+        }
+        
+        @Test
+        void testExact() throws Exception {
+            var slots = Slots.of("x", "y");
+            var bound = Expression.parse(DataType.DUAL, "x * x * y + sin(y)").bind(slots);
+            var result = bound.eval(DualData.of(slots, 3, 0.5));
+            assertEquals(9 * 0.5 + Math.sin(0.5), result.doubleValue());
+            assertArrayEquals(new double[] {2 * 3 * 0.5, 9 + Math.cos(0.5)}, result.gradient(2));
+            assertEquals(0.0, result.derivative(5));
+            var constant = Expression.parse(DataType.DUAL, "2 * 3").eval(new Environment<>());
+            assertEquals(DualData.constant(6), constant);
+            assertArrayEquals(new double[3], constant.gradient(3));
+            assertEquals("6.0", constant.toString());
+        }
+    }
+    
+    static class PrecisionTests {
+        
+        @ParameterizedTest
+        @ValueSource(doubles = { 1, 10, 1000, 1e5, FastMath.REDUCE_LIMIT })
+        void testFastUlp(double range) {
+            var random = new Random(42);
+            for (var i = 0; i < 200_000; i++) {
+                var x = random.nextDouble(-range, range);
+                assertUlp(StrictMath.sin(x), FastMath.sin(x), 3, "sin(" + x + ")");
+                assertUlp(StrictMath.cos(x), FastMath.cos(x), 3, "cos(" + x + ")");
+                assertEquals(Math.sqrt(Math.abs(x)), FastMath.sqrt(Math.abs(x)));
+            }
+        }
+        
+        @ParameterizedTest
+        @ValueSource(doubles = { 0.0, -0.0, Math.PI / 2, -Math.PI, 1e6, -1e300, Double.MIN_VALUE, Double.NaN, 
+                                 Double.POSITIVE_INFINITY, Double.NEGATIVE_INFINITY })
+        void testFastSpecial(double x) {
+            assertUlp(StrictMath.sin(x), FastMath.sin(x), 3, "sin(" + x + ")");
+            assertUlp(StrictMath.cos(x), FastMath.cos(x), 3, "cos(" + x + ")");
+            if (x == 0) {
+                assertEquals(Double.doubleToRawLongBits(x), Double.doubleToRawLongBits(FastMath.sin(x)));
+            }
+        }
+        
+        private static void assertUlp(double expected, double actual, int ulps, String message) {
+            if (Double.isNaN(expected)) {
+                assertTrue(Double.isNaN(actual), message);
+            } else {
+                assertEquals(expected, actual, ulps * Math.ulp(expected), message);
+            }
+        }
+        
+        @Test
+        void testInstances() throws Exception {
+            assertSame(DataType.DOUBLE, DataType.DOUBLE.with(Precision.MATH));
+            assertSame(DataType.DUAL, DataType.DUAL.with(Precision.MATH));
+            for (var precision : Precision.values()) {
+                var type = DataType.DOUBLE.with(precision);
+                assertEquals(precision, type.precision());
+                assertSame(type, type.with(Precision.STRICT).with(precision));
+                assertEquals(precision, DataType.DUAL.with(precision).precision());
+            }
+            var text = "sin(x) + cos(y)";
+            assertNotEquals(Expression.parseDouble(text), Expression.parse(DataType.DOUBLE.with(Precision.FAST), text));
+            assertEquals(Expression.parse(DataType.DOUBLE.with(Precision.FAST), text), 
+                         Expression.parse(DataType.DOUBLE.with(Precision.FAST), text));
+        }
+        
+        @ParameterizedTest
+        @EnumSource(Precision.class)
+        void testAllPaths(Precision precision) throws Exception {
+            var type = DataType.DOUBLE.with(precision);
+            var text = "sin(x) * cos(y) + sqrt(x * x + 1) - cos(x * 1000)";
+            var function = Expression.parse(type, text);
+            var strict = Expression.parse(DataType.DOUBLE.with(Precision.STRICT), text);
+            var slots = Slots.of("x", "y");
+            var bound = function.bind(slots);
+            var compiled = function.bind(slots).compile();
+            var rows = 1000;
+            var random = new Random(7);
+            var x = random.doubles(rows, -100, 100).toArray();
+            var y = random.doubles(rows, -100, 100).toArray();
+            var out = new double[rows];
+            bound.evalBatch(new double[][] {x, y}, out);
+            for (var i = 0; i < rows; i++) {
+                var env = Environment.of("x", x[i], "y", y[i]);
+                var expected = function.eval(env).doubleValue();
+                assertEquals(strict.evalDouble(env), expected, 1e-12);
+                assertEquals(expected, function.evalDouble(env));
+                assertEquals(expected, function.flatten().evalDouble(env));
+                assertEquals(expected, bound.evalDouble(new double[] {x[i], y[i]}));
+                assertEquals(expected, compiled.evalDouble(new double[] {x[i], y[i]}));
+                if (precision != Precision.MATH) {
+                    // vectorized FastMath gives the same results, vectorized Math may not
+                    assertEquals(expected, out[i], "row " + i);
+                }
+            }
+        }
+        
+        @Test
+        void testDual() throws Exception {
+            var fast = Expression.parse(DataType.DUAL.with(Precision.FAST), "sin(x) * cos(y)");
+            var result = fast.eval(DualData.environment(new String[] {"x", "y"}, 0.3, 0.4));
+            assertEquals(FastMath.sin(0.3) * FastMath.cos(0.4), result.doubleValue());
+            assertEquals(FastMath.cos(0.3) * FastMath.cos(0.4), result.derivative(0));
+            assertEquals(-FastMath.sin(0.3) * FastMath.sin(0.4), result.derivative(1));
+        }
+    }
+    
+    static class CacheTests {
+        
+        @Test
+        void testHitAndMiss() throws Exception {
+            var cache = new ExpressionCache(10);
+            var expr = cache.parseDouble("x * 2");
+            assertSame(expr, cache.parseDouble("x * 2"));
+            assertSame(expr, cache.parse(DataType.DOUBLE, "x * 2"));
+            assertNotSame(expr, cache.parseDouble("x*2"));
+            assertEquals(2, cache.hits());
+            assertEquals(2, cache.misses());
+            assertEquals(2, cache.size());
+        }
+        
+        @Test
+        void testNormalize() throws Exception {
+            var cache = new ExpressionCache(10, true);
+            var expr = cache.parseDouble("sqrt( x*x + y * y )");
+            assertSame(expr, cache.parseDouble("sqrt(x*x+y*y)"));
+            assertSame(expr, cache.parseDouble("  sqrt (x * x+y*y)"));
+            assertEquals(1, cache.misses());
+            ParseException ex = assertThrows(ParseException.class, () -> cache.parseDouble("x  y"));
+            assertEquals(3, ex.getErrorOffset());
+        }
+        
+        @Test
+        void testEviction() throws Exception {
+            var cache = new ExpressionCache(1);
+            var expr = cache.parseDouble("1");
+            cache.parseDouble("2");
+            assertEquals(1, cache.size());
+            assertEquals(1, cache.evictions());
+            assertNotSame(expr, cache.parseDouble("1"));
+            assertEquals(3, cache.misses());
+        }
+        
+        @Test
+        void testConcurrent() throws Exception {
+            var cache = new ExpressionCache(64);
+            var threads = new Thread[8];
+            var failures = new AtomicInteger();
+            for (var t = 0; t < threads.length; t++) {
+                threads[t] = new Thread(() -> {
+                    try {
+                        for (var i = 0; i < 1000; i++) {
+                            var text = "x + " + (i % 100);
+                            if (cache.parseDouble(text).evalDouble(Environment.of("x", 1.0)) != 1 + i % 100) {
+                                failures.incrementAndGet();
+                            }
+                        }
+                    } catch (Exception ex) {
+                        failures.incrementAndGet();
+                    }
+                });
+                threads[t].start();
+            }
+            for (var thread : threads) {
+                thread.join();
+            }
+            assertEquals(0, failures.get());
+            assertEquals(8000, cache.hits() + cache.misses());
+            assertTrue(cache.size() <= 64);
+        }
+    }
+    
+    static class BatchTests {
+        
+        @ParameterizedTest
+        @ValueSource(strings = {
+            "2.5",
+            "x",
+            "-x * +y - 1 / x",
+            "x + y * z % 0.3",
+            "sqrt(x*x + y*y) / (1 + sqrt(x*x + y*y)) - sin(z) * cos(z)",
+            "((((x+1)*(y-2))/((z+3)-(x*4)))+(((y+5)%(z*6))-((x-7)/(y+8))))"
+        })
+        void testSameAsEvalDouble(String text) throws Exception {
+            var rows = 2 * 1024 + 123;
+            var random = new Random(text.hashCode());
+            var x = random.doubles(rows, -10, 10).toArray();
+            var y = random.doubles(rows, -10, 10).toArray();
+            var z = random.doubles(rows, -10, 10).toArray();
+            var expr = Expression.parseDouble(text);
+            var out = new double[rows];
+            expr.evalBatch(Map.of("x", x, "y", y, "z", z), out);
+            var shared = new double[rows];
+            expr.eliminateCommon().evalBatch(Map.of("x", x, "y", y, "z", z), shared);
+            for (var i = 0; i < rows; i++) {
+                var expected = expr.evalDouble(Environment.of("x", x[i], "y", y[i], "z", z[i]));
+                // vectorized sin and cos may differ by an ulp
+                var delta = Kernels.INSTANCE.isVectorized() ? 1e-12 * Math.max(1, Math.abs(expected)) : 0.0;
+                assertEquals(expected, out[i], delta, text + " row " + i);
+                assertEquals(expected, shared[i], delta, text + " row " + i);
+            }
+        }
+        
+        @Test
+        void testKernelSelection() {
+            var available = ModuleLayer.boot().findModule("jdk.incubator.vector").isPresent();
+            assertEquals(available && !Boolean.getBoolean("cfh.calculator.scalar"), Kernels.INSTANCE.isVectorized());
+        }
+        
+        @Test
+        void testRange() throws Exception {
+            var expr = Expression.parseDouble("x * 2").bind(Slots.of("x"));
+            var out = new double[] {-1, -1, -1, -1};
+            expr.evalBatch(new double[][] {{1, 2, 3, 4}}, 1, 3, out);
+            assertArrayEquals(new double[] {-1, 4, 6, -1}, out);
+            assertThrows(IllegalArgumentException.class, () -> expr.evalBatch(new double[][] {{1}}, out));
+            assertThrows(IndexOutOfBoundsException.class, () -> expr.evalBatch(new double[][] {{1, 2, 3, 4}}, 2, 5, out));
+        }
+    }
+    
+    static class ParallelTests {
+        
+        private static final int ROWS = 100_000;
+        
+        private final BoundExpression<DoubleData> expr;
+        private final double[][] columns;
+        private final double[] expected = new double[ROWS];
+        
+        ParallelTests() throws Exception {
+            var random = new Random(1);
+            columns = new double[][] {random.doubles(ROWS).toArray(), random.doubles(ROWS).toArray()};
+            expr = Expression.parseDouble("sqrt(x*x + y*y) / (1 + sqrt(x*x + y*y)) - x % y").bind(Slots.of("x", "y"));
+            expr.evalBatch(columns, expected);
+        }
+        
+        @Test
+        void testForkJoin() {
+            var out = new double[ROWS];
+            expr.evalParallel(columns, out);
+            assertArrayEquals(expected, out);
+            Arrays.fill(out, 0);
+            expr.eliminateCommon().evalParallel(columns, out, new ForkJoinPool(3), 1000);
+            assertArrayEquals(expected, out);
+        }
+        
+        @Test
+        void testExecutor() {
+            var executor = Executors.newFixedThreadPool(4);
+            try {
+                var out = new double[ROWS];
+                expr.evalParallel(columns, out, executor, 7777);
+                assertArrayEquals(expected, out);
+            } finally {
+                executor.shutdown();
+            }
+        }
+        
+        @Test
+        void testStream() {
+            assertArrayEquals(expected, expr.stream(columns, 0, ROWS).toArray());
+            assertArrayEquals(expected, expr.stream(columns, 0, ROWS).parallel().toArray());
+            assertArrayEquals(
+                Arrays.copyOfRange(expected, 10, 5000), 
+                expr.eliminateCommon().stream(columns, 10, 5000).parallel().toArray());
+            assertEquals(ROWS - 1, expr.stream(columns, 1, ROWS).count());
+        }
+    }
+    
+    static class MissingTests {
+        
+        @Test
+        void testException() throws Exception {
+            var expr = Expression.parseDouble("x + y");
+            var ex = assertThrows(MissingVariableException.class, () -> expr.eval(Environment.of("x", 1)));
+            assertEquals("Unknown variable: y", ex.getMessage());
+            assertEquals("y", ex.variable());
+            assertEquals(0, ex.getStackTrace().length);
+            var bound = expr.bind(Slots.of("x", "y"));
+            var unset = assertThrows(MissingVariableException.class, () -> bound.eval(new SlotEnvironment<DoubleData>(bound.slots())));
+            assertEquals("Unset variable: x", unset.getMessage());
+            assertThrows(MissingVariableException.class, () -> expr.bind(Slots.of("x")));
+        }
+        
+        @Test
+        void testDefault() throws Exception {
+            var bound = Expression.parseDouble("a + 2*b + 4*c").bind(Slots.of("a", "b", "c"));
+            var missing = new Missing(10);
+            assertEquals(7, bound.evalDouble(Environment.of("a", 1, "b", 1, "c", 1), missing));
+            assertEquals(0, missing.count());
+            assertEquals(0L, missing.mask());
+            assertEquals(1 + 20 + 4, bound.evalDouble(Environment.of("a", 1, "c", 1), missing));
+            assertEquals(1, missing.count());
+            assertEquals(0b010L, missing.mask());
+            assertTrue(missing.isMissing(1));
+            assertFalse(missing.isMissing(2));
+            assertEquals(70, bound.evalDouble(new Environment<>(), missing));
+            assertEquals(0b111L, missing.mask());
+            assertEquals(7, bound.evalDouble(Environment.of("a", 1, "b", 1, "c", 1), missing));
+            assertEquals(0L, missing.mask());
+            
+            assertTrue(Double.isNaN(Expression.parseDouble("x * y").evalDouble(Environment.of("x", 2), new Missing())));
+            assertEquals(1, bound.compile().evalDouble(Environment.of("a", 1), new Missing(0)));
+        }
+        
+        @Test
+        void testManyVariables() throws Exception {
+            var names = new ArrayList<String>();
+            var text = new StringBuilder("0");
+            for (var i = 0; i < 100; i++) {
+                names.add("v" + i);
+                text.append(" + v").append(i);
+            }
+            var bound = Expression.parseDouble(text).bind(Slots.of(names));
+            var environment = new Environment<DoubleData>();
+            for (var i = 0; i < 100; i += 3) {
+                environment.put("v" + i, DataType.DOUBLE.valueOf(1));
+            }
+            var missing = new Missing(0);
+            assertEquals(34, bound.evalDouble(environment, missing));
+            assertEquals(66, missing.count());
+            for (var i = 0; i < 100; i++) {
+                assertEquals(i % 3 != 0, missing.isMissing(i), "v" + i);
+            }
+            assertFalse(missing.isMissing(100));
+        }
+        
+        @Test
+        void testFormulaSet() throws Exception {
+            var set = FormulaSet.parseDouble(List.of("x + y", "x * z"));
+            var out = new double[2];
+            var missing = new Missing(-1);
+            set.evalDouble(Environment.of("x", 3, "z", 2), missing, out);
+            assertArrayEquals(new double[] {2, 6}, out);
+            assertEquals(1L << set.slots().indexOf("y"), missing.mask());
+        }
+    }
+    
+    static class SweepTests {
+        
+        @Test
+        void testHoisting() throws Exception {
+            var expr = Expression.parseDouble("sin(x)*y + cos(x) + y*y - 2*3");
+            var sweep = Sweep.of(expr, "x", "y");
+            assertEquals(3, sweep.hoisted());
+            var xs = Sweep.range(-1, 1, 7);
+            var ys = Sweep.range(0, 3, 11);
+            var out = sweep.evalDouble(xs, ys);
+            assertEquals(7 * 11, out.length);
+            assertArrayEquals(out, sweep.compile().evalDouble(xs, ys));
+            for (var i = 0; i < xs.length; i++) {
+                for (var j = 0; j < ys.length; j++) {
+                    assertEquals(expr.evalDouble(Environment.of("x", xs[i], "y", ys[j])), out[i * ys.length + j], "x=" + xs[i] + " y=" + ys[j]);
+                }
+            }
+        }
+        
+        @Test
+        void testLevels() throws Exception {
+            var expr = Expression.parseDouble("sqrt(a*a + b) * c + b % 3 + a");
+            var a = new double[] {1, 2};
+            var b = new double[] {0.5, 1.5, 2.5};
+            var c = new double[] {-1, 0, 1, 4};
+            for (var order : List.of(List.of("a", "b", "c"), List.of("c", "b", "a"), List.of("b", "a", "c"))) {
+                var sweep = Sweep.of(expr, order);
+                var axes = order.stream().map(name -> switch (name) { case "a" -> a; case "b" -> b; default -> c; }).toArray(double[][]::new);
+                var out = sweep.evalDouble(axes);
+                var index = 0;
+                for (var v0 : axes[0]) {
+                    for (var v1 : axes[1]) {
+                        for (var v2 : axes[2]) {
+                            var environment = new Environment<DoubleData>()
+                                .put(order.get(0), DataType.DOUBLE.valueOf(v0))
+                                .put(order.get(1), DataType.DOUBLE.valueOf(v1))
+                                .put(order.get(2), DataType.DOUBLE.valueOf(v2));
+                            assertEquals(expr.evalDouble(environment), out[index++], 1e-12, order + " " + sweep);
+                        }
+                    }
+                }
+            }
+        }
+        
+        @Test
+        void testOuterOnly() throws Exception {
+            var sweep = Sweep.of(Expression.parseDouble("x*x + 1").eliminateCommon(), "x", "y", "z");
+            var out = sweep.evalDouble(new double[] {1, 2}, new double[] {0, 0, 0}, new double[] {0, 0});
+            assertArrayEquals(new double[] {2, 2, 2, 2, 2, 2, 5, 5, 5, 5, 5, 5}, out);
+            assertEquals(1, sweep.hoisted());
+            assertEquals(0, sweep.evalDouble(new double[] {1, 2}, new double[0], new double[] {0}).length);
+        }
+        
+        @Test
+        void testErrors() throws Exception {
+            var expr = Expression.parseDouble("x + y");
+            assertThrows(MissingVariableException.class, () -> Sweep.of(expr, "x"));
+            var sweep = Sweep.of(expr, "x", "y", "z");
+            assertThrows(IllegalArgumentException.class, () -> sweep.evalDouble(new double[] {1}, new double[] {2}));
+            assertThrows(IllegalArgumentException.class, () -> sweep.evalDouble(new double[][] {{1}, {2}, {3}}, new double[2]));
+            assertArrayEquals(new double[] {0, 0.25, 0.5, 0.75, 1}, Sweep.range(0, 1, 5));
+        }
+    }
+    
+    static class ColumnTests {
+        
+        private static final int ROWS = 5000;
+        
+        @Test
+        void testColumn() {
+            var buffer = ByteBuffer.allocate(100).order(ByteOrder.BIG_ENDIAN);
+            var column = Column.of(buffer, 4, 24, 4, ByteOrder.LITTLE_ENDIAN);
+            column.put(3, 1.5);
+            assertEquals(1.5, buffer.order(ByteOrder.LITTLE_ENDIAN).getDouble(4 + 3 * 24));
+            column.put(0, new double[] {9, 7, 8}, 1, 2);
+            var values = new double[3];
+            column.get(0, values, 0, 3);
+            assertArrayEquals(new double[] {7, 8, 0}, values);
+            assertEquals(0, buffer.position());
+            assertEquals(100, buffer.limit());
+            assertThrows(IndexOutOfBoundsException.class, () -> column.get(4));
+            assertThrows(IndexOutOfBoundsException.class, () -> Column.of(buffer, 4, 24, 5, ByteOrder.LITTLE_ENDIAN));
+            assertThrows(IllegalArgumentException.class, () -> Column.of(buffer, 0, 4, 1, ByteOrder.LITTLE_ENDIAN));
+            
+            var packed = Column.of(buffer.position(16));
+            assertEquals(10, packed.rows());
+            assertThrows(ReadOnlyBufferException.class, () -> Column.of(buffer.asReadOnlyBuffer()).put(0, 1));
+        }
+        
+        @Test
+        void testBatch() throws Exception {
+            var random = new Random(2);
+            var x = random.doubles(ROWS).toArray();
+            var y = random.doubles(ROWS).toArray();
+            // records of x, unused, y in big endian, like a mapped file
+            var records = ByteBuffer.allocateDirect(24 * ROWS);
+            for (var i = 0; i < ROWS; i++) {
+                records.putDouble(24 * i, x[i]).putDouble(24 * i + 8, -1).putDouble(24 * i + 16, y[i]);
+            }
+            var columns = new Column[] {
+                Column.of(records, 0, 24, ROWS, ByteOrder.BIG_ENDIAN),
+                Column.of(records, 16, 24, ROWS, ByteOrder.BIG_ENDIAN)};
+            for (var text : List.of("x * y + sqrt(x) - y % 0.3", "sin(x*y) + sin(x*y) / (1 + y)")) {
+                var bound = Expression.parseDouble(text).eliminateCommon().bind(Slots.of("x", "y"));
+                var expected = new double[ROWS];
+                bound.evalBatch(new double[][] {x, y}, expected);
+                var out = Column.allocate(ROWS);
+                bound.evalBatch(columns, 0, ROWS, out);
+                var actual = new double[ROWS];
+                out.get(0, actual, 0, ROWS);
+                assertArrayEquals(expected, actual, text);
+                
+                var part = Column.allocate(ROWS);
+                bound.evalBatch(columns, 100, 3000, part);
+                assertEquals(0, part.get(99));
+                assertEquals(expected[100], part.get(100));
+                assertEquals(expected[2999], part.get(2999));
+                assertEquals(0, part.get(3000));
+            }
+            var bound = Expression.parseDouble("x + y").bind(Slots.of("x", "y"));
+            assertThrows(IllegalArgumentException.class, () -> bound.evalBatch(new Column[] {columns[0]}, 0, 10, Column.allocate(10)));
+            assertThrows(IndexOutOfBoundsException.class, () -> bound.evalBatch(columns, 0, 10, Column.allocate(9)));
+        }
+        
+        @Test
+        void testFormulaSet() throws Exception {
+            var random = new Random(3);
+            var x = random.doubles(ROWS).toArray();
+            var y = random.doubles(ROWS).toArray();
+            var set = FormulaSet.parseDouble(List.of("sqrt(x*y) + 1", "sqrt(x*y) * x", "y - 2"));
+            var expected = new double[3][ROWS];
+            set.evalBatch(new double[][] {x, y}, expected);
+            var columns = new Column[] {Column.allocate(ROWS), Column.allocate(ROWS)};
+            columns[0].put(0, x, 0, ROWS);
+            columns[1].put(0, y, 0, ROWS);
+            var out = new Column[] {Column.allocate(ROWS), Column.allocate(ROWS), Column.allocate(ROWS)};
+            set.evalBatch(columns, 0, ROWS, out);
+            for (var k = 0; k < 3; k++) {
+                var actual = new double[ROWS];
+                out[k].get(0, actual, 0, ROWS);
+                assertArrayEquals(expected[k], actual);
+            }
+        }
     }
 }
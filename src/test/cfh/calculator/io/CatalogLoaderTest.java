@@ -0,0 +1,87 @@
+package cfh.calculator.io;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.io.BufferedReader;
+import java.io.StringReader;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.ValueSource;
+
+import cfh.calculator.Expression;
+import cfh.calculator.data.DataType;
+import cfh.calculator.data.Environment;
+
+
+class CatalogLoaderTest {
+
+    @TempDir
+    Path dir;
+    
+    @ParameterizedTest
+    @ValueSource(ints = {1, 3, 8})
+    void testOrder(int threads) throws Exception {
+        var file = dir.resolve("catalog.txt");
+        var lines = new ArrayList<String>();
+        for (var i = 0; i < 10_000; i++) {
+            lines.add(i % 100 == 99 ? "" : "x * " + i + " + sqrt(y" + (i % 10) + ")");
+        }
+        Files.write(file, lines);
+        var loader = new CatalogLoader<>(DataType.DOUBLE, threads);
+        var catalog = loader.load(file);
+        assertEquals(List.of(), catalog.failures());
+        assertEquals(10_000, catalog.expressions().size());
+        assertEquals(9_900, catalog.count());
+        for (var i = 0; i < lines.size(); i++) {
+            var line = lines.get(i);
+            if (line.isEmpty()) {
+                assertNull(catalog.expressions().get(i));
+            } else {
+                assertEquals(Expression.parseDouble(line), catalog.expressions().get(i), line);
+            }
+        }
+        var progress = loader.progress();
+        assertEquals(10_000, progress.lines());
+        assertEquals(9_900, progress.parsed());
+        assertEquals(0, progress.failed());
+        assertTrue(progress.nanos() > 0);
+        assertTrue(progress.formulasPerSecond() > 0);
+    }
+    
+    @Test
+    void testFailures() throws Exception {
+        var text = "1 + 2\nx + \n\nsin(x)\nfoo(1)\n" + "y\n".repeat(3000) + "(z";
+        var catalog = new CatalogLoader<>(DataType.DOUBLE, 2).load(new BufferedReader(new StringReader(text)));
+        assertEquals(3006, catalog.expressions().size());
+        assertEquals(3002, catalog.count());
+        assertEquals(3.0, catalog.expressions().get(0).eval(new Environment<>()).doubleValue());
+        assertNull(catalog.expressions().get(1));
+        assertNull(catalog.expressions().get(2));
+        assertEquals("sin(x)", catalog.expressions().get(3).toString());
+        assertNull(catalog.expressions().get(4));
+        assertNull(catalog.expressions().get(3005));
+        var failures = catalog.failures();
+        assertEquals(3, failures.size());
+        assertEquals(2, failures.get(0).line());
+        assertEquals(4, failures.get(0).offset());
+        assertEquals(5, failures.get(1).line());
+        assertTrue(failures.get(1).message().startsWith("Unknown function"), failures.get(1).message());
+        assertEquals(3006, failures.get(2).line());
+        assertEquals(2, failures.get(2).offset());
+    }
+    
+    @Test
+    void testEmpty() throws Exception {
+        var catalog = new CatalogLoader<>(DataType.DOUBLE, 4).load(new BufferedReader(new StringReader("")));
+        assertTrue(catalog.expressions().isEmpty());
+        assertEquals(0, catalog.count());
+        assertTrue(catalog.failures().isEmpty());
+        assertThrows(IllegalArgumentException.class, () -> new CatalogLoader<>(DataType.DOUBLE, 0));
+    }
+}
@@ -0,0 +1,128 @@
+package cfh.calculator.io;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.ValueSource;
+
+import cfh.calculator.Expression;
+import cfh.calculator.data.Environment;
+import cfh.calculator.expr.EvalException;
+
+
+class FileEvaluatorTest {
+
+    @TempDir
+    Path dir;
+    
+    @ParameterizedTest
+    @ValueSource(strings = {
+        "0", "-0", "1", "+12", "-3.25", ".5", "5.", "1e3", "1.5E-7", "-2.5e+2", "123456789012345678901234567890",
+        "0.1", "9007199254740993", "1e-300", "4.9e-324", "NaN", "-Infinity", "  7.0 ", "", "0.30000000000000004"
+    })
+    void testNumbers(String text) {
+        var buffer = ByteBuffer.wrap(("x" + text + "y").getBytes());
+        var expected = text.isBlank() ? Double.NaN : Double.parseDouble(text);
+        assertEquals(expected, Numbers.parse(buffer, 1, 1 + text.length()));
+    }
+    
+    @Test
+    void testRandomNumbers() {
+        var random = new Random(1);
+        for (var i = 0; i < 10_000; i++) {
+            var value = random.nextGaussian() * Math.pow(10, random.nextInt(40) - 20);
+            var text = random.nextBoolean() ? Double.toString(value) : String.format("%.6f", value);
+            var buffer = ByteBuffer.wrap(text.getBytes());
+            assertEquals(Double.parseDouble(text), Numbers.parse(buffer, 0, text.length()), text);
+        }
+    }
+    
+    @ParameterizedTest
+    @ValueSource(longs = {64, 1 << 20})
+    void testCsv(long window) throws Exception {
+        var input = dir.resolve("input.csv");
+        var output = dir.resolve("output.txt");
+        var random = new Random(window);
+        var lines = new StringBuilder("id, x ,y,unused\n");
+        var rows = 10_000;
+        var x = new double[rows];
+        var y = new double[rows];
+        for (var i = 0; i < rows; i++) {
+            x[i] = Math.round(random.nextGaussian() * 1e6) / 1e3;
+            y[i] = random.nextDouble();
+            lines.append(i).append(',').append(x[i]).append(", ").append(y[i]).append(",zzz").append(i % 7 == 0 ? "\r\n" : "\n");
+            if (i % 1000 == 0) {
+                lines.append('\n');
+            }
+        }
+        Files.writeString(input, lines);
+        var expr = Expression.parseDouble("sqrt(x*x + y*y) - id");
+        assertEquals(rows, FileEvaluator.evalCsv(expr, input, output, window));
+        var results = Files.readAllLines(output);
+        assertEquals(rows, results.size());
+        for (var i = 0; i < rows; i++) {
+            var expected = expr.evalDouble(Environment.of("x", x[i], "y", y[i], "id", i));
+            assertEquals(expected, Double.parseDouble(results.get(i)));
+        }
+    }
+    
+    @ParameterizedTest
+    @ValueSource(longs = {8, 1 << 20})
+    void testCsvWithoutFinalNewline(long window) throws Exception {
+        var input = dir.resolve("input.csv");
+        var output = dir.resolve("output.txt");
+        var expr = Expression.parseDouble("x + y");
+        Files.writeString(input, "x,y\n1,2\n3,4");
+        var rows = assertTimeoutPreemptively(Duration.ofSeconds(10), () -> FileEvaluator.evalCsv(expr, input, output, window));
+        assertEquals(2, rows);
+        assertEquals(List.of("3.0", "7.0"), Files.readAllLines(output));
+    }
+    
+    @Test
+    void testCsvErrors() throws Exception {
+        var input = dir.resolve("input.csv");
+        var output = dir.resolve("output.txt");
+        var expr = Expression.parseDouble("x + y");
+        Files.writeString(input, "x,z\n1,2\n");
+        assertThrows(EvalException.class, () -> FileEvaluator.evalCsv(expr, input, output));
+        Files.writeString(input, "x,y\n1,2\n3\n");
+        var ex = assertThrows(IOException.class, () -> FileEvaluator.evalCsv(expr, input, output));
+        assertTrue(ex.getMessage().startsWith("line 3"), ex.getMessage());
+        Files.writeString(input, "x,y\n1,2\n3,four\n");
+        ex = assertThrows(IOException.class, () -> FileEvaluator.evalCsv(expr, input, output));
+        assertTrue(ex.getMessage().startsWith("line 3"), ex.getMessage());
+    }
+    
+    @Test
+    void testBinary() throws Exception {
+        var input = dir.resolve("input.bin");
+        var output = dir.resolve("output.bin");
+        var rows = 5000;
+        var buffer = ByteBuffer.allocate(3 * 8 * rows).order(ByteOrder.LITTLE_ENDIAN);
+        var random = new Random(3);
+        for (var i = 0; i < 3 * rows; i++) {
+            buffer.putDouble(random.nextDouble());
+        }
+        Files.write(input, buffer.array());
+        var expr = Expression.parseDouble("a * c - sin(c)");
+        assertEquals(rows, FileEvaluator.evalBinary(expr, List.of("a", "b", "c"), ByteOrder.LITTLE_ENDIAN, input, output));
+        var results = ByteBuffer.wrap(Files.readAllBytes(output)).order(ByteOrder.LITTLE_ENDIAN);
+        assertEquals(8 * rows, results.limit());
+        for (var i = 0; i < rows; i++) {
+            var a = buffer.getDouble(24 * i);
+            var c = buffer.getDouble(24 * i + 16);
+            assertEquals(a * c - Math.sin(c), results.getDouble(8 * i), 1e-15);
+        }
+    }
+}
@@ -0,0 +1,194 @@
+package cfh.calculator.metrics;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.lang.management.ManagementFactory;
+import java.nio.file.Path;
+import java.text.ParseException;
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.management.ObjectName;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import cfh.calculator.Expression;
+import cfh.calculator.data.Environment;
+import cfh.calculator.data.Slots;
+import cfh.calculator.expr.FunctionName;
+import jdk.jfr.Recording;
+import jdk.jfr.consumer.RecordingFile;
+
+
+class MetricsTest {
+
+    // counts only
+    private static final class Counting implements Metrics {
+        
+        final Map<String, AtomicLong> nodes = new ConcurrentHashMap<>();
+        final Map<FunctionName, AtomicLong> functions = new ConcurrentHashMap<>();
+        final Map<String, AtomicLong> variables = new ConcurrentHashMap<>();
+        final AtomicLong parsed = new AtomicLong();
+        final AtomicLong failed = new AtomicLong();
+        
+        @Override
+        public void nodeEvaluated(String node, long nanos) {
+            assertTrue(nanos >= 0);
+            nodes.computeIfAbsent(node, key -> new AtomicLong()).incrementAndGet();
+        }
+        
+        @Override
+        public void functionCalled(FunctionName function, long nanos) {
+            functions.computeIfAbsent(function, key -> new AtomicLong()).incrementAndGet();
+        }
+        
+        @Override
+        public void variableRead(String variable) {
+            variables.computeIfAbsent(variable, key -> new AtomicLong()).incrementAndGet();
+        }
+        
+        @Override
+        public void textParsed(int length, long nanos, boolean failed) {
+            parsed.incrementAndGet();
+            if (failed) {
+                this.failed.incrementAndGet();
+            }
+        }
+        
+        long node(String node) {
+            var count = nodes.get(node);
+            return count == null ? 0 : count.get();
+        }
+    }
+    
+    @Test
+    void testInstrument() throws Exception {
+        var metrics = new Counting();
+        var expr = Expression.parseDouble("sqrt(x*x + y) - x");
+        var instrumented = expr.instrument(metrics);
+        assertEquals(expr.toString(), instrumented.toString());
+        assertEquals(expr.variables(), instrumented.variables());
+        var env = Environment.of("x", 3, "y", 16);
+        assertEquals(expr.evalDouble(env), instrumented.evalDouble(env));
+        assertEquals(expr.eval(env), instrumented.eval(env));
+        assertEquals(2, metrics.node("(sqrt(((x*x)+y))-x)"));
+        assertEquals(2, metrics.node("sqrt(((x*x)+y))"));
+        assertEquals(2, metrics.node("(x*x)"));
+        assertEquals(6, metrics.node("x"));
+        assertEquals(6, metrics.variables.get("x").get());
+        assertEquals(2, metrics.variables.get("y").get());
+        assertEquals(2, metrics.functions.get(FunctionName.SQRT).get());
+        assertNull(metrics.functions.get(FunctionName.SIN));
+        assertEquals(0, new Counting().node("x"));
+    }
+    
+    @Test
+    void testBound() throws Exception {
+        var metrics = new Counting();
+        var expr = Expression.parseDouble("sin(x) * sin(x) + y");
+        var bound = expr.bind(Slots.of("x", "y")).eliminateCommon().compile().instrument(metrics);
+        assertEquals(expr.evalDouble(Environment.of("x", 0.5, "y", 2)), bound.evalDouble(new double[] {0.5, 2}));
+        assertEquals(1, metrics.functions.get(FunctionName.SIN).get());
+        var rows = 3000;
+        var x = new double[rows];
+        var y = new double[rows];
+        var out = new double[rows];
+        bound.evalBatch(new double[][] {x, y}, out);
+        assertEquals(1 + 3, metrics.functions.get(FunctionName.SIN).get());  // shared, once per chunk
+        assertEquals(0.0, out[rows - 1]);
+    }
+    
+    @Test
+    void testParse() throws Exception {
+        var metrics = new Counting();
+        Instrumentation.setParseMetrics(metrics);
+        try {
+            Expression.parseDouble("1 + 2");
+            assertThrows(ParseException.class, () -> Expression.parseDouble("1 +"));
+        } finally {
+            Instrumentation.setParseMetrics(null);
+        }
+        Expression.parseDouble("3");
+        assertEquals(2, metrics.parsed.get());
+        assertEquals(1, metrics.failed.get());
+    }
+    
+    @Test
+    void testJmx() throws Exception {
+        var metrics = JmxMetrics.platform();
+        metrics.reset();
+        var expr = Expression.parseDouble("cos(a) + b").instrument();
+        expr.evalDouble(Environment.of("a", 0, "b", 1));
+        Instrumentation.setParseMetrics(metrics);
+        try {
+            Expression.parseDouble("a + b");
+        } finally {
+            Instrumentation.setParseMetrics(null);
+        }
+        var server = ManagementFactory.getPlatformMBeanServer();
+        var name = new ObjectName(JmxMetrics.OBJECT_NAME);
+        assertEquals(1L, server.getAttribute(name, "ParseCount"));
+        assertEquals(0L, server.getAttribute(name, "ParseFailures"));
+        assertEquals(1L, metrics.getFunctionCounts().get("cos"));
+        assertEquals(0L, metrics.getFunctionCounts().get("sin"));
+        assertEquals(1L, metrics.getVariableReads().get("b"));
+        assertEquals(1L, metrics.getNodeCounts().get("(cos(a)+b)"));
+        assertNotNull(server.getAttribute(name, "NodeCounts"));
+        var histogram = (long[]) server.getAttribute(name, "ParseHistogram");
+        assertEquals(1L, Arrays.stream(histogram).sum());
+        server.invoke(name, "reset", null, null);
+        assertEquals(0, metrics.getParseCount());
+        assertTrue(metrics.getNodeCounts().isEmpty());
+    }
+    
+    @Test
+    void testBoundedKeys() throws Exception {
+        var metrics = new JmxMetrics(2);
+        for (var i = 0; i < 100; i++) {
+            Expression.parseDouble("x" + i + " * 2").instrument(metrics).evalDouble(Environment.of("x" + i, i));
+        }
+        assertEquals(3, metrics.getNodeCounts().size());
+        assertEquals(300L, metrics.getNodeCounts().values().stream().mapToLong(Long::longValue).sum());
+        assertEquals(3, metrics.getVariableReads().size());
+        assertEquals(98L, metrics.getVariableReads().get(JmxMetrics.OTHER));
+        metrics.reset();
+        assertTrue(metrics.getNodeCounts().isEmpty());
+        assertThrows(IllegalArgumentException.class, () -> new JmxMetrics(0));
+    }
+    
+    @Test
+    void testFlightRecorder(@TempDir Path dir) throws Exception {
+        var file = dir.resolve("recording.jfr");
+        try (var recording = new Recording()) {
+            recording.enable("cfh.calculator.Evaluation").withThreshold(Duration.ZERO);
+            recording.enable("cfh.calculator.Parse").withThreshold(Duration.ZERO);
+            recording.start();
+            var expr = Expression.parseDouble("x * 2").instrument(new Counting());
+            expr.evalDouble(Environment.of("x", 1));
+            expr.evalDouble(Environment.of("x", 2));
+            recording.stop();
+            recording.dump(file);
+        }
+        var evaluations = 0;
+        var parses = 0;
+        for (var event : RecordingFile.readAllEvents(file)) {
+            switch (event.getEventType().getName()) {
+                case "cfh.calculator.Evaluation" -> {
+                    assertEquals("(x*2.0)", event.getString("expression"));
+                    evaluations++;
+                }
+                case "cfh.calculator.Parse" -> {
+                    assertEquals(5, event.getInt("length"));
+                    parses++;
+                }
+                default -> { }
+            }
+        }
+        assertEquals(2, evaluations);
+        assertEquals(1, parses);
+    }
+}
@@ -0,0 +1,250 @@
+package cfh.calculator.server;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import cfh.calculator.Expression;
+import cfh.calculator.data.DataType;
+import cfh.calculator.data.Environment;
+
+
+class EvalServerTest {
+
+    private EvalServer server;
+    
+    @BeforeEach
+    void start() throws IOException {
+        server = EvalServer.start(2);
+    }
+    
+    @AfterEach
+    void stop() throws IOException {
+        server.close();
+    }
+    
+    @Test
+    void testEval() throws Exception {
+        try (var client = EvalClient.connect(server.address())) {
+            var formula = client.define("x * y + sqrt(z)");
+            assertEquals(List.of("x", "y", "z"), formula.variables());
+            assertEquals(2 * 3 + 2.0, client.eval(formula.id(), 2, 3, 4));
+            assertEquals(formula, client.define("x * y + sqrt(z)"));
+            assertEquals(formula.id(), server.define("x * y + sqrt(z)"));
+            var constant = client.define("1 + 2");
+            assertEquals(List.of(), constant.variables());
+            assertEquals(3.0, client.eval(constant.id()));
+        }
+    }
+    
+    @Test
+    void testErrors() throws Exception {
+        try (var client = EvalClient.connect(server.address())) {
+            var ex = assertThrows(IOException.class, () -> client.define("x +"));
+            assertTrue(ex.getMessage().contains("offset 3"), ex.getMessage());
+            var id = client.define("x - y").id();
+            ex = assertThrows(IOException.class, () -> client.eval(id, 1));
+            assertTrue(ex.getMessage().contains("expected 2 values, got 1"), ex.getMessage());
+            ex = assertThrows(IOException.class, () -> client.eval(id + 100, 1));
+            assertTrue(ex.getMessage().contains("unknown formula"), ex.getMessage());
+            assertEquals(-1.0, client.eval(id, 1, 2));
+        }
+        assertEquals(3, server.stats().errors());
+    }
+    
+    // a request failing unexpectedly is answered and the server keeps serving
+    @Test
+    void testHandlerFailure() throws Exception {
+        var nested = "(".repeat(200_000) + "x" + ")".repeat(200_000);
+        try (var client = EvalClient.connect(server.address())) {
+            assertThrows(IOException.class, () -> client.define(nested));
+            assertEquals(4.0, client.eval(client.define("x * x").id(), 2));
+        }
+        try (var client = EvalClient.connect(server.address())) {
+            assertEquals(3.0, client.eval(client.define("x + 1").id(), 2));
+        }
+        assertEquals(1, server.stats().errors());
+    }
+    
+    // an error for a formula does not overtake the values requested before it
+    @Test
+    void testErrorOrder() throws Exception {
+        var id = server.define("x + y");
+        try (var socket = new Socket(server.address().getAddress(), server.address().getPort())) {
+            var out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+            var in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+            for (var request = 0; request <= 2000; request++) {
+                var count = request == 2000 ? 1 : 2;
+                out.writeInt(5 + 4 + 8 * count);
+                out.writeByte(2);
+                out.writeInt(request);
+                out.writeInt(id);
+                for (var i = 0; i < count; i++) {
+                    out.writeDouble(request);
+                }
+            }
+            out.flush();
+            for (var request = 0; request <= 2000; request++) {
+                var length = in.readInt();
+                var code = in.readByte();
+                assertEquals(request, in.readInt());
+                assertEquals(request == 2000 ? 1 : 0, code);
+                in.skipNBytes(length - 5);
+            }
+        }
+    }
+    
+    // the client stays usable after an error in the middle of evalAll
+    @Test
+    void testEvalAllError() throws Exception {
+        try (var client = EvalClient.connect(server.address())) {
+            var id = client.define("x * y").id();
+            var rows = new double[1000][];
+            for (var i = 0; i < rows.length; i++) {
+                rows[i] = i == 500 ? new double[] {i} : new double[] {i, 2};
+            }
+            var ex = assertThrows(IOException.class, () -> client.evalAll(id, rows));
+            assertTrue(ex.getMessage().contains("expected 2 values, got 1"), ex.getMessage());
+            assertEquals(6.0, client.eval(id, 3, 2));
+            rows[500] = new double[] {500, 2};
+            assertEquals(1998.0, client.evalAll(id, rows)[999]);
+        }
+    }
+    
+    // a connection failing to be accepted waits for the next round, the server keeps accepting
+    @Test
+    void testAcceptFailure() throws Exception {
+        var failures = new AtomicInteger(3);
+        try (var failing = EvalServer.start(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0),
+                DataType.DOUBLE, 1, channel -> {
+                    if (failures.getAndDecrement() > 0) {
+                        throw new IOException("Too many open files");
+                    }
+                    return channel.accept();
+                })) {
+            try (var client = EvalClient.connect(failing.address())) {
+                assertEquals(2.0, client.eval(client.define("x + 1").id(), 1));
+                assertEquals(1, failing.stats().connections());
+            }
+            assertTrue(failures.get() < 0);
+            assertTrue(failing.isOpen());
+        }
+    }
+    
+    @Test
+    void testPipelined() throws Exception {
+        var text = "sin(x) * cos(y) - x / (y + 100)";
+        var expression = Expression.parseDouble(text);
+        var random = new Random(1);
+        var rows = new double[10_000][];
+        for (var i = 0; i < rows.length; i++) {
+            rows[i] = new double[] {random.nextDouble(-10, 10), random.nextDouble(-10, 10)};
+        }
+        try (var client = EvalClient.connect(server.address())) {
+            var formula = client.define(text);
+            var results = client.evalAll(formula.id(), rows);
+            for (var i = 0; i < rows.length; i++) {
+                assertEquals(expression.evalDouble(Environment.of("x", rows[i][0], "y", rows[i][1])), results[i], 1e-12);
+            }
+        }
+        var stats = server.stats();
+        assertEquals(10_001, stats.requests());
+        assertTrue(stats.batches() < 10_000, "batches " + stats.batches());
+        assertTrue(stats.meanBatchSize() > 1, "mean batch size " + stats.meanBatchSize());
+        assertTrue(server.latencyMicros(0.5) <= server.latencyMicros(0.99));
+        assertTrue(stats.requestsPerSecond() > 0);
+    }
+    
+    @Test
+    void testConcurrentClients() throws Exception {
+        var id = server.define("a * 2 + b");
+        var pool = Executors.newFixedThreadPool(4);
+        try {
+            var tasks = new ArrayList<Callable<Boolean>>();
+            for (var c = 0; c < 4; c++) {
+                var offset = 1000.0 * c;
+                tasks.add(() -> {
+                    try (var client = EvalClient.connect(server.address())) {
+                        var rows = new double[2000][];
+                        for (var i = 0; i < rows.length; i++) {
+                            rows[i] = new double[] {i, offset};
+                        }
+                        var results = client.evalAll(id, rows);
+                        for (var i = 0; i < rows.length; i++) {
+                            if (results[i] != 2.0 * i + offset) {
+                                return false;
+                            }
+                        }
+                        return true;
+                    }
+                });
+            }
+            for (var future : pool.invokeAll(tasks)) {
+                assertTrue(future.get());
+            }
+        } finally {
+            pool.shutdown();
+        }
+        assertEquals(8000, server.stats().requests());
+    }
+    
+    // the frames as any other language would write them
+    @Test
+    void testRawProtocol() throws Exception {
+        try (var socket = new Socket(server.address().getAddress(), server.address().getPort())) {
+            var out = new DataOutputStream(socket.getOutputStream());
+            var in = new DataInputStream(socket.getInputStream());
+            var text = "v % 3".getBytes(StandardCharsets.UTF_8);
+            out.writeInt(5 + text.length);
+            out.writeByte(1);
+            out.writeInt(77);
+            out.write(text);
+            out.flush();
+            assertEquals(5 + 4 + 2 + 2 + 1, in.readInt());
+            assertEquals(0, in.readByte());
+            assertEquals(77, in.readInt());
+            var formula = in.readInt();
+            assertEquals(1, in.readUnsignedShort());
+            assertEquals(1, in.readUnsignedShort());
+            assertEquals('v', in.readByte());
+            out.writeInt(5 + 4 + 8);
+            out.writeByte(2);
+            out.writeInt(78);
+            out.writeInt(formula);
+            out.writeDouble(10);
+            out.flush();
+            assertEquals(5 + 8, in.readInt());
+            assertEquals(0, in.readByte());
+            assertEquals(78, in.readInt());
+            assertEquals(1.0, in.readDouble());
+        }
+    }
+    
+    @Test
+    void testClose() throws Exception {
+        var client = EvalClient.connect(server.address());
+        var id = client.define("x").id();
+        assertEquals(5.0, client.eval(id, 5));
+        server.close();
+        assertThrows(IOException.class, () -> client.eval(id, 5));
+        client.close();
+    }
+}